@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationResult;
+import org.springframework.cloud.stream.app.transform.javacompiler.RuntimeJavaCompiler;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Compares the throughput of a CPU bound compiled processor run sequentially and on
+ * several rails with the outputs merged unordered or ordered.
+ * 
+ * @author Andy Clement
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParallelReactiveProcessorBenchmark {
+
+	private static final int ELEMENTS = 10000;
+
+	private static final String CODE = "return input -> input.map(s->{double d=s.hashCode();for (int i=0;i<1000;i++) d=Math.sin(d)+i;return d;});";
+
+	@Param({ "sequential", "unordered", "ordered" })
+	public String mode;
+
+	@Param({ "4" })
+	public int parallelism;
+
+	@Param({ "256" })
+	public int batchSize;
+
+	private ReactiveProcessor<Object, Object> processor;
+
+	private ThreadPoolExecutor executor;
+
+	private Scheduler scheduler;
+
+	private Flux<Object> elements;
+
+	@Setup
+	public void setup() throws Exception {
+		RuntimeJavaCompiler compiler = new RuntimeJavaCompiler();
+		CompilationResult compilationResult = compiler.compile("org.springframework.cloud.stream.app.transform.ReactiveClass",
+				ReactiveTransformer.makeSourceClassDefinition(CODE));
+		compiler.close();
+		if (!compilationResult.wasSuccessful()) {
+			throw new IllegalStateException("Compilation failed: "+compilationResult);
+		}
+		for (Class<?> clazz: compilationResult.getCompiledClasses()) {
+			if (ProcessorFactory.class.isAssignableFrom(clazz)) {
+				processor = ((ProcessorFactory) clazz.newInstance()).getProcessor();
+			}
+		}
+		if (!mode.equals("sequential")) {
+			// The rails run on the same kind of pool as in the application
+			executor = ParallelReactiveProcessor.createExecutor(ParallelReactiveProcessor.PARALLEL_SCHEDULER, "processor",
+					parallelism, 0, 60000);
+			scheduler = Schedulers.fromExecutorService(executor);
+			processor = new ParallelReactiveProcessor(processor, parallelism, mode.equals("ordered"), batchSize, scheduler);
+		}
+		List<Object> values = new ArrayList<>();
+		for (int i = 0; i < ELEMENTS; i++) {
+			values.add("element" + i);
+		}
+		elements = Flux.fromIterable(values);
+	}
+
+	@TearDown
+	public void teardown() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(ELEMENTS)
+	public Object throughput() {
+		return processor.apply(elements).blockLast();
+	}
+
+}
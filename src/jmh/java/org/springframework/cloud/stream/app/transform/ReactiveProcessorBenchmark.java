@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationResult;
+import org.springframework.cloud.stream.app.transform.javacompiler.RuntimeJavaCompiler;
+
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+
+/**
+ * Measures the steady state cost of pushing elements through a compiled processor, without
+ * a binder involved. Throughput is measured by running a batch of in-memory elements through
+ * the processor, latency by pushing single elements into an already subscribed processor.
+ * 
+ * @author Andy Clement
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReactiveProcessorBenchmark {
+
+	private static final int ELEMENTS = 10000;
+
+	@Param({ "return input -> input.map(s->s.toString().toUpperCase());",
+			"return input -> input.buffer(5).map(list->list.get(0));" })
+	public String code;
+
+	private ReactiveProcessor<Object, Object> processor;
+
+	private Flux<Object> elements;
+
+	private DirectProcessor<Object> singleElementInput;
+
+	private Object lastOutput;
+
+	@Setup
+	public void setup() throws Exception {
+		RuntimeJavaCompiler compiler = new RuntimeJavaCompiler();
+		CompilationResult compilationResult = compiler.compile("org.springframework.cloud.stream.app.transform.ReactiveClass",
+				ReactiveTransformer.makeSourceClassDefinition(code));
+		compiler.close();
+		if (!compilationResult.wasSuccessful()) {
+			throw new IllegalStateException("Compilation failed: "+compilationResult);
+		}
+		for (Class<?> clazz: compilationResult.getCompiledClasses()) {
+			if (ProcessorFactory.class.isAssignableFrom(clazz)) {
+				processor = ((ProcessorFactory) clazz.newInstance()).getProcessor();
+			}
+		}
+		List<Object> values = new ArrayList<>();
+		for (int i = 0; i < ELEMENTS; i++) {
+			values.add("element" + i);
+		}
+		elements = Flux.fromIterable(values);
+		singleElementInput = DirectProcessor.create();
+		processor.apply(singleElementInput).subscribe(output -> lastOutput = output);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(ELEMENTS)
+	public Object throughput() {
+		return processor.apply(elements).blockLast();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Object latency() {
+		singleElementInput.onNext("element");
+		return lastOutput;
+	}
+
+}
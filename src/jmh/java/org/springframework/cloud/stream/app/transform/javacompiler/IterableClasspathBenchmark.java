@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaFileObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Measures iterating over the classes on a classpath, either all of them or those in one
+ * package (as javac asks for them), for each of the classpath layouts an app may run with:
+ * an exploded directory of classes, a plain jar and a spring boot uberjar with nested libraries.
+ * For comparison the same package lookups are made against a {@link ClasspathIndex}.
+ * 
+ * @author Andy Clement
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IterableClasspathBenchmark {
+
+	@Param({ "directory", "jar", "bootjar" })
+	public String layout;
+
+	@Param({ "true", "false" })
+	public boolean wholeClasspath;
+
+	private String classpath;
+
+	private String packageName;
+
+	private File bootJar;
+
+	private ClasspathIndex classpathIndex;
+
+	@Setup
+	public void setup() throws Exception {
+		File classesDirectory = getCodeSource(RuntimeJavaCompiler.class);
+		File reactorJar = getCodeSource(Flux.class);
+		switch (layout) {
+		case "directory":
+			classpath = classesDirectory.getPath();
+			packageName = RuntimeJavaCompiler.class.getPackage().getName();
+			break;
+		case "jar":
+			classpath = reactorJar.getPath();
+			packageName = Flux.class.getPackage().getName();
+			break;
+		case "bootjar":
+			bootJar = createBootJar(classesDirectory, reactorJar, getCodeSource(org.springframework.core.SpringVersion.class),
+					getCodeSource(org.springframework.context.ApplicationContext.class));
+			classpath = bootJar.getPath();
+			packageName = Flux.class.getPackage().getName();
+			break;
+		default:
+			throw new IllegalArgumentException(layout);
+		}
+		if (wholeClasspath) {
+			packageName = null;
+		}
+		classpathIndex = new ClasspathIndex(classpath);
+	}
+
+	@TearDown
+	public void tearDown() {
+		classpathIndex.close();
+		if (bootJar != null) {
+			bootJar.delete();
+		}
+	}
+
+	@Benchmark
+	public int iterate() {
+		IterableClasspath iterableClasspath = new IterableClasspath(classpath, packageName, false);
+		int count = 0;
+		for (Iterator<JavaFileObject> iterator = iterableClasspath.iterator(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		iterableClasspath.close();
+		return count;
+	}
+
+	@Benchmark
+	public List<JavaFileObject> indexedList() {
+		return classpathIndex.list(packageName, false);
+	}
+
+	private static File getCodeSource(Class<?> clazz) throws URISyntaxException {
+		return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+	}
+
+	/**
+	 * Build a jar laid out as spring boot lays out an uberjar, with the classes of the app under
+	 * BOOT-INF/classes and the library jars stored (uncompressed) under BOOT-INF/lib.
+	 */
+	private static File createBootJar(File classesDirectory, File... libraries) throws IOException {
+		File bootJar = File.createTempFile("benchmark", ".jar");
+		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(bootJar))) {
+			Path root = classesDirectory.toPath();
+			try (Stream<Path> paths = Files.walk(root)) {
+				for (Path path: paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+					zos.putNextEntry(new ZipEntry("BOOT-INF/classes/" + root.relativize(path).toString().replace(File.separatorChar, '/')));
+					zos.write(Files.readAllBytes(path));
+					zos.closeEntry();
+				}
+			}
+			for (File library: libraries) {
+				byte[] bytes = Files.readAllBytes(library.toPath());
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				ZipEntry entry = new ZipEntry("BOOT-INF/lib/" + library.getName());
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(bytes.length);
+				entry.setCompressedSize(bytes.length);
+				entry.setCrc(crc.getValue());
+				zos.putNextEntry(entry);
+				zos.write(bytes);
+				zos.closeEntry();
+			}
+		}
+		return bootJar;
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.app.transform.ReactiveTransformer;
+
+/**
+ * Measures compiling the processor template. A compilation in a fresh JVM is what an app pays
+ * at startup, it is measured by {@link FreshJvm} whose state does no compiling beforehand. A
+ * compilation with a new compiler in an already warm JVM includes building the classpath indexes.
+ * A compilation with a warm compiler reuses the indexes.
+ * 
+ * @author Andy Clement
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RuntimeJavaCompilerBenchmark {
+
+	private static final String CLASS_NAME = "org.springframework.cloud.stream.app.transform.ReactiveClass";
+
+	private static final String SOURCE = ReactiveTransformer.makeSourceClassDefinition(
+			"return input -> input.map(s->s.toString().toUpperCase());");
+
+	@Param({ JavacCompilerBackend.NAME, EcjCompilerBackend.NAME })
+	public String backend;
+
+	private RuntimeJavaCompiler warmCompiler;
+
+	@Setup
+	public void setup() {
+		warmCompiler = newCompiler(backend);
+		check(warmCompiler.compile(CLASS_NAME, SOURCE));
+	}
+
+	@TearDown
+	public void tearDown() {
+		warmCompiler.close();
+	}
+
+	/**
+	 * The first compilation in each forked JVM, nothing having been compiled (or warmed up) before it.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public static class FreshJvm {
+
+		@Param({ JavacCompilerBackend.NAME, EcjCompilerBackend.NAME })
+		public String backend;
+
+		@Benchmark
+		public CompilationResult firstCompile() {
+			return compileWithNewCompiler(backend);
+		}
+	}
+
+	@Benchmark
+	public CompilationResult compileWithNewCompiler() {
+		return compileWithNewCompiler(backend);
+	}
+
+	@Benchmark
+	public CompilationResult compileWithWarmCompiler() {
+		return check(warmCompiler.compile(CLASS_NAME, SOURCE));
+	}
+
+	private static CompilationResult compileWithNewCompiler(String backend) {
+		RuntimeJavaCompiler compiler = newCompiler(backend);
+		try {
+			return check(compiler.compile(CLASS_NAME, SOURCE));
+		} finally {
+			compiler.close();
+		}
+	}
+
+	private static RuntimeJavaCompiler newCompiler(String backend) {
+		RuntimeJavaCompiler compiler = new RuntimeJavaCompiler();
+		compiler.setCompilerBackend(RuntimeJavaCompiler.createCompilerBackend(backend));
+		return compiler;
+	}
+
+	private static CompilationResult check(CompilationResult compilationResult) {
+		if (!compilationResult.wasSuccessful()) {
+			throw new IllegalStateException("Compilation failed: "+compilationResult);
+		}
+		return compilationResult;
+	}
+
+}
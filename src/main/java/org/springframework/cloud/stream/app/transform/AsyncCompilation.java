@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * Compiles the code on a background thread whilst the rest of the application context starts, so
+ * that the binder, broker connections and actuator are set up in parallel with the compiler. The
+ * processors are created with placeholders that are replaced once compiled. As a lifecycle
+ * started just before the input bindings, this waits for every compilation to complete (failing
+ * the startup if any fails), so no message is consumed until the processors are ready.
+ *
+ * @author Andy Clement
+ */
+public class AsyncCompilation implements SmartLifecycle {
+
+	private static Logger logger = LoggerFactory.getLogger(AsyncCompilation.class);
+
+	// The input bindings are started in phase Integer.MAX_VALUE-1000
+	private static final int PHASE = Integer.MAX_VALUE - 2000;
+
+	/**
+	 * A processor for use until the compiled one replaces it, no input reaches it as the input
+	 * bindings are not started until then.
+	 */
+	public static final ReactiveProcessor<Object, Object> PLACEHOLDER_PROCESSOR = input -> input.filter(element -> {
+		logger.warn("Discarding {}, received before the code was compiled", element);
+		return false;
+	});
+
+	/**
+	 * A function for use until the compiled one replaces it.
+	 */
+	public static final Function<Object, Object> PLACEHOLDER_FUNCTION = element -> {
+		logger.warn("Discarding {}, received before the code was compiled", element);
+		return null;
+	};
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "async-compilation");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final List<Future<?>> compilations = new ArrayList<>();
+
+	private volatile boolean running;
+
+	private volatile long waitTime = -1;
+
+	/**
+	 * Compile in the background. Compilations are run one at a time, in the order submitted.
+	 * 
+	 * @param description what is being compiled, for reporting a failure
+	 * @param compiler compiles the code returning the result, or null if compilation fails
+	 * @param installer puts the result in place of the placeholder
+	 */
+	public synchronized <T> void submit(String description, Supplier<T> compiler, Consumer<T> installer) {
+		compilations.add(executor.submit(() -> {
+			T result = compiler.get();
+			if (result == null) {
+				throw new IllegalStateException("Failed to compile "+description);
+			}
+			installer.accept(result);
+			return null;
+		}));
+	}
+
+	@Override
+	public synchronized void start() {
+		long stime = System.nanoTime();
+		try {
+			for (Future<?> compilation: compilations) {
+				compilation.get();
+			}
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Compilation failed, not starting the input bindings", ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted whilst waiting for compilation", ie);
+		} finally {
+			executor.shutdown();
+		}
+		waitTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stime);
+		if (!compilations.isEmpty()) {
+			logger.info("Waited {}ms for compilation before starting the input bindings", waitTime);
+		}
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	@Override
+	public int getPhase() {
+		return PHASE;
+	}
+
+	/**
+	 * @return the time in milliseconds startup waited for compilation to complete, or -1 if not yet started
+	 */
+	public long getWaitTime() {
+		return waitTime;
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Carries what is needed to acknowledge a message through to a {@link BatchingReactiveProcessor},
+ * which only sees payloads, by wrapping the payload of each message that must be manually
+ * acknowledged (i.e. has broker channel and delivery tag headers) together with those headers.
+ * Messages that need no acknowledgement are passed on unchanged. It should be the last interceptor
+ * on the channel, so that any payload conversion has already happened.
+ * 
+ * @author Andy Clement
+ */
+public class BatchAcknowledgementInterceptor extends ChannelInterceptorAdapter {
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		Object brokerChannel = message.getHeaders().get(AmqpHeaders.CHANNEL);
+		Object deliveryTag = message.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
+		if (!(brokerChannel instanceof Channel) || !(deliveryTag instanceof Long)) {
+			return message;
+		}
+		return MessageBuilder.withPayload(new BatchingReactiveProcessor.UnacknowledgedPayload(message.getPayload(),
+				(Channel) brokerChannel, (Long) deliveryTag)).copyHeaders(message.getHeaders()).build();
+	}
+
+}
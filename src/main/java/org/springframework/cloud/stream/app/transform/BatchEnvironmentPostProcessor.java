@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.cloud.stream.messaging.Processor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+/**
+ * When a <tt>batchSize</tt> is specified, configures the rabbit input bindings (of the main
+ * processor and any named processors) for batches to be acknowledged as a unit: messages are
+ * acknowledged manually, by the {@link BatchingReactiveProcessor}, and the broker is allowed to
+ * deliver a whole batch before any of it is acknowledged. When an <tt>outputBatchSize</tt> is
+ * specified, configures the rabbit output bindings to collect the outputs into batches published
+ * as single broker messages, which consuming rabbit bindings split back into the individual
+ * outputs, and enables publisher confirms so that {@link OutputBatchMetrics} can track them.
+ * Values configured explicitly take precedence.
+ *
+ * @author Andy Clement
+ */
+public class BatchEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+	private static final String PROPERTY_SOURCE_NAME = "batchBindings";
+
+	private static final String RABBIT_BINDINGS_PREFIX = "spring.cloud.stream.rabbit.bindings.";
+
+	@Override
+	public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+		int batchSize = environment.getProperty("batchSize", Integer.class, 0);
+		int outputBatchSize = environment.getProperty("outputBatchSize", Integer.class, 0);
+		if (batchSize <= 0 && outputBatchSize <= 0) {
+			return;
+		}
+		Map<String, Object> properties = new HashMap<>();
+		Set<String> names = new RelaxedPropertyResolver(environment, "processors.").getSubProperties("").keySet();
+		if (batchSize > 0) {
+			addConsumerProperties(properties, Processor.INPUT, batchSize);
+			for (String name: names) {
+				addConsumerProperties(properties, name + NamedProcessors.INPUT_SUFFIX, batchSize);
+			}
+		}
+		if (outputBatchSize > 0) {
+			long linger = environment.getProperty("outputBatchLinger", Long.class, 100L);
+			int bufferLimit = environment.getProperty("outputBatchBufferLimit", Integer.class, 10000);
+			addProducerProperties(properties, Processor.OUTPUT, outputBatchSize, linger, bufferLimit);
+			for (String name: names) {
+				addProducerProperties(properties, name + NamedProcessors.OUTPUT_SUFFIX, outputBatchSize, linger, bufferLimit);
+			}
+			properties.put("spring.rabbitmq.publisher-confirms", true);
+		}
+		environment.getPropertySources().addLast(new MapPropertySource(PROPERTY_SOURCE_NAME, properties));
+	}
+
+	private static void addConsumerProperties(Map<String, Object> properties, String input, int batchSize) {
+		properties.put(RABBIT_BINDINGS_PREFIX + input + ".consumer.acknowledgeMode", "MANUAL");
+		properties.put(RABBIT_BINDINGS_PREFIX + input + ".consumer.prefetch", batchSize);
+	}
+
+	private static void addProducerProperties(Map<String, Object> properties, String output, int batchSize,
+			long linger, int bufferLimit) {
+		// The binder's batching template publishes when the batch is full, too big, or no output has arrived for the linger time
+		properties.put(RABBIT_BINDINGS_PREFIX + output + ".producer.batchingEnabled", true);
+		properties.put(RABBIT_BINDINGS_PREFIX + output + ".producer.batchSize", batchSize);
+		properties.put(RABBIT_BINDINGS_PREFIX + output + ".producer.batchTimeout", linger);
+		properties.put(RABBIT_BINDINGS_PREFIX + output + ".producer.batchBufferLimit", bufferLimit);
+	}
+
+}
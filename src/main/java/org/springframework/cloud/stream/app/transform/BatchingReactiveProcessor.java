@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.Channel;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A ReactiveProcessor that passes its input to another processor in batches, each element the
+ * other processor receives is a <tt>List</tt> of up to <tt>batchSize</tt> payloads, collected
+ * for at most <tt>batchTimeout</tt> milliseconds. Each batch is passed to the other processor
+ * as a separate sequence, up to <tt>concurrency</tt> batches at a time, and the outputs are
+ * emitted in the order of the batches.
+ * <p>
+ * Payloads wrapped by {@link BatchAcknowledgementInterceptor} are acknowledged once the
+ * processing of their batch has completed, i.e. its outputs have all been emitted, and after
+ * every earlier batch. So one acknowledgement per broker channel covers the whole batch and
+ * those before it. If the processing of a batch fails, or is cancelled, its payloads are
+ * rejected and requeued, the following batches are still processed.
+ * 
+ * @author Andy Clement
+ */
+public class BatchingReactiveProcessor implements ReactiveProcessor<Object, Object> {
+
+	private static Logger logger = LoggerFactory.getLogger(BatchingReactiveProcessor.class);
+
+	private final ReactiveProcessor<Object, Object> delegate;
+
+	private final int batchSize;
+
+	private final long batchTimeout;
+
+	private final int concurrency;
+
+	/**
+	 * A payload that has not yet been acknowledged, with what is needed to acknowledge it.
+	 */
+	static class UnacknowledgedPayload {
+
+		final Object payload;
+
+		final Channel channel;
+
+		final long deliveryTag;
+
+		UnacknowledgedPayload(Object payload, Channel channel, long deliveryTag) {
+			this.payload = payload;
+			this.channel = channel;
+			this.deliveryTag = deliveryTag;
+		}
+
+		@Override
+		public String toString() {
+			return "UnacknowledgedPayload[deliveryTag="+deliveryTag+",payload="+payload+"]";
+		}
+	}
+
+	/**
+	 * Signals, in the output of a batch, that the batch has been processed.
+	 */
+	private static class BatchCompleted {
+
+		final List<Object> batch;
+
+		BatchCompleted(List<Object> batch) {
+			this.batch = batch;
+		}
+	}
+
+	/**
+	 * @param delegate the processor to pass the batches to
+	 * @param batchSize the maximum number of payloads in a batch
+	 * @param batchTimeout the maximum time in milliseconds to wait for a batch to fill
+	 */
+	public BatchingReactiveProcessor(ReactiveProcessor<Object, Object> delegate, int batchSize, long batchTimeout) {
+		this(delegate, batchSize, batchTimeout, 1);
+	}
+
+	/**
+	 * @param delegate the processor to pass the batches to
+	 * @param batchSize the maximum number of payloads in a batch
+	 * @param batchTimeout the maximum time in milliseconds to wait for a batch to fill
+	 * @param concurrency the maximum number of batches being processed at once
+	 */
+	public BatchingReactiveProcessor(ReactiveProcessor<Object, Object> delegate, int batchSize, long batchTimeout, int concurrency) {
+		this.delegate = delegate;
+		this.batchSize = batchSize;
+		this.batchTimeout = batchTimeout;
+		this.concurrency = concurrency;
+	}
+
+	@Override
+	public Flux<Object> apply(Flux<Object> input) {
+		// The outputs of each batch are followed by a BatchCompleted, which flatMapSequential passes
+		// on only after the outputs of all the earlier batches, so acknowledging as it passes covers
+		// only batches that have completed
+		return input.bufferMillis(batchSize, batchTimeout)
+				.flatMapSequential(this::processBatch, concurrency)
+				.filter(output -> !acknowledgeIfCompleted(output));
+	}
+
+	private Flux<Object> processBatch(List<Object> batch) {
+		return Flux.concat(delegate.apply(Flux.just(payloadsOf(batch))), Mono.fromCallable(() -> new BatchCompleted(batch)))
+				.doOnCancel(() -> reject(batch))
+				.onErrorResume(e -> {
+					logger.error("Processing of a batch of "+batch.size()+" failed, rejecting it", e);
+					reject(batch);
+					return Flux.empty();
+				});
+	}
+
+	private static boolean acknowledgeIfCompleted(Object output) {
+		if (output instanceof BatchCompleted) {
+			acknowledge(((BatchCompleted) output).batch);
+			return true;
+		}
+		return false;
+	}
+
+	private static List<Object> payloadsOf(List<Object> batch) {
+		List<Object> payloads = new ArrayList<>(batch.size());
+		for (Object element: batch) {
+			payloads.add(element instanceof UnacknowledgedPayload ? ((UnacknowledgedPayload) element).payload : element);
+		}
+		return payloads;
+	}
+
+	/**
+	 * Acknowledge the payloads of a batch, each delivery tag acknowledges every earlier delivery on
+	 * the same channel so only the last one from each channel needs acknowledging.
+	 */
+	static void acknowledge(List<Object> batch) {
+		Map<Channel, Long> lastDeliveryTags = new LinkedHashMap<>();
+		for (Object element: batch) {
+			if (element instanceof UnacknowledgedPayload) {
+				UnacknowledgedPayload unacknowledged = (UnacknowledgedPayload) element;
+				lastDeliveryTags.merge(unacknowledged.channel, unacknowledged.deliveryTag, Math::max);
+			}
+		}
+		for (Map.Entry<Channel, Long> entry: lastDeliveryTags.entrySet()) {
+			try {
+				entry.getKey().basicAck(entry.getValue(), true);
+			} catch (IOException ioe) {
+				logger.error("Failed to acknowledge batch up to delivery tag "+entry.getValue(), ioe);
+			}
+		}
+	}
+
+	/**
+	 * Reject the payloads of a batch, so the broker delivers them again. Each is rejected individually
+	 * as other batches from the same channel may still be in progress.
+	 */
+	static void reject(List<Object> batch) {
+		for (Object element: batch) {
+			if (element instanceof UnacknowledgedPayload) {
+				UnacknowledgedPayload unacknowledged = (UnacknowledgedPayload) element;
+				try {
+					unacknowledged.channel.basicNack(unacknowledged.deliveryTag, false, true);
+				} catch (IOException ioe) {
+					logger.error("Failed to reject delivery tag "+unacknowledged.deliveryTag, ioe);
+				}
+			}
+		}
+	}
+
+	public ReactiveProcessor<Object, Object> getDelegate() {
+		return delegate;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getBatchTimeout() {
+		return batchTimeout;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+}
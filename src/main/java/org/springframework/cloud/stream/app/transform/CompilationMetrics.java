@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationStatistics;
+
+/**
+ * Publishes the statistics collected whilst compiling the code through the actuator
+ * <tt>/metrics</tt> endpoint. The statistics of the most recent compilation are published
+ * under <tt>compiler.last.*</tt> and the sum over all compilations (initial and reloads)
+ * under <tt>compiler.total.*</tt>. Times are in milliseconds.
+ *
+ * @author Andy Clement
+ */
+public class CompilationMetrics implements PublicMetrics {
+
+	private static final String PREFIX = "compiler.";
+
+	private long compilations;
+
+	private long cacheHits;
+
+	private CompilationStatistics last;
+
+	private CompilationStatistics total = new CompilationStatistics();
+
+	/**
+	 * @param statistics the statistics of a completed compilation
+	 */
+	public synchronized void record(CompilationStatistics statistics) {
+		compilations++;
+		if (statistics.isFromCache()) {
+			cacheHits++;
+		}
+		last = statistics;
+		total.add(statistics);
+	}
+
+	@Override
+	public synchronized Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Long>(PREFIX + "compilations", compilations));
+		metrics.add(new Metric<Long>(PREFIX + "cacheHits", cacheHits));
+		if (last != null) {
+			addMetrics(metrics, PREFIX + "last.", last);
+		}
+		addMetrics(metrics, PREFIX + "total.", total);
+		return metrics;
+	}
+
+	private static void addMetrics(List<Metric<?>> metrics, String prefix, CompilationStatistics statistics) {
+		metrics.add(new Metric<Double>(prefix + "time.elapsed", CompilationStatistics.millis(statistics.getElapsedTime())));
+		for (CompilationStatistics.Phase phase: CompilationStatistics.Phase.values()) {
+			metrics.add(new Metric<Double>(prefix + "time." + phase.name().toLowerCase(),
+					CompilationStatistics.millis(statistics.getPhaseTime(phase))));
+		}
+		metrics.add(new Metric<Long>(prefix + "listCalls", statistics.getListCalls()));
+		metrics.add(new Metric<Long>(prefix + "entriesScanned", statistics.getEntriesScanned()));
+		metrics.add(new Metric<Long>(prefix + "entriesAccepted", statistics.getEntriesAccepted()));
+		metrics.add(new Metric<Long>(prefix + "bytesRead", statistics.getBytesRead()));
+		metrics.add(new Metric<Long>(prefix + "classesProduced", statistics.getClassesProduced()));
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.function.Function;
+
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.cloud.stream.messaging.Processor;
+import org.springframework.messaging.handler.annotation.SendTo;
+
+/**
+ * A processor for code that supplies a plain function rather than a ReactiveProcessor. The
+ * function is called directly for each message, on the thread delivering it, without a Flux
+ * in between. A null result means no message is sent (e.g. when a predicate rejects the payload).
+ * The function can be replaced at any time, the next message received uses the new one.
+ * 
+ * @author Andy Clement
+ */
+public class FunctionProcessor {
+
+	private volatile Function<Object, Object> function;
+
+	private volatile int swapCount;
+
+	public FunctionProcessor(Function<Object, Object> function) {
+		this.function = function;
+	}
+
+	@StreamListener(Processor.INPUT)
+	@SendTo(Processor.OUTPUT)
+	public Object process(Object payload) {
+		return function.apply(payload);
+	}
+
+	/**
+	 * Replace the current function, messages received after this returns use the new one.
+	 * 
+	 * @param newFunction the function to use from now on
+	 */
+	public synchronized void swap(Function<Object, Object> newFunction) {
+		swapCount++;
+		this.function = newFunction;
+	}
+
+	public Function<Object, Object> getFunction() {
+		return this.function;
+	}
+
+	/**
+	 * @return the number of times the function has been swapped
+	 */
+	public int getSwapCount() {
+		return this.swapCount;
+	}
+
+	/**
+	 * Adapt a function to a ReactiveProcessor, for use where the input is a Flux (e.g. named processors).
+	 * 
+	 * @param function the function to apply to each element, a null result produces no output element
+	 * @return a processor applying the function
+	 */
+	public static ReactiveProcessor<Object, Object> asReactiveProcessor(Function<Object, Object> function) {
+		return input -> input.handle((value, sink) -> {
+			Object result = function.apply(value);
+			if (result != null) {
+				sink.next(result);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Bounds the hand-off between an input binding and the Flux passed to the code. The input
+ * channel adapter queues every message the code has not yet requested, without limit, so as
+ * an interceptor on the input channel this blocks the thread delivering a message once
+ * <tt>capacity</tt> messages are waiting, until the code takes one or <tt>timeout</tt>
+ * milliseconds pass, when the delivery fails. The broker stops delivering (once the consumer
+ * prefetch is used up) rather than the heap filling. Applied to the input Flux it makes the
+ * requests to the queue <tt>prefetch</tt> elements at a time, whatever the code requests, and
+ * counts the messages waiting and the elements requested.
+ * <p>
+ * The space of a message is freed when the code takes it, or when it is dropped. If the code
+ * cancels its input, or the input fails, the elements already received for the code are dropped
+ * and the rest of the input (the window of a {@link SwappableReactiveProcessor}) is drained,
+ * dropping each element as it arrives, rather than left to be discarded where its space could
+ * not be freed.
+ * <p>
+ * One hand-off is used for each input for the lifetime of the application, the code is
+ * applied to it afresh when reloaded.
+ * 
+ * @author Andy Clement
+ */
+public class InputHandoff extends ChannelInterceptorAdapter {
+
+	private final int capacity;
+
+	private final int prefetch;
+
+	private final long timeout;
+
+	// Permits for the messages that can be waiting, null if unbounded
+	private final Semaphore space;
+
+	private final AtomicLong waiting = new AtomicLong();
+
+	private final AtomicLong requested = new AtomicLong();
+
+	// The second of the most recent request and the elements requested in it and in the second before
+	private long requestSecond;
+
+	private long requestedThisSecond;
+
+	private long requestedLastSecond;
+
+	/**
+	 * @param capacity the maximum number of messages waiting for the code, 0 for no limit
+	 * @param prefetch the number of elements requested from the queue at a time, 0 to pass on the requests of the code
+	 * @param timeout the maximum time in milliseconds to wait for space in the queue
+	 */
+	public InputHandoff(int capacity, int prefetch, long timeout) {
+		this.capacity = capacity;
+		this.prefetch = prefetch;
+		this.timeout = timeout;
+		this.space = capacity > 0 ? new Semaphore(capacity) : null;
+	}
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		if (space != null) {
+			try {
+				if (!space.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+					throw new MessageDeliveryException(message, "No space in the input queue within "+timeout+"ms");
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new MessageDeliveryException(message, "Interrupted whilst waiting for space in the input queue");
+			}
+		}
+		waiting.incrementAndGet();
+		return message;
+	}
+
+	@Override
+	public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+		if (!sent) {
+			// Never reached the queue
+			free(1);
+		}
+	}
+
+	/**
+	 * @param input the input, as adapted from the input channel
+	 * @return the input, requested in batches of the prefetch size, that frees space in the queue as elements are taken
+	 */
+	public Flux<Object> apply(Flux<Object> input) {
+		return Flux.defer(() -> {
+			Application application = new Application(input);
+			Flux<Object> elements = Flux.from(application);
+			if (prefetch > 0) {
+				elements = elements.limitRate(prefetch);
+			}
+			return elements.doOnNext(element -> application.taken());
+		});
+	}
+
+	private void free(long count) {
+		if (count > 0) {
+			waiting.addAndGet(-count);
+			if (space != null) {
+				space.release((int) count);
+			}
+		}
+	}
+
+	private void requested(long n) {
+		// An unbounded request is recorded as Long.MAX_VALUE
+		requested.accumulateAndGet(n, InputHandoff::add);
+		synchronized (this) {
+			long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+			if (second != requestSecond) {
+				requestedLastSecond = second == requestSecond + 1 ? requestedThisSecond : 0;
+				requestedThisSecond = 0;
+				requestSecond = second;
+			}
+			requestedThisSecond = add(requestedThisSecond, n);
+		}
+	}
+
+	private static long add(long current, long delta) {
+		return current + delta < 0 ? Long.MAX_VALUE : current + delta;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return the number of messages received from the binding that the code has not yet taken
+	 */
+	public long getWaiting() {
+		return waiting.get();
+	}
+
+	/**
+	 * @return the total number of elements requested from the queue
+	 */
+	public long getRequested() {
+		return requested.get();
+	}
+
+	/**
+	 * @return the number of elements requested from the queue in the last whole second
+	 */
+	public synchronized long getRequestRate() {
+		long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		if (second == requestSecond) {
+			return requestedLastSecond;
+		}
+		return second == requestSecond + 1 ? requestedThisSecond : 0;
+	}
+
+	/**
+	 * One application of the code to the input. Passes the input on to the code and keeps count of
+	 * the elements it has passed on that the code has not yet taken. Once the code cancels, or the
+	 * input fails, the space of those is freed and any further elements are dropped as they arrive.
+	 */
+	private class Application implements Publisher<Object>, Subscriber<Object>, Subscription {
+
+		private final Flux<Object> input;
+
+		private Subscriber<? super Object> actual;
+
+		private Subscription upstream;
+
+		// Elements passed on to the code, not yet taken
+		private long passed;
+
+		// Whether the code is no longer taking elements
+		private boolean settled;
+
+		Application(Flux<Object> input) {
+			this.input = input;
+		}
+
+		@Override
+		public void subscribe(Subscriber<? super Object> subscriber) {
+			this.actual = subscriber;
+			input.subscribe(this);
+		}
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.upstream = subscription;
+			actual.onSubscribe(this);
+		}
+
+		@Override
+		public void onNext(Object element) {
+			synchronized (this) {
+				if (settled) {
+					free(1);
+					return;
+				}
+				passed++;
+			}
+			actual.onNext(element);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			if (!isSettled()) {
+				actual.onError(t);
+				settle();
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			// The code takes the elements it has been passed before it sees the completion
+			if (!isSettled()) {
+				actual.onComplete();
+			}
+		}
+
+		@Override
+		public void request(long n) {
+			requested(n);
+			upstream.request(n);
+		}
+
+		@Override
+		public void cancel() {
+			if (settle()) {
+				// Drain the rest, freeing the space of each element
+				upstream.request(Long.MAX_VALUE);
+			}
+		}
+
+		void taken() {
+			synchronized (this) {
+				if (settled) {
+					// Space already freed
+					return;
+				}
+				passed--;
+			}
+			free(1);
+		}
+
+		private synchronized boolean isSettled() {
+			return settled;
+		}
+
+		private boolean settle() {
+			long dropped;
+			synchronized (this) {
+				if (settled) {
+					return false;
+				}
+				settled = true;
+				dropped = passed;
+				passed = 0;
+			}
+			free(dropped);
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Holds the {@link InputHandoff} of each input binding and publishes their state through the
+ * actuator <tt>/metrics</tt> endpoint, under <tt>handoff.&lt;binding&gt;.*</tt>: the number of
+ * messages waiting for the code (the queue depth), the total number of elements requested by
+ * the code and the rate of those requests, the number requested in the last whole second. Reading
+ * the metrics does not change them.
+ *
+ * @author Andy Clement
+ */
+public class InputHandoffMetrics implements PublicMetrics {
+
+	private static final String PREFIX = "handoff.";
+
+	private final int capacity;
+
+	private final int prefetch;
+
+	private final long timeout;
+
+	private final Map<String, InputHandoff> handoffs = new LinkedHashMap<>();
+
+	/**
+	 * @param capacity the capacity of each hand-off
+	 * @param prefetch the prefetch of each hand-off
+	 * @param timeout the time each hand-off waits for space in its queue
+	 */
+	public InputHandoffMetrics(int capacity, int prefetch, long timeout) {
+		this.capacity = capacity;
+		this.prefetch = prefetch;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param binding the name of an input binding
+	 * @return the hand-off for the binding, created if it does not yet have one
+	 */
+	public synchronized InputHandoff getHandoff(String binding) {
+		return handoffs.computeIfAbsent(binding, b -> new InputHandoff(capacity, prefetch, timeout));
+	}
+
+	@Override
+	public synchronized Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		for (Map.Entry<String, InputHandoff> entry: handoffs.entrySet()) {
+			String prefix = PREFIX + entry.getKey() + ".";
+			InputHandoff handoff = entry.getValue();
+			metrics.add(new Metric<Long>(prefix + "queueDepth", handoff.getWaiting()));
+			metrics.add(new Metric<Integer>(prefix + "capacity", handoff.getCapacity()));
+			metrics.add(new Metric<Long>(prefix + "requested", handoff.getRequested()));
+			metrics.add(new Metric<Long>(prefix + "requestRate", handoff.getRequestRate()));
+		}
+		return metrics;
+	}
+
+}
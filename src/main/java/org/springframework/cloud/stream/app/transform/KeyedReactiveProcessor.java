@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.function.Function;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * A ReactiveProcessor that runs another processor on several lanes concurrently whilst
+ * preserving the order of the elements that share a key. The key of each element is hashed
+ * to pick its lane, each lane processes its elements one at a time in arrival order and the
+ * outputs of the lanes are merged as they are produced. Keys on different lanes do not wait
+ * for each other. The processor is applied once per lane, so stateful operators (e.g.
+ * <tt>buffer(n)</tt>) see only the elements on their lane.
+ * <p>
+ * The key is either computed from the element by a function or, for elements wrapped by
+ * {@link PartitionKeyHeaderInterceptor}, taken from a message header.
+ * 
+ * @author Andy Clement
+ */
+public class KeyedReactiveProcessor implements ReactiveProcessor<Object, Object> {
+
+	private final ReactiveProcessor<Object, Object> delegate;
+
+	private final int lanes;
+
+	private final Function<Object, Object> keyFunction;
+
+	private final Scheduler scheduler;
+
+	/**
+	 * A payload together with the key it was sent with.
+	 */
+	static class KeyedPayload {
+
+		final Object key;
+
+		final Object payload;
+
+		KeyedPayload(Object key, Object payload) {
+			this.key = key;
+			this.payload = payload;
+		}
+
+		@Override
+		public String toString() {
+			return "KeyedPayload[key="+key+",payload="+payload+"]";
+		}
+	}
+
+	/**
+	 * @param delegate the processor to run on each lane
+	 * @param lanes the number of lanes
+	 * @param keyFunction computes the key of an element, may be null if the keys come from headers
+	 * @param scheduler the scheduler the lanes run on
+	 */
+	public KeyedReactiveProcessor(ReactiveProcessor<Object, Object> delegate, int lanes,
+			Function<Object, Object> keyFunction, Scheduler scheduler) {
+		this.delegate = delegate;
+		this.lanes = lanes;
+		this.keyFunction = keyFunction;
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	public Flux<Object> apply(Flux<Object> input) {
+		// publishOn takes a single worker from the scheduler, so each lane runs on one thread at a time. The
+		// output of each lane is hidden, otherwise flatMap fuses with it and runs the lane's operators itself
+		return input.groupBy(this::laneOf)
+				.flatMap(lane -> delegate.apply(lane.publishOn(scheduler).map(KeyedReactiveProcessor::payloadOf)).hide(), lanes);
+	}
+
+	/**
+	 * @param element an element of the input
+	 * @return the lane for the element, elements with a null key all use the first lane
+	 */
+	int laneOf(Object element) {
+		Object key;
+		if (element instanceof KeyedPayload) {
+			key = ((KeyedPayload) element).key;
+		} else {
+			key = keyFunction == null ? null : keyFunction.apply(element);
+		}
+		return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % lanes;
+	}
+
+	private static Object payloadOf(Object element) {
+		return element instanceof KeyedPayload ? ((KeyedPayload) element).payload : element;
+	}
+
+	public ReactiveProcessor<Object, Object> getDelegate() {
+		return delegate;
+	}
+
+	public int getLanes() {
+		return lanes;
+	}
+
+}
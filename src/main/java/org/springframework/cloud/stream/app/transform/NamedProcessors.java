@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.cloud.stream.binding.BindableAdapter;
+import org.springframework.cloud.stream.binding.BindableChannelFactory;
+import org.springframework.cloud.stream.binding.ChannelBindingService;
+import org.springframework.cloud.stream.reactive.FluxToMessageChannelResultAdapter;
+import org.springframework.cloud.stream.reactive.MessageChannelToInputFluxParameterAdapter;
+import org.springframework.core.MethodParameter;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.util.ReflectionUtils;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Additional processors, each compiled from its own code snippet and bound to its own input
+ * and output (named <tt>&lt;name&gt;-input</tt> and <tt>&lt;name&gt;-output</tt>). The
+ * processors share the compiler, and so the classpath index, with the main processor but
+ * each is loaded by its own class loader so they cannot interfere with each other. The
+ * channels are adapted to and from Flux in the same way as for the main processor's
+ * <tt>@StreamListener</tt>.
+ * 
+ * @author Andy Clement
+ */
+public class NamedProcessors extends BindableAdapter {
+
+	private static Logger logger = LoggerFactory.getLogger(NamedProcessors.class);
+
+	static final String INPUT_SUFFIX = "-input";
+
+	static final String OUTPUT_SUFFIX = "-output";
+
+	// Describes the Flux<Object> parameter the input channel is adapted to
+	private static final MethodParameter INPUT_PARAMETER = new MethodParameter(
+			ReflectionUtils.findMethod(ReactiveProcessor.class, "process", Flux.class), 0);
+
+	private BindableChannelFactory channelFactory;
+
+	private MessageChannelToInputFluxParameterAdapter inputAdapter;
+
+	private FluxToMessageChannelResultAdapter resultAdapter;
+
+	private Map<String, NamedProcessor> processors = new LinkedHashMap<>();
+
+	private static class NamedProcessor {
+
+		SubscribableChannel input;
+
+		SubscribableChannel output;
+
+		ReactiveProcessor<Object, Object> processor;
+	}
+
+	public NamedProcessors(BindableChannelFactory channelFactory, MessageChannelToInputFluxParameterAdapter inputAdapter,
+			FluxToMessageChannelResultAdapter resultAdapter) {
+		this.channelFactory = channelFactory;
+		this.inputAdapter = inputAdapter;
+		this.resultAdapter = resultAdapter;
+	}
+
+	/**
+	 * Create the channels for a processor and connect the processor between them. Messages
+	 * start flowing once the channels are bound.
+	 * 
+	 * @param name the name of the processor, the prefix for its input and output names
+	 * @param processor the processor, a {@link SwappableReactiveProcessor} if it can be reloaded
+	 */
+	public void add(String name, ReactiveProcessor<Object, Object> processor) {
+		if (processors.containsKey(name)) {
+			throw new IllegalArgumentException("There is already a processor named '"+name+"'");
+		}
+		NamedProcessor namedProcessor = new NamedProcessor();
+		namedProcessor.input = channelFactory.createInputChannel(name + INPUT_SUFFIX);
+		namedProcessor.output = channelFactory.createOutputChannel(name + OUTPUT_SUFFIX);
+		namedProcessor.processor = processor;
+		@SuppressWarnings("unchecked")
+		Flux<Object> input = (Flux<Object>)inputAdapter.adapt(namedProcessor.input, INPUT_PARAMETER);
+		resultAdapter.adapt(namedProcessor.processor.apply(input), namedProcessor.output);
+		processors.put(name, namedProcessor);
+		logger.info("Added processor '{}' reading from {} and writing to {}",name,name+INPUT_SUFFIX,name+OUTPUT_SUFFIX);
+	}
+
+	/**
+	 * @param name the name of a processor
+	 * @return the processor, or null if there is no processor with that name
+	 */
+	public ReactiveProcessor<Object, Object> getProcessor(String name) {
+		NamedProcessor namedProcessor = processors.get(name);
+		return namedProcessor==null?null:namedProcessor.processor;
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(processors.keySet());
+	}
+
+	public SubscribableChannel getInputChannel(String name) {
+		return processors.get(name).input;
+	}
+
+	public SubscribableChannel getOutputChannel(String name) {
+		return processors.get(name).output;
+	}
+
+	@Override
+	public void bindInputs(ChannelBindingService channelBindingService) {
+		for (Map.Entry<String, NamedProcessor> entry: processors.entrySet()) {
+			channelBindingService.bindConsumer(entry.getValue().input, entry.getKey() + INPUT_SUFFIX);
+		}
+	}
+
+	@Override
+	public void bindOutputs(ChannelBindingService channelBindingService) {
+		for (Map.Entry<String, NamedProcessor> entry: processors.entrySet()) {
+			channelBindingService.bindProducer(entry.getValue().output, entry.getKey() + OUTPUT_SUFFIX);
+		}
+	}
+
+	@Override
+	public void unbindInputs(ChannelBindingService channelBindingService) {
+		for (String name: processors.keySet()) {
+			channelBindingService.unbindConsumers(name + INPUT_SUFFIX);
+		}
+	}
+
+	@Override
+	public void unbindOutputs(ChannelBindingService channelBindingService) {
+		for (String name: processors.keySet()) {
+			channelBindingService.unbindProducers(name + OUTPUT_SUFFIX);
+		}
+	}
+
+	@Override
+	public Set<String> getInputs() {
+		Set<String> inputs = new LinkedHashSet<>();
+		for (String name: processors.keySet()) {
+			inputs.add(name + INPUT_SUFFIX);
+		}
+		return inputs;
+	}
+
+	@Override
+	public Set<String> getOutputs() {
+		Set<String> outputs = new LinkedHashSet<>();
+		for (String name: processors.keySet()) {
+			outputs.add(name + OUTPUT_SUFFIX);
+		}
+		return outputs;
+	}
+
+}
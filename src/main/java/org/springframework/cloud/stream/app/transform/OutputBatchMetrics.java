@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.amqp.rabbit.connection.ChannelListener;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationStatistics;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+
+/**
+ * Publishes the statistics of the batches the output bindings publish for {@link OutputBatchingReactiveProcessor}
+ * through the actuator <tt>/metrics</tt> endpoint, under <tt>output.*</tt>: the number and size
+ * of the batches and the time from an output being emitted by the code to the batch containing
+ * it being published. Times are in milliseconds.
+ * <p>
+ * As an interceptor on the output channels it takes the emission time off each output before it
+ * is sent. The binder publishes a batch whilst the output filling it is sent, or once no output has
+ * arrived for the linger time, so the batches of each channel are followed by the same rules as the
+ * outputs are sent. A batch the binder publishes early because it reached its size limit in bytes
+ * is counted as part of the next one.
+ * <p>
+ * Registered as a listener on the rabbit connection factory it also tracks the publisher
+ * confirms of every channel asynchronously, as the broker sends them, under <tt>output.confirms.*</tt>.
+ * Each batch is published as one broker message so is confirmed once.
+ *
+ * @author Andy Clement
+ */
+public class OutputBatchMetrics extends ChannelInterceptorAdapter implements PublicMetrics, ChannelListener {
+
+	/**
+	 * The header carrying the time, from {@link System#nanoTime()}, an output was emitted.
+	 */
+	public static final String EMITTED_HEADER = "outputBatchEmitted";
+
+	private static final String PREFIX = "output.";
+
+	private final int batchSize;
+
+	private final long linger;
+
+	// The emission time of the output being sent by the current thread
+	private final ThreadLocal<Long> sending = new ThreadLocal<>();
+
+	private final Map<MessageChannel, PendingBatch> pendingBatches = new ConcurrentHashMap<>();
+
+	private long batches;
+
+	private long messages;
+
+	private int lastBatchSize;
+
+	private long totalLatency;
+
+	private long lastLatency;
+
+	private long maxLatency;
+
+	private final AtomicLong confirmed = new AtomicLong();
+
+	private final AtomicLong nacked = new AtomicLong();
+
+	/**
+	 * @param batchSize the maximum number of outputs the output bindings publish in a batch
+	 * @param linger the time in milliseconds the output bindings wait for another output before
+	 * publishing a partial batch
+	 */
+	public OutputBatchMetrics(int batchSize, long linger) {
+		this.batchSize = Math.max(1, batchSize);
+		this.linger = TimeUnit.MILLISECONDS.toNanos(linger);
+	}
+
+	/**
+	 * @param batchSize the number of outputs in a batch
+	 * @param totalLatency the sum of the times, in nanoseconds, from the outputs being emitted to the batch being published
+	 * @param latency the longest time, in nanoseconds, from an output being emitted to the batch being published
+	 */
+	public synchronized void recordBatch(int batchSize, long totalLatency, long latency) {
+		batches++;
+		messages += batchSize;
+		lastBatchSize = batchSize;
+		this.totalLatency += totalLatency;
+		lastLatency = latency;
+		maxLatency = Math.max(maxLatency, latency);
+	}
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		Object emitted = message.getHeaders().get(EMITTED_HEADER);
+		if (!(emitted instanceof Long)) {
+			return message;
+		}
+		sending.set((Long) emitted);
+		// Only of use within this process, not published with the output
+		return MessageBuilder.fromMessage(message).removeHeader(EMITTED_HEADER).build();
+	}
+
+	@Override
+	public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+		Long emitted = sending.get();
+		if (emitted == null) {
+			return;
+		}
+		sending.remove();
+		if (sent) {
+			pendingBatches.computeIfAbsent(channel, key -> new PendingBatch()).add(emitted, System.nanoTime());
+		}
+	}
+
+	@Override
+	public void onCreate(Channel channel, boolean transactional) {
+		channel.addConfirmListener(new ChannelConfirmListener());
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		// Batches published because the linger time expired are only noticed when next looked at
+		long now = System.nanoTime();
+		for (PendingBatch pendingBatch: pendingBatches.values()) {
+			pendingBatch.releaseIfLingered(now);
+		}
+		synchronized (this) {
+			return currentMetrics();
+		}
+	}
+
+	private Collection<Metric<?>> currentMetrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Long>(PREFIX + "batches", batches));
+		metrics.add(new Metric<Long>(PREFIX + "messages", messages));
+		metrics.add(new Metric<Integer>(PREFIX + "batchSize.last", lastBatchSize));
+		metrics.add(new Metric<Double>(PREFIX + "batchSize.mean", batches==0?0d:(double)messages/batches));
+		metrics.add(new Metric<Double>(PREFIX + "latency.last", CompilationStatistics.millis(lastLatency)));
+		metrics.add(new Metric<Double>(PREFIX + "latency.max", CompilationStatistics.millis(maxLatency)));
+		metrics.add(new Metric<Double>(PREFIX + "latency.mean", CompilationStatistics.millis(messages==0?0:totalLatency/messages)));
+		metrics.add(new Metric<Long>(PREFIX + "confirms.acked", confirmed.get()));
+		metrics.add(new Metric<Long>(PREFIX + "confirms.nacked", nacked.get()));
+		return metrics;
+	}
+
+	public long getConfirmed() {
+		return confirmed.get();
+	}
+
+	public long getNacked() {
+		return nacked.get();
+	}
+
+	/**
+	 * The emission times of the outputs sent on one channel whose batch has not yet been published.
+	 */
+	private class PendingBatch {
+
+		private final long[] emitted = new long[batchSize];
+
+		private int size;
+
+		private long lastSent;
+
+		synchronized void add(long emittedTime, long now) {
+			releaseIfLingered(now);
+			emitted[size++] = emittedTime;
+			lastSent = now;
+			if (size == batchSize) {
+				// The binder publishes a full batch whilst sending the output that filled it
+				release(now);
+			}
+		}
+
+		synchronized void releaseIfLingered(long now) {
+			if (size > 0 && now - lastSent >= linger) {
+				release(lastSent + linger);
+			}
+		}
+
+		private void release(long published) {
+			long totalLatency = 0;
+			long latency = 0;
+			for (int i = 0; i < size; i++) {
+				totalLatency += published - emitted[i];
+				latency = Math.max(latency, published - emitted[i]);
+			}
+			recordBatch(size, totalLatency, latency);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Counts the confirms of one channel. The broker may confirm every publish up to a delivery
+	 * tag at once, so the last tag confirmed is needed to know how many that covers. Confirms for
+	 * a channel arrive one at a time on its connection's thread.
+	 */
+	private class ChannelConfirmListener implements ConfirmListener {
+
+		private long lastDeliveryTag;
+
+		@Override
+		public void handleAck(long deliveryTag, boolean multiple) {
+			confirmed.addAndGet(count(deliveryTag, multiple));
+		}
+
+		@Override
+		public void handleNack(long deliveryTag, boolean multiple) {
+			nacked.addAndGet(count(deliveryTag, multiple));
+		}
+
+		private long count(long deliveryTag, boolean multiple) {
+			long count = multiple ? deliveryTag - lastDeliveryTag : 1;
+			lastDeliveryTag = Math.max(lastDeliveryTag, deliveryTag);
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * A ReactiveProcessor that prepares the outputs of another processor for the batching done by
+ * the output binding, which {@link BatchEnvironmentPostProcessor} configures to publish them in
+ * batches of up to <tt>outputBatchSize</tt>. Each output is passed on individually, as a message
+ * carrying the time it was emitted in the {@link OutputBatchMetrics#EMITTED_HEADER} header, so that
+ * {@link OutputBatchMetrics} can record how long it waits before its batch is published.
+ *
+ * @author Andy Clement
+ */
+public class OutputBatchingReactiveProcessor implements ReactiveProcessor<Object, Object> {
+
+	private final ReactiveProcessor<Object, Object> delegate;
+
+	/**
+	 * @param delegate the processor whose outputs are batched
+	 */
+	public OutputBatchingReactiveProcessor(ReactiveProcessor<Object, Object> delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Flux<Object> apply(Flux<Object> input) {
+		return delegate.apply(input).map(value -> emitted(value, System.nanoTime()));
+	}
+
+	private static Message<?> emitted(Object value, long time) {
+		MessageBuilder<?> builder = value instanceof Message ? MessageBuilder.fromMessage((Message<?>) value)
+				: MessageBuilder.withPayload(value);
+		return builder.setHeader(OutputBatchMetrics.EMITTED_HEADER, time).build();
+	}
+
+	public ReactiveProcessor<Object, Object> getDelegate() {
+		return delegate;
+	}
+
+}
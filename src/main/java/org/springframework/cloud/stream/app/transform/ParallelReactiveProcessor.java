@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * A ReactiveProcessor that runs another processor on several rails concurrently, so that
+ * CPU heavy code is not limited to a single thread. The outputs of the rails are merged in
+ * one of two ways:<ul>
+ * <li>unordered: each element is dispatched to whichever rail can take it and the outputs are
+ * emitted as soon as they are produced. Each rail applies the processor once, to its share of
+ * the input, so stateful operators (e.g. <tt>buffer(n)</tt>) see only the elements on their rail.
+ * <li>ordered: the input is split into consecutive batches that are processed concurrently, up to
+ * one batch per rail, and the outputs of each batch are emitted in input order. The outputs of a
+ * batch are held until those of the previous batches have been emitted. The processor is applied to
+ * each batch separately, so stateful operators see each batch as a complete sequence.
+ * </ul>
+ * 
+ * @author Andy Clement
+ */
+public class ParallelReactiveProcessor implements ReactiveProcessor<Object, Object> {
+
+	public final static String PARALLEL_SCHEDULER = "parallel";
+
+	public final static String ELASTIC_SCHEDULER = "elastic";
+
+	private final ReactiveProcessor<Object, Object> delegate;
+
+	private final int parallelism;
+
+	private final boolean ordered;
+
+	private final int batchSize;
+
+	private final Scheduler scheduler;
+
+	/**
+	 * @param delegate the processor to run on each rail
+	 * @param parallelism the number of rails
+	 * @param ordered whether the outputs must be in the order of the inputs
+	 * @param batchSize the number of elements in each batch, when ordered
+	 * @param scheduler the scheduler the rails run on
+	 */
+	public ParallelReactiveProcessor(ReactiveProcessor<Object, Object> delegate, int parallelism, boolean ordered,
+			int batchSize, Scheduler scheduler) {
+		this.delegate = delegate;
+		this.parallelism = parallelism;
+		this.ordered = ordered;
+		this.batchSize = batchSize;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Create a bounded pool of threads for a scheduler to run on, of the specified kind:<ul>
+	 * <li>parallel: a fixed number of threads, for CPU bound code
+	 * <li>elastic: threads are created as needed up to the pool size and stop after being idle
+	 * for 60 seconds, for code that blocks
+	 * </ul>
+	 * Tasks wait in a queue when all the threads are busy. If the queue is full a thread submitting
+	 * a task waits for space, holding back the input rather than growing the heap, and the task is
+	 * rejected if there is still none after the timeout. Only the pool's own threads could make space,
+	 * so one of them submitting a task runs it itself rather than waiting.
+	 * 
+	 * @param kind the kind of pool, either <tt>parallel</tt> or <tt>elastic</tt>
+	 * @param threadName the prefix of the names of the threads
+	 * @param poolSize the maximum number of threads, 0 for the default of the kind (see {@link #poolSize(String, int)})
+	 * @param queueCapacity the maximum number of tasks waiting, 0 for no limit
+	 * @param queueTimeout the maximum time in milliseconds to wait for space in a full queue
+	 * @return a new executor, which should be shutdown when no longer required
+	 */
+	public static ThreadPoolExecutor createExecutor(String kind, String threadName, int poolSize, int queueCapacity,
+			long queueTimeout) {
+		boolean elastic = ELASTIC_SCHEDULER.equalsIgnoreCase(kind);
+		poolSize = poolSize(kind, poolSize);
+		BlockingQueue<Runnable> queue = queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new LinkedBlockingQueue<>();
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadLocal<Boolean> poolThread = new ThreadLocal<>();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(() -> {
+				poolThread.set(true);
+				runnable.run();
+			}, threadName + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, queue, threadFactory,
+				(runnable, pool) -> {
+					if (pool.isShutdown()) {
+						throw new RejectedExecutionException("Scheduler '"+threadName+"' has been shutdown");
+					}
+					if (poolThread.get() != null) {
+						runnable.run();
+						return;
+					}
+					try {
+						if (!pool.getQueue().offer(runnable, queueTimeout, TimeUnit.MILLISECONDS)) {
+							throw new RejectedExecutionException("No space in the queue of scheduler '"+threadName+"' after waiting "+
+									queueTimeout+"ms");
+						}
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted whilst waiting for space in the queue of scheduler '"+threadName+"'");
+					}
+				});
+		// With core and maximum sizes equal the pool grows to its size before tasks are queued
+		executor.allowCoreThreadTimeOut(elastic);
+		return executor;
+	}
+
+	/**
+	 * @param kind the kind of pool, either <tt>parallel</tt> or <tt>elastic</tt>
+	 * @param poolSize the configured maximum number of threads, 0 if not configured
+	 * @return the maximum number of threads, the configured number or the default of the kind: the number
+	 * of available processors for parallel, ten times that for elastic
+	 */
+	public static int poolSize(String kind, int poolSize) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (PARALLEL_SCHEDULER.equalsIgnoreCase(kind)) {
+			return poolSize > 0 ? poolSize : processors;
+		} else if (ELASTIC_SCHEDULER.equalsIgnoreCase(kind)) {
+			return poolSize > 0 ? poolSize : processors * 10;
+		}
+		throw new IllegalArgumentException("Unknown scheduler '"+kind+"', should be one of "+
+				PARALLEL_SCHEDULER+" or "+ELASTIC_SCHEDULER);
+	}
+
+	@Override
+	public Flux<Object> apply(Flux<Object> input) {
+		if (ordered) {
+			// Up to one batch per rail is subscribed to at once, so it is processed whilst earlier batches are still
+			// being emitted, and its outputs are held until then. Cancelling the output cancels the batches in progress
+			// and an error from any of them is passed on. As for the unordered case the output is hidden so that the
+			// batch's operators stay on the scheduler.
+			return input.window(batchSize)
+					.flatMapSequential(batch -> delegate.apply(batch.publishOn(scheduler)).hide(), parallelism);
+		}
+		// The output of each rail is hidden, otherwise flatMap fuses with it and runs the rail's operators itself
+		return input.parallel(parallelism).runOn(scheduler).groups()
+				.flatMap(rail -> delegate.apply(rail).hide(), parallelism);
+	}
+
+	public ReactiveProcessor<Object, Object> getDelegate() {
+		return delegate;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+}
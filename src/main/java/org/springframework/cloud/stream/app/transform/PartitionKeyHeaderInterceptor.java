@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Carries the value of a header through to a {@link KeyedReactiveProcessor}, which only sees
+ * payloads, by wrapping the payload of each message sent to the input channel together with
+ * the header value. It should be the last interceptor on the channel, so that any payload
+ * conversion has already happened.
+ * 
+ * @author Andy Clement
+ */
+public class PartitionKeyHeaderInterceptor extends ChannelInterceptorAdapter {
+
+	private final String headerName;
+
+	/**
+	 * @param headerName the name of the header holding the key
+	 */
+	public PartitionKeyHeaderInterceptor(String headerName) {
+		this.headerName = headerName;
+	}
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		Object key = message.getHeaders().get(headerName);
+		return MessageBuilder.withPayload(new KeyedReactiveProcessor.KeyedPayload(key, message.getPayload()))
+				.copyHeaders(message.getHeaders()).build();
+	}
+
+	public String getHeaderName() {
+		return headerName;
+	}
+
+}
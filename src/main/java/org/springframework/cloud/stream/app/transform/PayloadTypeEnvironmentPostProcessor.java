@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.cloud.stream.converter.MessageConverterUtils;
+import org.springframework.cloud.stream.messaging.Processor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * When an <tt>inputType</tt> is specified, sets the content type of the input bindings (of the
+ * main processor and any named processors) so that the binder converts each message to that type
+ * once, before it reaches the processor, rather than the code snippet converting every element.
+ * A content type configured explicitly for a binding takes precedence.
+ *
+ * @author Andy Clement
+ */
+public class PayloadTypeEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+	private static final String PROPERTY_SOURCE_NAME = "payloadTypeBindings";
+
+	private static final String BINDINGS_PREFIX = "spring.cloud.stream.bindings.";
+
+	@Override
+	public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+		String contentType = getContentType(environment.getProperty("inputType"), application.getClassLoader());
+		if (contentType == null) {
+			return;
+		}
+		Map<String, Object> properties = new HashMap<>();
+		properties.put(BINDINGS_PREFIX + Processor.INPUT + ".contentType", contentType);
+		for (String name: new RelaxedPropertyResolver(environment, "processors.").getSubProperties("").keySet()) {
+			properties.put(BINDINGS_PREFIX + name + NamedProcessors.INPUT_SUFFIX + ".contentType", contentType);
+		}
+		environment.getPropertySources().addLast(new MapPropertySource(PROPERTY_SOURCE_NAME, properties));
+	}
+
+	/**
+	 * Determine the content type the binder should convert payloads to in order to produce the
+	 * specified type.
+	 *
+	 * @param typeName the name of a payload type, as used in the code snippet (e.g. String, byte[], com.example.Foo)
+	 * @param classLoader the class loader to find the type with
+	 * @return the content type, or null if no conversion is necessary or the type cannot be found
+	 */
+	static String getContentType(String typeName, ClassLoader classLoader) {
+		Class<?> type = resolveType(typeName, classLoader);
+		if (type == null || type == Object.class || type == byte[].class) {
+			// byte[] is left as it is, the binder delivers payloads it has not decoded as byte[]
+			return null;
+		} else if (type == String.class) {
+			return MimeTypeUtils.TEXT_PLAIN_VALUE;
+		}
+		return MessageConverterUtils.javaObjectMimeType(type).toString();
+	}
+
+	/**
+	 * Find a type by name, names are resolved as they would be in the code snippet so
+	 * may be unqualified if the type is in <tt>java.lang</tt> or <tt>java.util</tt>.
+	 */
+	static Class<?> resolveType(String typeName, ClassLoader classLoader) {
+		if (typeName == null) {
+			return null;
+		}
+		for (String candidate: new String[] { typeName, "java.lang." + typeName, "java.util." + typeName }) {
+			if (ClassUtils.isPresent(candidate, classLoader)) {
+				return ClassUtils.resolveClassName(candidate, classLoader);
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.bind.PropertySourcesPropertyValues;
+import org.springframework.boot.bind.RelaxedDataBinder;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationMessage;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationResult;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompiledClassDefinition;
+import org.springframework.cloud.stream.app.transform.javacompiler.PrecompiledClasses;
+import org.springframework.cloud.stream.app.transform.javacompiler.RuntimeJavaCompiler;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+/**
+ * Compiles the code ahead of time, when building the application, so that it is not compiled
+ * when the application starts. It is run with the same properties as the application (code,
+ * processors, template, types, etc), from which it makes the same source as
+ * {@link ReactiveTransformer} so the classes are found by {@link PrecompiledClasses}. The
+ * classes are written to the directory or jar named by <tt>--output</tt>, e.g.
+ * <tt>target/classes</tt> to include them in the application jar:
+ * <pre>
+ * java -cp ... org.springframework.cloud.stream.app.transform.Precompiler --output=target/classes \
+ *     --code="return input -> input.map(s->s.toString().toUpperCase());"
+ * </pre>
+ * If the application is later run with different code that code is compiled at runtime.
+ *
+ * @author Andy Clement
+ */
+public class Precompiler {
+
+	static final String OUTPUT_OPTION = "output";
+
+	public static void main(String[] args) throws IOException {
+		SimpleCommandLinePropertySource commandLine = new SimpleCommandLinePropertySource(args);
+		String output = commandLine.getProperty(OUTPUT_OPTION);
+		if (output == null) {
+			System.err.println("Usage: Precompiler --"+OUTPUT_OPTION+"=<directory or jar> --code=<code> [--processors.<name>=<code>] [other properties]");
+			System.exit(2);
+		}
+		ProgrammableReactiveProcessorProperties properties = new ProgrammableReactiveProcessorProperties();
+		MutablePropertySources propertySources = new MutablePropertySources();
+		propertySources.addFirst(commandLine);
+		new RelaxedDataBinder(properties).bind(new PropertySourcesPropertyValues(propertySources));
+		RuntimeJavaCompiler compiler = new RuntimeJavaCompiler();
+		if (properties.getCompilerBackend() != null) {
+			compiler.setCompilerBackend(RuntimeJavaCompiler.createCompilerBackend(properties.getCompilerBackend()));
+		}
+		try {
+			Map<String, List<CompiledClassDefinition>> compilations = precompile(properties, compiler);
+			PrecompiledClasses.write(new File(output), compilations);
+			System.out.println("Precompiled "+compilations.size()+" code snippet(s) into "+output);
+		} catch (IllegalStateException ise) {
+			System.err.println(ise.getMessage());
+			System.exit(1);
+		} finally {
+			compiler.close();
+		}
+	}
+
+	/**
+	 * Compile the code and the code of each named processor.
+	 * 
+	 * @param properties the properties the application will be run with
+	 * @param compiler the compiler to use
+	 * @return the class definitions of each compilation, keyed by {@link PrecompiledClasses#computeKey(String, String)}
+	 * @throws IllegalStateException if any of the code does not compile
+	 */
+	public static Map<String, List<CompiledClassDefinition>> precompile(ProgrammableReactiveProcessorProperties properties,
+			RuntimeJavaCompiler compiler) {
+		List<String> codes = new ArrayList<>();
+		if (properties.getCode() != null) {
+			codes.add(properties.getCode());
+		}
+		codes.addAll(properties.getProcessors().values());
+		Map<String, List<CompiledClassDefinition>> compilations = new LinkedHashMap<>();
+		for (String code: codes) {
+			String sourceCode = ReactiveTransformer.makeSourceClassDefinition(properties, ReactiveTransformer.decodeCodeProperty(code));
+			CompilationResult compilationResult = compiler.compile(ReactiveTransformer.MAIN_COMPILED_CLASS_NAME, sourceCode);
+			if (!compilationResult.wasSuccessful()) {
+				StringBuilder s = new StringBuilder("Failed to compile:\n").append(code);
+				for (CompilationMessage compilationMessage: compilationResult.getCompilationMessages()) {
+					s.append("\n").append(compilationMessage);
+				}
+				throw new IllegalStateException(s.toString());
+			}
+			compilations.put(PrecompiledClasses.computeKey(ReactiveTransformer.MAIN_COMPILED_CLASS_NAME, sourceCode),
+					compilationResult.getCompiledClassDefinitions());
+		}
+		return compilations;
+	}
+
+}
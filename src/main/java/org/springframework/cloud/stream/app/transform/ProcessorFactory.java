@@ -15,6 +15,8 @@
  */
 package org.springframework.cloud.stream.app.transform;
 
+import java.util.function.Function;
+
 /**
  * Interface implemented by code compiled at runtime, enabling easy retrieval
  * of the processor, avoiding reflection.
@@ -24,4 +26,20 @@ package org.springframework.cloud.stream.app.transform;
  */
 public interface ProcessorFactory {
 	ReactiveProcessor<Object,Object> getProcessor();
+
+	/**
+	 * @return the function computing the key of each input for keyed parallel processing, null
+	 * if the code does not supply one
+	 */
+	default Function<Object,Object> getPartitionKey() {
+		return null;
+	}
+
+	/**
+	 * @return the function to call for each input, for code using the function or predicate template,
+	 * otherwise null
+	 */
+	default Function<Object,Object> getFunction() {
+		return null;
+	}
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Runs sample payloads through a newly compiled processor before it receives any messages, so that
+ * the code and the operators it uses have been JIT compiled by the time the first messages arrive
+ * rather than running interpreted. The outputs are discarded. The samples are either supplied
+ * (e.g. recorded from the input) or, if the payload type allows it, generated (a sequence of
+ * numbers, or their string form).
+ * <p>
+ * Once the samples have been processed this waits for the JIT compilation they triggered to
+ * settle, i.e. for the total JIT compilation time of the JVM to stop increasing. That total
+ * includes compilations of anything else running at the same time, so it is an indication rather
+ * than a measure of the hot path alone. The results of each warm-up are published through the
+ * actuator <tt>/metrics</tt> endpoint under <tt>warmup.&lt;binding&gt;.*</tt>.
+ *
+ * @author Andy Clement
+ */
+public class ProcessorWarmup implements PublicMetrics {
+
+	private static Logger logger = LoggerFactory.getLogger(ProcessorWarmup.class);
+
+	private static final String PREFIX = "warmup.";
+
+	// How often the JIT compilation time is checked whilst waiting for it to settle
+	private static final long SETTLE_POLL_INTERVAL = 100;
+
+	private final ConversionService conversionService = new DefaultConversionService();
+
+	private final int messages;
+
+	private final List<String> samples;
+
+	private final Class<?> payloadType;
+
+	private final int batchSize;
+
+	private final long timeout;
+
+	private final Map<String, Result> results = new LinkedHashMap<>();
+
+	/**
+	 * @param messages the number of payloads to process, 0 to not warm up
+	 * @param samples the sample payloads, used in turn, converted to the payload type. If empty payloads are generated
+	 * @param payloadType the type of the payloads the processor receives
+	 * @param batchSize if greater than 0 the processor receives the payloads in Lists of this size
+	 * @param timeout time in milliseconds to wait for the payloads to be processed, and again for JIT compilation to settle
+	 */
+	public ProcessorWarmup(int messages, List<String> samples, Class<?> payloadType, int batchSize, long timeout) {
+		this.messages = messages;
+		this.samples = samples;
+		this.payloadType = payloadType;
+		this.batchSize = batchSize;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Warm up a processor. Failures are logged, the processor is used whether or not it was warmed up.
+	 * 
+	 * @param binding the name of the input binding the processor receives from
+	 * @param processor the processor
+	 */
+	public void warmUp(String binding, ReactiveProcessor<Object, Object> processor) {
+		List<Object> payloads = createPayloads();
+		if (payloads == null) {
+			logger.warn("Unable to generate {} payloads to warm up {} with, supply samples to warm it up",payloadType.getName(),binding);
+			return;
+		}
+		CompilationMXBean compilationMXBean = ManagementFactory.getCompilationMXBean();
+		boolean monitored = compilationMXBean != null && compilationMXBean.isCompilationTimeMonitoringSupported();
+		long jitTimeBefore = monitored ? compilationMXBean.getTotalCompilationTime() : 0;
+		Result result = new Result();
+		long stime = System.nanoTime();
+		Flux<Object> input = Flux.range(0, messages).map(i -> payloads.get(i % payloads.size()));
+		if (batchSize > 0) {
+			input = input.buffer(batchSize).map(batch -> (Object)batch);
+		}
+		try {
+			result.outputs = processor.apply(input).count().block(Duration.ofMillis(timeout));
+		} catch (RuntimeException re) {
+			logger.warn("Warm up of {} failed, it will start cold",binding,re);
+			return;
+		}
+		result.time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stime);
+		if (monitored) {
+			result.settleTime = awaitSettled(compilationMXBean);
+			result.jitTime = compilationMXBean.getTotalCompilationTime() - jitTimeBefore;
+		}
+		synchronized (results) {
+			results.put(binding, result);
+		}
+		if (!monitored) {
+			logger.info("Warmed up {} with {} payloads in {}ms, JIT compilation time is not available",binding,messages,result.time);
+		} else if (result.settleTime < 0) {
+			logger.warn("Warmed up {} with {} payloads in {}ms, JIT compilation had not settled {}ms later ({}ms compiling)",
+					binding,messages,result.time,timeout,result.jitTime);
+		} else {
+			logger.info("Warmed up {} with {} payloads in {}ms, JIT compilation settled {}ms later ({}ms compiling)",
+					binding,messages,result.time,result.settleTime,result.jitTime);
+		}
+	}
+
+	/**
+	 * @return the payloads converted from the samples, or generated, or null if they cannot be generated
+	 */
+	List<Object> createPayloads() {
+		List<Object> payloads = new ArrayList<>();
+		if (!samples.isEmpty()) {
+			for (String sample: samples) {
+				payloads.add(convert(sample));
+			}
+			return payloads;
+		}
+		for (int i = 0; i < Math.min(messages, 1000); i++) {
+			if (payloadType == Object.class || payloadType == String.class || payloadType == byte[].class) {
+				payloads.add(convert(Integer.toString(i)));
+			} else if (conversionService.canConvert(Integer.class, payloadType)) {
+				payloads.add(conversionService.convert(i, payloadType));
+			} else {
+				return null;
+			}
+		}
+		return payloads;
+	}
+
+	private Object convert(String sample) {
+		if (payloadType == Object.class || payloadType == String.class) {
+			return sample;
+		} else if (payloadType == byte[].class) {
+			return sample.getBytes(StandardCharsets.UTF_8);
+		}
+		return conversionService.convert(sample, payloadType);
+	}
+
+	/**
+	 * @return the time in milliseconds until the JIT compilation time stopped increasing, or -1 if it did not within the timeout
+	 */
+	private long awaitSettled(CompilationMXBean compilationMXBean) {
+		long stime = System.nanoTime();
+		long deadline = stime + TimeUnit.MILLISECONDS.toNanos(timeout);
+		long jitTime = compilationMXBean.getTotalCompilationTime();
+		while (System.nanoTime() < deadline) {
+			try {
+				Thread.sleep(SETTLE_POLL_INTERVAL);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+			long latestJitTime = compilationMXBean.getTotalCompilationTime();
+			if (latestJitTime == jitTime) {
+				return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stime);
+			}
+			jitTime = latestJitTime;
+		}
+		return -1;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		synchronized (results) {
+			for (Map.Entry<String, Result> entry: results.entrySet()) {
+				String prefix = PREFIX + entry.getKey() + ".";
+				Result result = entry.getValue();
+				metrics.add(new Metric<Integer>(prefix + "messages", messages));
+				metrics.add(new Metric<Long>(prefix + "outputs", result.outputs));
+				metrics.add(new Metric<Long>(prefix + "time", result.time));
+				metrics.add(new Metric<Long>(prefix + "settleTime", result.settleTime));
+				metrics.add(new Metric<Long>(prefix + "jitTime", result.jitTime));
+			}
+		}
+		return metrics;
+	}
+
+	private static class Result {
+
+		long outputs;
+
+		long time;
+
+		long settleTime = -1;
+
+		long jitTime = -1;
+
+	}
+
+}
@@ -15,7 +15,12 @@
  */
 package org.springframework.cloud.stream.app.transform;
 
-import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.validation.constraints.AssertTrue;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -47,7 +52,229 @@ public class ProgrammableReactiveProcessorProperties {
 	 */
 	private String code;
 
-	@NotNull
+	/**
+	 * Kind of code the code snippets supply: reactive (a ReactiveProcessor), function (a
+	 * Function called directly for each message) or predicate (a Predicate deciding which
+	 * messages are passed on).
+	 */
+	private String template = "reactive";
+
+	/**
+	 * Type of the payloads the code receives, for example String, Long or the fully qualified
+	 * name of a POJO. Messages are converted to this type by the binder. byte[] receives the
+	 * payloads the binder has not decoded.
+	 */
+	private String inputType = "Object";
+
+	/**
+	 * Type of the payloads the code produces.
+	 */
+	private String outputType = "Object";
+
+	/**
+	 * Additional processors keyed by name, the value is the code snippet as for the code
+	 * property. Each is bound to its own input and output, named &lt;name&gt;-input
+	 * and &lt;name&gt;-output.
+	 */
+	private Map<String, String> processors = new LinkedHashMap<>();
+
+	/**
+	 * Directory in which the results of compiling the code snippet are cached, so that
+	 * a restart with unchanged code does not need to run the compiler. No caching if not set.
+	 */
+	private String cacheDirectory;
+
+	/**
+	 * Number of threads used to index the classpath before compiling. 0 means use the
+	 * number of available processors, 1 indexes sequentially.
+	 */
+	private int indexingParallelism = 0;
+
+	/**
+	 * Compiler used to compile the code snippet, either javac, ecj, forked (compiles in a
+	 * short-lived child JVM, using forkedCompilerBackend) or server (sends the code to a compile
+	 * server on the same host, compiling in process if there is none). If not set javac is used
+	 * when running on a JDK, otherwise ecj.
+	 */
+	private String compilerBackend;
+
+	/**
+	 * Compiler the child JVM uses when compilerBackend is forked, either javac or ecj. If not
+	 * set javac is used when the child runs on a JDK, otherwise ecj.
+	 */
+	private String forkedCompilerBackend;
+
+	/**
+	 * Options for the child JVM when compilerBackend is forked, separated by spaces.
+	 */
+	private String forkedCompilerJvmOptions = "-XX:TieredStopAtLevel=1 -XX:+UseSerialGC";
+
+	/**
+	 * Time in seconds to wait for the child JVM when compilerBackend is forked.
+	 */
+	private long forkedCompilerTimeout = 120;
+
+	/**
+	 * Loopback port the compile server listens on when compilerBackend is server.
+	 */
+	private int compileServerPort = 7775;
+
+	/**
+	 * Time in milliseconds to wait to connect to the compile server before compiling in process.
+	 */
+	private int compileServerConnectTimeout = 1000;
+
+	/**
+	 * Time in milliseconds to wait for each response from the compile server, including the compilation,
+	 * before compiling in process.
+	 */
+	private int compileServerReadTimeout = 60000;
+
+	/**
+	 * File holding the token shared with the compile server, which must only be accessible to its owner.
+	 * Defaults to ~/.compile-server/token.
+	 */
+	private String compileServerTokenFile;
+
+	/**
+	 * Whether the code is compiled on a background thread whilst the rest of the application starts,
+	 * the input bindings are started once it is compiled.
+	 */
+	private boolean compileAsync = false;
+
+	/**
+	 * Whether the /reload endpoint is available for replacing the code without restarting.
+	 */
+	private boolean reloadEnabled = false;
+
+	/**
+	 * Number of rails the code runs on concurrently. 1 runs it as a single sequence, on the
+	 * binding thread or on the scheduler if one is set. Only for the reactive template.
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Whether the outputs of the rails are merged in the order of the inputs, otherwise
+	 * outputs are emitted as soon as any rail produces them.
+	 */
+	private boolean parallelOrdered = false;
+
+	/**
+	 * Number of consecutive inputs processed together on one rail when the outputs are ordered.
+	 */
+	private int parallelBatchSize = 256;
+
+	/**
+	 * Name of the header holding the key of each input. When set (or partitionKeyCode is) and
+	 * parallelism is greater than 1, the inputs are hashed by key to the rails and the inputs
+	 * sharing a key are processed in order.
+	 */
+	private String partitionKeyHeader;
+
+	/**
+	 * A code snippet that should return a function computing the key of an input, as an
+	 * alternative to partitionKeyHeader. For example: return payload -> ((Map)payload).get("account");
+	 */
+	private String partitionKeyCode;
+
+	/**
+	 * Maximum number of payloads passed to the code together, as a List, for each element of
+	 * the input. Each batch is acknowledged as a unit. 0 passes each payload individually.
+	 */
+	private int batchSize = 0;
+
+	/**
+	 * Maximum time in milliseconds to wait for a batch to fill before passing on what has arrived.
+	 */
+	private long batchTimeout = 1000;
+
+	/**
+	 * Maximum number of outputs of the code published together, as one batch, to the broker.
+	 * Publisher confirms are enabled and tracked when set. 0 publishes each output individually.
+	 */
+	private int outputBatchSize = 0;
+
+	/**
+	 * Time in milliseconds a partial batch of outputs waits for another output before it is published.
+	 */
+	private long outputBatchLinger = 100;
+
+	/**
+	 * Maximum size in bytes of a published batch, a batch is published early rather than exceed it.
+	 */
+	private int outputBatchBufferLimit = 10000;
+
+	/**
+	 * Number of elements requested at a time from the queue between the input binding and
+	 * the code, whatever the code itself requests. 0 passes on the requests of the code.
+	 */
+	private int inputPrefetch = 0;
+
+	/**
+	 * Maximum number of messages received from the input binding but not yet taken by the
+	 * code. Once reached the binding waits for the code to take one. 0 means no limit.
+	 */
+	private int inputQueueCapacity = 0;
+
+	/**
+	 * Maximum time in milliseconds the binding waits for space in a full input queue, after
+	 * which the delivery of the message fails.
+	 */
+	private long inputQueueTimeout = 60000;
+
+	/**
+	 * Pool of threads the code runs on, isolated from the binding threads: parallel (a fixed
+	 * number of threads, for CPU bound code) or elastic (threads created as needed up to the
+	 * pool size, for code that blocks). If not set the code runs on the binding thread, unless
+	 * parallelism is greater than 1 when the rails run on a parallel pool.
+	 */
+	private String scheduler;
+
+	/**
+	 * Maximum number of threads in the scheduler's pool, shared by the main and the named
+	 * processors. 0 means the number of available processors for parallel, ten times that for elastic.
+	 */
+	private int schedulerPoolSize = 0;
+
+	/**
+	 * Maximum number of tasks waiting for a thread of the scheduler, once reached the input
+	 * waits for space. 0 means no limit.
+	 */
+	private int schedulerQueueCapacity = 0;
+
+	/**
+	 * Maximum time in milliseconds the input waits for space in a full scheduler queue, after
+	 * which the delivery of the message fails.
+	 */
+	private long schedulerQueueTimeout = 60000;
+
+	/**
+	 * Prefix of the names of the scheduler's threads, also the name its metrics are published under.
+	 */
+	private String schedulerThreadName = "processor";
+
+	/**
+	 * Number of payloads run through each newly compiled processor, with the outputs discarded, before it
+	 * receives any messages, so the first messages do not run through code that is not yet JIT compiled.
+	 * 0 to not warm up.
+	 */
+	private int warmupMessages = 0;
+
+	/**
+	 * Sample payloads for the warm up, used in turn. If none are supplied they are generated.
+	 */
+	private List<String> warmupPayloads = new ArrayList<>();
+
+	/**
+	 * File of sample payloads for the warm up, one per line, e.g. recorded from the input.
+	 */
+	private String warmupPayloadsFile;
+
+	/**
+	 * Time in milliseconds to wait for the warm up payloads to be processed, and again for JIT compilation to settle.
+	 */
+	private long warmupTimeout = 10000;
+
 	public String getCode() {
 		return code;
 	}
@@ -55,4 +282,343 @@ public class ProgrammableReactiveProcessorProperties {
 	public void setCode(String code) {
 		this.code = code;
 	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	public void setTemplate(String template) {
+		this.template = template;
+	}
+
+	public String getInputType() {
+		return inputType;
+	}
+
+	public void setInputType(String inputType) {
+		this.inputType = inputType;
+	}
+
+	public String getOutputType() {
+		return outputType;
+	}
+
+	public void setOutputType(String outputType) {
+		this.outputType = outputType;
+	}
+
+	public Map<String, String> getProcessors() {
+		return processors;
+	}
+
+	public void setProcessors(Map<String, String> processors) {
+		this.processors = processors;
+	}
+
+	@AssertTrue(message = "code or processors must be specified")
+	public boolean isCodeSpecified() {
+		return code != null || !processors.isEmpty();
+	}
+
+	@AssertTrue(message = "only one of partitionKeyHeader and partitionKeyCode can be specified")
+	public boolean isSinglePartitionKey() {
+		return partitionKeyHeader == null || partitionKeyCode == null;
+	}
+
+	@AssertTrue(message = "batchSize can only be used with the reactive template and without a partition key")
+	public boolean isBatchSupported() {
+		return batchSize <= 0 || ("reactive".equalsIgnoreCase(template) && partitionKeyHeader == null && partitionKeyCode == null);
+	}
+
+	@AssertTrue(message = "outputBatchSize can only be used with the reactive template")
+	public boolean isOutputBatchSupported() {
+		return outputBatchSize <= 0 || "reactive".equalsIgnoreCase(template);
+	}
+
+	@AssertTrue(message = "inputPrefetch and inputQueueCapacity can only be used with the reactive template")
+	public boolean isInputHandoffSupported() {
+		return (inputPrefetch <= 0 && inputQueueCapacity <= 0) || "reactive".equalsIgnoreCase(template);
+	}
+
+	@AssertTrue(message = "scheduler can only be used with the reactive template")
+	public boolean isSchedulerSupported() {
+		return scheduler == null || "reactive".equalsIgnoreCase(template);
+	}
+
+	@AssertTrue(message = "parallelism greater than 1, partitionKeyHeader and partitionKeyCode can only be used with the reactive template")
+	public boolean isParallelismSupported() {
+		return (parallelism <= 1 && partitionKeyHeader == null && partitionKeyCode == null) || "reactive".equalsIgnoreCase(template);
+	}
+
+	public String getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public void setCacheDirectory(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public int getIndexingParallelism() {
+		return indexingParallelism;
+	}
+
+	public void setIndexingParallelism(int indexingParallelism) {
+		this.indexingParallelism = indexingParallelism;
+	}
+
+	public String getCompilerBackend() {
+		return compilerBackend;
+	}
+
+	public void setCompilerBackend(String compilerBackend) {
+		this.compilerBackend = compilerBackend;
+	}
+
+	public String getForkedCompilerBackend() {
+		return forkedCompilerBackend;
+	}
+
+	public void setForkedCompilerBackend(String forkedCompilerBackend) {
+		this.forkedCompilerBackend = forkedCompilerBackend;
+	}
+
+	public String getForkedCompilerJvmOptions() {
+		return forkedCompilerJvmOptions;
+	}
+
+	public void setForkedCompilerJvmOptions(String forkedCompilerJvmOptions) {
+		this.forkedCompilerJvmOptions = forkedCompilerJvmOptions;
+	}
+
+	public long getForkedCompilerTimeout() {
+		return forkedCompilerTimeout;
+	}
+
+	public void setForkedCompilerTimeout(long forkedCompilerTimeout) {
+		this.forkedCompilerTimeout = forkedCompilerTimeout;
+	}
+
+	public int getCompileServerPort() {
+		return compileServerPort;
+	}
+
+	public void setCompileServerPort(int compileServerPort) {
+		this.compileServerPort = compileServerPort;
+	}
+
+	public int getCompileServerConnectTimeout() {
+		return compileServerConnectTimeout;
+	}
+
+	public void setCompileServerConnectTimeout(int compileServerConnectTimeout) {
+		this.compileServerConnectTimeout = compileServerConnectTimeout;
+	}
+
+	public int getCompileServerReadTimeout() {
+		return compileServerReadTimeout;
+	}
+
+	public void setCompileServerReadTimeout(int compileServerReadTimeout) {
+		this.compileServerReadTimeout = compileServerReadTimeout;
+	}
+
+	public String getCompileServerTokenFile() {
+		return compileServerTokenFile;
+	}
+
+	public void setCompileServerTokenFile(String compileServerTokenFile) {
+		this.compileServerTokenFile = compileServerTokenFile;
+	}
+
+	public boolean isCompileAsync() {
+		return compileAsync;
+	}
+
+	public void setCompileAsync(boolean compileAsync) {
+		this.compileAsync = compileAsync;
+	}
+
+	public boolean isReloadEnabled() {
+		return reloadEnabled;
+	}
+
+	public void setReloadEnabled(boolean reloadEnabled) {
+		this.reloadEnabled = reloadEnabled;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public boolean isParallelOrdered() {
+		return parallelOrdered;
+	}
+
+	public void setParallelOrdered(boolean parallelOrdered) {
+		this.parallelOrdered = parallelOrdered;
+	}
+
+	public int getParallelBatchSize() {
+		return parallelBatchSize;
+	}
+
+	public void setParallelBatchSize(int parallelBatchSize) {
+		this.parallelBatchSize = parallelBatchSize;
+	}
+
+	public String getPartitionKeyHeader() {
+		return partitionKeyHeader;
+	}
+
+	public void setPartitionKeyHeader(String partitionKeyHeader) {
+		this.partitionKeyHeader = partitionKeyHeader;
+	}
+
+	public String getPartitionKeyCode() {
+		return partitionKeyCode;
+	}
+
+	public void setPartitionKeyCode(String partitionKeyCode) {
+		this.partitionKeyCode = partitionKeyCode;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getBatchTimeout() {
+		return batchTimeout;
+	}
+
+	public void setBatchTimeout(long batchTimeout) {
+		this.batchTimeout = batchTimeout;
+	}
+
+	public int getOutputBatchSize() {
+		return outputBatchSize;
+	}
+
+	public void setOutputBatchSize(int outputBatchSize) {
+		this.outputBatchSize = outputBatchSize;
+	}
+
+	public long getOutputBatchLinger() {
+		return outputBatchLinger;
+	}
+
+	public void setOutputBatchLinger(long outputBatchLinger) {
+		this.outputBatchLinger = outputBatchLinger;
+	}
+
+	public int getOutputBatchBufferLimit() {
+		return outputBatchBufferLimit;
+	}
+
+	public void setOutputBatchBufferLimit(int outputBatchBufferLimit) {
+		this.outputBatchBufferLimit = outputBatchBufferLimit;
+	}
+
+	public int getInputPrefetch() {
+		return inputPrefetch;
+	}
+
+	public void setInputPrefetch(int inputPrefetch) {
+		this.inputPrefetch = inputPrefetch;
+	}
+
+	public int getInputQueueCapacity() {
+		return inputQueueCapacity;
+	}
+
+	public void setInputQueueCapacity(int inputQueueCapacity) {
+		this.inputQueueCapacity = inputQueueCapacity;
+	}
+
+	public long getInputQueueTimeout() {
+		return inputQueueTimeout;
+	}
+
+	public void setInputQueueTimeout(long inputQueueTimeout) {
+		this.inputQueueTimeout = inputQueueTimeout;
+	}
+
+	public String getScheduler() {
+		return scheduler;
+	}
+
+	public void setScheduler(String scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public int getSchedulerPoolSize() {
+		return schedulerPoolSize;
+	}
+
+	public void setSchedulerPoolSize(int schedulerPoolSize) {
+		this.schedulerPoolSize = schedulerPoolSize;
+	}
+
+	public int getSchedulerQueueCapacity() {
+		return schedulerQueueCapacity;
+	}
+
+	public void setSchedulerQueueCapacity(int schedulerQueueCapacity) {
+		this.schedulerQueueCapacity = schedulerQueueCapacity;
+	}
+
+	public long getSchedulerQueueTimeout() {
+		return schedulerQueueTimeout;
+	}
+
+	public void setSchedulerQueueTimeout(long schedulerQueueTimeout) {
+		this.schedulerQueueTimeout = schedulerQueueTimeout;
+	}
+
+	public String getSchedulerThreadName() {
+		return schedulerThreadName;
+	}
+
+	public void setSchedulerThreadName(String schedulerThreadName) {
+		this.schedulerThreadName = schedulerThreadName;
+	}
+
+	public int getWarmupMessages() {
+		return warmupMessages;
+	}
+
+	public void setWarmupMessages(int warmupMessages) {
+		this.warmupMessages = warmupMessages;
+	}
+
+	public List<String> getWarmupPayloads() {
+		return warmupPayloads;
+	}
+
+	public void setWarmupPayloads(List<String> warmupPayloads) {
+		this.warmupPayloads = warmupPayloads;
+	}
+
+	public String getWarmupPayloadsFile() {
+		return warmupPayloadsFile;
+	}
+
+	public void setWarmupPayloadsFile(String warmupPayloadsFile) {
+		this.warmupPayloadsFile = warmupPayloadsFile;
+	}
+
+	public long getWarmupTimeout() {
+		return warmupTimeout;
+	}
+
+	public void setWarmupTimeout(long warmupTimeout) {
+		this.warmupTimeout = warmupTimeout;
+	}
 }
@@ -27,11 +27,12 @@ import reactor.core.publisher.Flux;
 /**
  * @author Mark Fisher
  */
-public interface ReactiveProcessor<I, O> extends Function<Flux<Object>, Flux<Object>> {
+public interface ReactiveProcessor<I, O> extends Function<Flux<I>, Flux<O>> {
 
+	@SuppressWarnings("unchecked")
 	@StreamListener
 	@Output(Processor.OUTPUT)
 	default Flux<Object> process(@Input(Processor.INPUT) Flux<Object> input) {
-		return this.apply(input);
+		return (Flux<Object>)this.apply((Flux<I>)input);
 	}
 }
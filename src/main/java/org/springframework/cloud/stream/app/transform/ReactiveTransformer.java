@@ -15,20 +15,55 @@
  */
 package org.springframework.cloud.stream.app.transform;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.amqp.rabbit.connection.AbstractConnectionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.binding.BindableChannelFactory;
 import org.springframework.cloud.stream.app.transform.javacompiler.CompilationMessage;
+import org.springframework.cloud.stream.app.transform.javacompiler.ClasspathIndexCache;
 import org.springframework.cloud.stream.app.transform.javacompiler.CompilationResult;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationStatistics;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompileServerBackend;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompiledClassCache;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilerBackend;
+import org.springframework.cloud.stream.app.transform.javacompiler.ForkedCompilerBackend;
+import org.springframework.cloud.stream.app.transform.javacompiler.PrecompiledClasses;
 import org.springframework.cloud.stream.app.transform.javacompiler.RuntimeJavaCompiler;
 import org.springframework.cloud.stream.messaging.Processor;
+import org.springframework.cloud.stream.reactive.FluxToMessageChannelResultAdapter;
+import org.springframework.cloud.stream.reactive.MessageChannelToInputFluxParameterAdapter;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.integration.channel.ChannelInterceptorAware;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.util.StringUtils;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.QueueSupplier;
 
 /**
  * A class that can return a ReactiveProcessor bean but compiles code supplied in a property in order
@@ -49,7 +84,7 @@ public class ReactiveTransformer {
 	// Individual double-quote characters are represented by two double quotes in the DSL
 	private static final String DOUBLE_DOUBLE_QUOTE = Matcher.quoteReplacement("\"\"");
 
-	private final static String MAIN_COMPILED_CLASS_NAME = "org.springframework.cloud.stream.app.transform.ReactiveClass";
+	final static String MAIN_COMPILED_CLASS_NAME = "org.springframework.cloud.stream.app.transform.ReactiveClass";
 	
 	/**
 	 * The user supplied code snippet is inserted into the template and then the result is compiled
@@ -60,47 +95,564 @@ public class ReactiveTransformer {
 			"import reactor.core.publisher.Flux;\n" +
 			"public class ReactiveClass implements ProcessorFactory {\n"+
 			" public ReactiveProcessor<Object,Object> getProcessor() {\n"+
-			"  %s\n"+
+			"  %1$s\n"+
+			" }\n"+
+			"%2$s"+
+			"}\n";
+
+	private final static String UNTYPED = "Object";
+
+	/**
+	 * Used instead of {@link #SOURCE_CODE_TEMPLATE} when payload types are specified, the code snippet is
+	 * inserted into a method returning a processor of those types.
+	 */
+	private static String TYPED_SOURCE_CODE_TEMPLATE =
+			"package org.springframework.cloud.stream.app.transform;\n"+
+			"import java.util.*;\n"+
+			"import reactor.core.publisher.Flux;\n" +
+			"public class ReactiveClass implements ProcessorFactory {\n"+
+			" public ReactiveProcessor<Object,Object> getProcessor() {\n"+
+			"  return new TypedReactiveProcessor<%1$s,%2$s>(%1$s.class, getTypedProcessor());\n"+
+			" }\n"+
+			" private ReactiveProcessor<%1$s,%2$s> getTypedProcessor() {\n"+
+			"  %3$s\n"+
+			" }\n"+
+			"%4$s"+
+			"}\n";
+
+	public final static String REACTIVE_TEMPLATE = "reactive";
+
+	public final static String FUNCTION_TEMPLATE = "function";
+
+	public final static String PREDICATE_TEMPLATE = "predicate";
+
+	/**
+	 * Used instead of the reactive templates when the code snippet supplies a function or predicate, the
+	 * snippet is inserted into a method returning that function or predicate which is adapted to a function
+	 * producing null for any input the predicate rejects.
+	 */
+	private static String FUNCTION_SOURCE_CODE_TEMPLATE =
+			"package org.springframework.cloud.stream.app.transform;\n"+
+			"import java.util.*;\n"+
+			"import reactor.core.publisher.Flux;\n" +
+			"public class ReactiveClass implements ProcessorFactory {\n"+
+			" public ReactiveProcessor<Object,Object> getProcessor() {\n"+
+			"  return FunctionProcessor.asReactiveProcessor(getFunction());\n"+
+			" }\n"+
+			" public java.util.function.Function<Object,Object> getFunction() {\n"+
+			"  %1$s f = getUserFunction();\n"+
+			"  return v -> %2$s;\n"+
+			" }\n"+
+			" private %1$s getUserFunction() {\n"+
+			"  %3$s\n"+
 			" }\n"+
+			"%4$s"+
 			"}\n";
 
+	/**
+	 * Added to any template when the partitionKeyCode property is set, the snippet is inserted
+	 * into a method returning the function that computes the key of each input.
+	 */
+	private static String PARTITION_KEY_METHOD_TEMPLATE =
+			" public java.util.function.Function<Object,Object> getPartitionKey() {\n"+
+			"  %s\n"+
+			" }\n";
+
 	@Autowired
 	private RuntimeJavaCompiler compiler;
 	
 	@Autowired
 	private ProgrammableReactiveProcessorProperties properties;
 
+	// Used to connect the named processors to their own channels
+	@Autowired
+	private BindableChannelFactory channelFactory;
+
+	@Autowired
+	private Processor channels;
+
+	@Autowired
+	private MessageChannelToInputFluxParameterAdapter inputAdapter;
+
+	@Autowired
+	private FluxToMessageChannelResultAdapter resultAdapter;
+
+	// Used to track the publisher confirms of batched outputs, if the rabbit binder is in use
+	@Autowired(required=false)
+	private AbstractConnectionFactory connectionFactory;
+
+	/**
+	 * If a cache directory is configured, the compiler will use it to avoid recompiling
+	 * code that has not changed since the last time the application ran.
+	 * 
+	 * @return a cache of compiled class definitions
+	 */
+	@Bean
+	@ConditionalOnProperty("cacheDirectory")
+	public CompiledClassCache compiledClassCache() {
+		return new CompiledClassCache(new File(properties.getCacheDirectory()));
+	}
+
+	/**
+	 * @return the classes compiled ahead of time (by {@link Precompiler}) into the application, if any
+	 */
+	@Bean
+	public PrecompiledClasses precompiledClasses() {
+		return new PrecompiledClasses(ReactiveTransformer.class.getClassLoader());
+	}
+
+	/**
+	 * @return the cache of classpath indexes used by the compiler, built with the configured parallelism
+	 */
+	@Bean
+	public ClasspathIndexCache classpathIndexCache() {
+		ClasspathIndexCache classpathIndexCache = new ClasspathIndexCache();
+		classpathIndexCache.setIndexingParallelism(properties.getIndexingParallelism());
+		return classpathIndexCache;
+	}
+
+	/**
+	 * @return the compiler backend selected by the compilerBackend property
+	 */
+	@Bean
+	@ConditionalOnProperty("compilerBackend")
+	public CompilerBackend compilerBackend() {
+		CompilerBackend compilerBackend = RuntimeJavaCompiler.createCompilerBackend(properties.getCompilerBackend());
+		if (compilerBackend instanceof ForkedCompilerBackend) {
+			ForkedCompilerBackend forkedCompilerBackend = (ForkedCompilerBackend) compilerBackend;
+			forkedCompilerBackend.setWorkerBackend(properties.getForkedCompilerBackend());
+			forkedCompilerBackend.setJvmOptions(Arrays.asList(
+					StringUtils.tokenizeToStringArray(properties.getForkedCompilerJvmOptions(), " ")));
+			forkedCompilerBackend.setTimeout(properties.getForkedCompilerTimeout());
+		} else if (compilerBackend instanceof CompileServerBackend) {
+			CompileServerBackend compileServerBackend = (CompileServerBackend) compilerBackend;
+			compileServerBackend.setPort(properties.getCompileServerPort());
+			compileServerBackend.setConnectTimeout(properties.getCompileServerConnectTimeout());
+			compileServerBackend.setReadTimeout(properties.getCompileServerReadTimeout());
+			if (properties.getCompileServerTokenFile() != null) {
+				compileServerBackend.setTokenFile(Paths.get(properties.getCompileServerTokenFile()));
+			}
+		}
+		return compilerBackend;
+	}
+
+	/**
+	 * @return the statistics of the compilations performed, published as actuator metrics
+	 */
+	@Bean
+	public CompilationMetrics compilationMetrics() {
+		return new CompilationMetrics();
+	}
+
+	/**
+	 * @return the statistics of the batches of outputs published, and their confirms, published as actuator metrics
+	 */
+	@Bean
+	public OutputBatchMetrics outputBatchMetrics() {
+		OutputBatchMetrics outputBatchMetrics = new OutputBatchMetrics(properties.getOutputBatchSize(),
+				properties.getOutputBatchLinger());
+		if (properties.getOutputBatchSize() > 0 && connectionFactory != null) {
+			connectionFactory.addChannelListener(outputBatchMetrics);
+		}
+		return outputBatchMetrics;
+	}
+
+	/**
+	 * @return the hand-offs between the input bindings and the processors, whose state is published as actuator metrics
+	 */
+	@Bean
+	public InputHandoffMetrics inputHandoffMetrics() {
+		return new InputHandoffMetrics(properties.getInputQueueCapacity(), properties.getInputPrefetch(),
+				properties.getInputQueueTimeout());
+	}
+
+	/**
+	 * @return the state of the thread pools the processors run on, published as actuator metrics
+	 */
+	@Bean
+	public SchedulerMetrics schedulerMetrics() {
+		return new SchedulerMetrics();
+	}
+
+	/**
+	 * @return the scheduler the processors (or their rails or lanes, when a parallelism greater than 1 is
+	 * configured) run on, only defined if they do not run on the binding thread
+	 */
+	@Bean(destroyMethod="shutdown")
+	@Conditional(ProcessorSchedulerCondition.class)
+	public Scheduler processorScheduler() {
+		// Without a scheduler configured the rails run on a parallel pool. The pool is shared by the main and the
+		// named processors, so it is sized as configured rather than by the rails of any one of them
+		String kind = properties.getScheduler() != null ? properties.getScheduler() : ParallelReactiveProcessor.PARALLEL_SCHEDULER;
+		ThreadPoolExecutor executor = ParallelReactiveProcessor.createExecutor(kind, properties.getSchedulerThreadName(),
+				properties.getSchedulerPoolSize(), properties.getSchedulerQueueCapacity(), properties.getSchedulerQueueTimeout());
+		schedulerMetrics().register(properties.getSchedulerThreadName(), executor);
+		return Schedulers.fromExecutorService(executor);
+	}
+
+	/**
+	 * Matches when the processors need a scheduler: one is configured, or they run on several rails.
+	 */
+	static class ProcessorSchedulerCondition extends AnyNestedCondition {
+
+		ProcessorSchedulerCondition() {
+			super(ConfigurationPhase.REGISTER_BEAN);
+		}
+
+		@ConditionalOnProperty("scheduler")
+		static class SchedulerConfigured {
+		}
+
+		@ConditionalOnExpression("${parallelism:1} > 1")
+		static class Parallel {
+		}
+	}
+
+	/**
+	 * @return the warm up run on each newly compiled processor, whose results are published as actuator metrics
+	 */
+	@Bean
+	public ProcessorWarmup processorWarmup() {
+		List<String> samples = new ArrayList<>(properties.getWarmupPayloads());
+		if (properties.getWarmupPayloadsFile() != null) {
+			try {
+				samples.addAll(Files.readAllLines(Paths.get(properties.getWarmupPayloadsFile()), StandardCharsets.UTF_8));
+			} catch (IOException ioe) {
+				throw new IllegalStateException("Unable to read the warm up payloads from "+properties.getWarmupPayloadsFile(), ioe);
+			}
+		}
+		Class<?> payloadType = PayloadTypeEnvironmentPostProcessor.resolveType(properties.getInputType(), getClass().getClassLoader());
+		return new ProcessorWarmup(properties.getWarmupMessages(), samples, payloadType==null?Object.class:payloadType,
+				properties.getBatchSize(), properties.getWarmupTimeout());
+	}
+
+	/**
+	 * @return the compilations running in the background, waited for before the input bindings start
+	 */
+	@Bean
+	public AsyncCompilation asyncCompilation() {
+		return new AsyncCompilation();
+	}
+
 	/**
 	 * Produce an ReactiveProcessor instance by:<ul>
 	 * <li>Decoding the code property to process any newlines/double-double-quotes
 	 * <li>Insert the code into the source code template for a class
-	 * <li>Compiling the class using the JDK provided Java Compiler
+	 * <li>Compiling the class using the configured compiler backend
 	 * <li>Loading the compiled class
 	 * <li>Invoking a well known method on the class to produce a ReactiveProcessor instance
-	 * <li>Returning that instance.
+	 * <li>Warming it up with sample payloads, if a number of warm up messages is configured
+	 * <li>Running that instance on several rails, if a parallelism is configured, keyed by partition key if one is configured,
+	 * otherwise on the configured scheduler if there is one
+	 * <li>Passing the input to it in batches, if a batch size is configured
+	 * <li>Marking its outputs with the time they were emitted, for the output binding to publish them in batches,
+	 * if an output batch size is configured
+	 * <li>Bounding the queue of input waiting for it, and its requests, if an input queue capacity or prefetch is configured
+	 * <li>Returning that instance, wrapped so that it can later be replaced by {@link #reload(String)} if
+	 * reloadEnabled is set.
 	 * </ul>
+	 * If compileAsync is set, all but the first step run in the background and a placeholder is returned
+	 * in the meantime, see {@link AsyncCompilation}.
 	 * 
 	 * @return a ReactiveProcessor instance
 	 */
 	@Bean
 	public ReactiveProcessor<Object,Object> processor() {
+		if (properties.getCode() == null || isFunctionTemplate()) {
+			// Only named processors are in use, or the code is run by the function processor
+			return null;
+		}
 		logger.info("Initial code property value :'{}'",properties.getCode());
- 		String code = decode(properties.getCode());
- 		if (code.startsWith("\"") && code.endsWith("\"")) {
- 			code = code.substring(1,code.length()-1);
- 		}
+		String code = decodeCodeProperty(properties.getCode());
+		logger.info("Processed code property value :\n{}\n",code);
+		if (properties.isCompileAsync()) {
+			SwappableReactiveProcessor swappableProcessor = new SwappableReactiveProcessor(AsyncCompilation.PLACEHOLDER_PROCESSOR);
+			compileInBackground("the code", () -> createProcessor(Processor.INPUT, buildAndCompileSourceCode(code)),
+					swappableProcessor::swap);
+			addInputInterceptors(Processor.INPUT, channels.input());
+			addOutputInterceptors(channels.output());
+			return swappableProcessor;
+		}
+		ReactiveProcessor<Object,Object> processor = createProcessor(Processor.INPUT, buildAndCompileSourceCode(code));
+		if (processor == null) {
+			return null;
+		}
+		addInputInterceptors(Processor.INPUT, channels.input());
+		addOutputInterceptors(channels.output());
+		return swappable(processor);
+	}
+
+	/**
+	 * When the code supplies a function or predicate rather than a ReactiveProcessor, produce a
+	 * processor with a plain <tt>@StreamListener</tt> method that calls it for each message.
+	 * 
+	 * @return a FunctionProcessor instance, or null if the code is reactive
+	 */
+	@Bean
+	public FunctionProcessor functionProcessor() {
+		if (properties.getCode() == null || !isFunctionTemplate()) {
+			return null;
+		}
+		String code = decodeCodeProperty(properties.getCode());
 		logger.info("Processed code property value :\n{}\n",code);
+		if (properties.isCompileAsync()) {
+			FunctionProcessor functionProcessor = new FunctionProcessor(AsyncCompilation.PLACEHOLDER_FUNCTION);
+			compileInBackground("the code", () -> createFunction(buildAndCompileSourceCode(code)), functionProcessor::swap);
+			return functionProcessor;
+		}
+		Function<Object,Object> function = createFunction(buildAndCompileSourceCode(code));
+		return function==null?null:new FunctionProcessor(function);
+	}
+
+	/**
+	 * Compile the code for each of the named processors and bind each one to its own input
+	 * and output. All the code is compiled by the same compiler but each processor is loaded
+	 * by a separate class loader.
+	 * 
+	 * @return the named processors, empty if none are configured
+	 */
+	@Bean
+	public NamedProcessors namedProcessors() {
+		NamedProcessors namedProcessors = new NamedProcessors(channelFactory, inputAdapter, resultAdapter);
+		for (Map.Entry<String, String> entry: properties.getProcessors().entrySet()) {
+			String code = decodeCodeProperty(entry.getValue());
+			logger.info("Code for processor '{}' :\n{}\n",entry.getKey(),code);
+			String input = entry.getKey() + NamedProcessors.INPUT_SUFFIX;
+			if (properties.isCompileAsync()) {
+				String name = entry.getKey();
+				SwappableReactiveProcessor swappableProcessor = new SwappableReactiveProcessor(AsyncCompilation.PLACEHOLDER_PROCESSOR);
+				namedProcessors.add(name, swappableProcessor);
+				compileInBackground("processor '"+name+"'", () -> createProcessor(input, buildAndCompileSourceCode(code)),
+						swappableProcessor::swap);
+				addInputInterceptors(input, namedProcessors.getInputChannel(name));
+				addOutputInterceptors(namedProcessors.getOutputChannel(name));
+				continue;
+			}
+			ReactiveProcessor<Object,Object> processor = createProcessor(input, buildAndCompileSourceCode(code));
+			if (processor != null) {
+				namedProcessors.add(entry.getKey(), swappable(processor));
+				addInputInterceptors(input, namedProcessors.getInputChannel(entry.getKey()));
+				addOutputInterceptors(namedProcessors.getOutputChannel(entry.getKey()));
+			} else {
+				logger.error("Processor '{}' will not be available",entry.getKey());
+			}
+		}
+		return namedProcessors;
+	}
+
+	/**
+	 * Exposes {@link #reload(String)} over http, only if enabled as it allows arbitrary code to be run.
+	 * 
+	 * @return an endpoint for reloading the code
+	 */
+	@Bean
+	@ConditionalOnProperty("reloadEnabled")
+	public ReloadEndpoint reloadEndpoint() {
+		return new ReloadEndpoint(this);
+	}
+
+	/**
+	 * Compile new code and, if successful, switch the processor over to it without
+	 * interrupting the binding. The code is not decoded, it should be plain java source.
+	 * The switch over completes asynchronously once the current processor has handled
+	 * the elements it has already received.
+	 * 
+	 * @param code the code snippet to use in place of the current one
+	 * @return the result of compiling the code
+	 */
+	public CompilationResult reload(String code) {
+		return reload(null, code);
+	}
+
+	/**
+	 * Compile new code for a processor and, if successful, switch the processor over to it.
+	 * 
+	 * @param name the name of the processor to reload, or null for the main processor
+	 * @param code the code snippet to use in place of the current one
+	 * @return the result of compiling the code
+	 * @see #reload(String)
+	 */
+	public CompilationResult reload(String name, String code) {
+		if (name == null && isFunctionTemplate()) {
+			return reloadFunction(code);
+		}
+		ReactiveProcessor<Object,Object> currentProcessor = (name==null?processor():namedProcessors().getProcessor(name));
+		if (currentProcessor == null) {
+			throw new IllegalStateException("Unable to reload, there is no processor "+(name==null?"":"named '"+name+"' ")+"to replace");
+		}
+		if (!(currentProcessor instanceof SwappableReactiveProcessor)) {
+			throw new IllegalStateException("Unable to reload, the processor can only be replaced if reloadEnabled is set");
+		}
+		SwappableReactiveProcessor swappableProcessor = (SwappableReactiveProcessor) currentProcessor;
+		logger.info("Reloading code{} :\n{}\n",(name==null?"":" for processor '"+name+"'"),code);
 		CompilationResult compilationResult = buildAndCompileSourceCode(code);
+		ReactiveProcessor<Object,Object> processor = createProcessor(name==null?Processor.INPUT:name+NamedProcessors.INPUT_SUFFIX,
+				compilationResult);
+		if (processor != null) {
+			swappableProcessor.swap(processor);
+		}
+		return compilationResult;
+	}
+
+	private CompilationResult reloadFunction(String code) {
+		FunctionProcessor functionProcessor = functionProcessor();
+		if (functionProcessor == null) {
+			throw new IllegalStateException("Unable to reload, there is no processor to replace");
+		}
+		logger.info("Reloading code :\n{}\n",code);
+		CompilationResult compilationResult = buildAndCompileSourceCode(code);
+		Function<Object,Object> function = createFunction(compilationResult);
+		if (function != null) {
+			functionProcessor.swap(function);
+		}
+		return compilationResult;
+	}
+
+	/**
+	 * Compile on the background thread of {@link #asyncCompilation()}. The beans used whilst creating
+	 * the processor are resolved first, so that the background thread does not create beans whilst
+	 * the context is initializing them on the main thread.
+	 */
+	private <T> void compileInBackground(String description, Supplier<T> compile, Consumer<T> install) {
+		compilationMetrics();
+		processorWarmup();
+		inputHandoffMetrics();
+		outputBatchMetrics();
+		if (properties.getScheduler() != null || properties.getParallelism() > 1) {
+			processorScheduler();
+		}
+		asyncCompilation().submit(description, compile, install);
+	}
+
+	/**
+	 * Only wrap the processor when it can be replaced, the windows used to switch over to a new
+	 * processor are otherwise an overhead for every element.
+	 */
+	private ReactiveProcessor<Object,Object> swappable(ReactiveProcessor<Object,Object> processor) {
+		return properties.isReloadEnabled() ? new SwappableReactiveProcessor(processor) : processor;
+	}
+
+	private boolean isFunctionTemplate() {
+		return !REACTIVE_TEMPLATE.equalsIgnoreCase(properties.getTemplate());
+	}
+
+	private ReactiveProcessor<Object,Object> createProcessor(String binding, CompilationResult compilationResult) {
+		// The compiled processor is warmed up on its own, after the instantiation is timed
+		AtomicReference<ReactiveProcessor<Object,Object>> compiledProcessor = new AtomicReference<>();
+		ReactiveProcessor<Object,Object> processor = create(compilationResult, processorFactory -> {
+			compiledProcessor.set(processorFactory.getProcessor());
+			return handoff(binding, batchOutput(batch(parallelize(compiledProcessor.get(), processorFactory.getPartitionKey()))));
+		});
+		if (processor != null) {
+			warmUp(binding, compiledProcessor.get());
+		}
+		return processor;
+	}
+
+	private Function<Object,Object> createFunction(CompilationResult compilationResult) {
+		Function<Object,Object> function = create(compilationResult, ProcessorFactory::getFunction);
+		if (function != null) {
+			warmUp(Processor.INPUT, FunctionProcessor.asReactiveProcessor(function));
+		}
+		return function;
+	}
+
+	private void warmUp(String binding, ReactiveProcessor<Object,Object> processor) {
+		if (properties.getWarmupMessages() > 0) {
+			processorWarmup().warmUp(binding, processor);
+		}
+	}
+
+	private <T> T create(CompilationResult compilationResult, Function<ProcessorFactory,T> getter) {
+		try {
+			return doCreate(compilationResult, getter);
+		} finally {
+			compilationMetrics().record(compilationResult.getStatistics());
+		}
+	}
+
+	private boolean isKeyed() {
+		return properties.getPartitionKeyHeader() != null || properties.getPartitionKeyCode() != null;
+	}
+
+	private ReactiveProcessor<Object,Object> parallelize(ReactiveProcessor<Object,Object> processor,
+			Function<Object,Object> partitionKey) {
+		int parallelism = properties.getParallelism();
+		if (parallelism <= 1) {
+			if (properties.getScheduler() == null) {
+				return processor;
+			}
+			// The code sees the whole input as one sequence, in order, it is just moved off the binding thread
+			Scheduler scheduler = processorScheduler();
+			int prefetch = properties.getInputPrefetch() > 0 ? properties.getInputPrefetch() : QueueSupplier.SMALL_BUFFER_SIZE;
+			return input -> processor.apply(input.publishOn(scheduler, prefetch));
+		}
+		if (isKeyed()) {
+			return new KeyedReactiveProcessor(processor, parallelism, partitionKey, processorScheduler());
+		}
+		return new ParallelReactiveProcessor(processor, parallelism,
+				properties.isParallelOrdered(), properties.getParallelBatchSize(), processorScheduler());
+	}
+
+	private ReactiveProcessor<Object,Object> batch(ReactiveProcessor<Object,Object> processor) {
+		if (properties.getBatchSize() <= 0) {
+			return processor;
+		}
+		return new BatchingReactiveProcessor(processor, properties.getBatchSize(), properties.getBatchTimeout(),
+				Math.max(1, properties.getParallelism()));
+	}
+
+	private ReactiveProcessor<Object,Object> batchOutput(ReactiveProcessor<Object,Object> processor) {
+		if (properties.getOutputBatchSize() <= 0) {
+			return processor;
+		}
+		return new OutputBatchingReactiveProcessor(processor);
+	}
+
+	private boolean isHandoffBounded() {
+		return properties.getInputQueueCapacity() > 0 || properties.getInputPrefetch() > 0;
+	}
+
+	private ReactiveProcessor<Object,Object> handoff(String binding, ReactiveProcessor<Object,Object> processor) {
+		if (!isHandoffBounded()) {
+			return processor;
+		}
+		InputHandoff handoff = inputHandoffMetrics().getHandoff(binding);
+		return flux -> processor.apply(handoff.apply(flux));
+	}
+
+	private void addInputInterceptors(String binding, MessageChannel input) {
+		if (isHandoffBounded()) {
+			((ChannelInterceptorAware) input).addInterceptor(inputHandoffMetrics().getHandoff(binding));
+		}
+		if (properties.getParallelism() > 1 && properties.getPartitionKeyHeader() != null) {
+			((ChannelInterceptorAware) input).addInterceptor(new PartitionKeyHeaderInterceptor(properties.getPartitionKeyHeader()));
+		}
+		if (properties.getBatchSize() > 0) {
+			((ChannelInterceptorAware) input).addInterceptor(new BatchAcknowledgementInterceptor());
+		}
+	}
+
+	private void addOutputInterceptors(MessageChannel output) {
+		if (properties.getOutputBatchSize() > 0) {
+			((ChannelInterceptorAware) output).addInterceptor(outputBatchMetrics());
+		}
+	}
+
+	private <T> T doCreate(CompilationResult compilationResult, Function<ProcessorFactory,T> getter) {
 		if (compilationResult.wasSuccessful()) {
 			List<Class<?>> clazzes = compilationResult.getCompiledClasses();
 			logger.info("Compilation resulted in this many classes: #{}",clazzes.size());
 			for (Class<?> clazz: clazzes) { 
 				if (clazz.getName().equals(MAIN_COMPILED_CLASS_NAME)) {
+					long stime = System.nanoTime();
 					try {
 						ProcessorFactory processorFactory = (ProcessorFactory)clazz.newInstance();
-						return processorFactory.getProcessor();
+						return getter.apply(processorFactory);
 					} catch (Exception e) {
 						logger.error("Unexpected problem during retrieval of processor from compiled class",e);
+					} finally {
+						compilationResult.getStatistics().addPhaseTime(CompilationStatistics.Phase.INSTANTIATE, System.nanoTime()-stime);
 					}
 				}
 			}
@@ -118,21 +670,44 @@ public class ReactiveTransformer {
 	/**
 	 * Create the source for and then compile and load a class that embodies
 	 * the supplied methodBody. The methodBody is inserted into a class template that
-	 * returns a <tt>ReactiveProcessor&lt;Object,Object&gt;</tt>. 
+	 * returns a <tt>ReactiveProcessor</tt> of the configured input and output types.
 	 * This method can return more than one class if the method body includes local class
 	 * declarations. An example methodBody would be <tt>return input -> input.buffer(5).map(list->list.get(0));</tt>.
 	 * 
-	 * @param methodBody the source code for a method that should return a <tt>ReactiveProcessor&lt;Object,Object&gt;</tt>
+	 * @param methodBody the source code for a method that should return a <tt>ReactiveProcessor</tt>
 	 * @return the list of Classes produced by compiling and then loading the snippet of code
 	 */
 	private CompilationResult buildAndCompileSourceCode(String methodBody) {
-		String sourceCode = makeSourceClassDefinition(methodBody);
-		return compiler.compile(MAIN_COMPILED_CLASS_NAME,sourceCode);
+		return compiler.compile(MAIN_COMPILED_CLASS_NAME,makeSourceClassDefinition(properties, methodBody));
+	}
+
+	/**
+	 * Make the full source code definition of the class compiled for a code snippet, with the template,
+	 * payload types and partition key code of the specified properties.
+	 * 
+	 * @param properties the properties the application is run with
+	 * @param methodBody the decoded code snippet
+	 * @return a complete Java Class definition
+	 */
+	static String makeSourceClassDefinition(ProgrammableReactiveProcessorProperties properties, String methodBody) {
+		String partitionKeyCode = properties.getPartitionKeyCode()==null?null:decodeCodeProperty(properties.getPartitionKeyCode());
+		// Batches are Lists of payloads, the payload types only influence the conversion done by the binder
+		boolean batching = properties.getBatchSize() > 0;
+		return makeSourceClassDefinition(properties.getTemplate(), methodBody, batching?UNTYPED:properties.getInputType(),
+				batching?UNTYPED:properties.getOutputType(), partitionKeyCode);
 	}
 
 	private static String decode(String input) {
 		return input.replaceAll(NEWLINE_ESCAPE, "\n").replaceAll(DOUBLE_DOUBLE_QUOTE, "\"");
 	}
+
+	static String decodeCodeProperty(String value) {
+		String code = decode(value);
+		if (code.startsWith("\"") && code.endsWith("\"")) {
+			code = code.substring(1,code.length()-1);
+		}
+		return code;
+	}
 	
 	/**
 	 * Make a full source code definition for a class by applying the specified method body
@@ -142,7 +717,65 @@ public class ReactiveTransformer {
 	 * @return a complete Java Class definition
 	 */
 	public static String makeSourceClassDefinition(String methodBody) {
-		return String.format(SOURCE_CODE_TEMPLATE, methodBody);
+		return String.format(SOURCE_CODE_TEMPLATE, methodBody, "");
+	}
+
+	/**
+	 * Make a full source code definition for a class by applying the specified method body
+	 * to the Reactive template, the method body should return a processor of the specified types.
+	 * 
+	 * @param methodBody the code to insert into the Reactive source class template
+	 * @param inputType the type of the payloads the processor receives (e.g. String)
+	 * @param outputType the type of the payloads the processor produces
+	 * @return a complete Java Class definition
+	 */
+	public static String makeSourceClassDefinition(String methodBody, String inputType, String outputType) {
+		return makeSourceClassDefinition(methodBody, inputType, outputType, null);
+	}
+
+	/**
+	 * Make a full source code definition for a class by applying the specified method bodies
+	 * to the Reactive template.
+	 * 
+	 * @param methodBody the code to insert into the Reactive source class template
+	 * @param inputType the type of the payloads the processor receives (e.g. String)
+	 * @param outputType the type of the payloads the processor produces
+	 * @param partitionKeyBody code that returns a function computing the key of an input, or null
+	 * @return a complete Java Class definition
+	 */
+	public static String makeSourceClassDefinition(String methodBody, String inputType, String outputType, String partitionKeyBody) {
+		return makeSourceClassDefinition(REACTIVE_TEMPLATE, methodBody, inputType, outputType, partitionKeyBody);
+	}
+
+	/**
+	 * Make a full source code definition for a class by applying the specified method bodies
+	 * to the template of the specified kind.
+	 * 
+	 * @param template the kind of code the method body supplies, one of <tt>reactive</tt> (a
+	 * <tt>ReactiveProcessor</tt>), <tt>function</tt> (a <tt>Function</tt>) or <tt>predicate</tt> (a <tt>Predicate</tt>)
+	 * @param methodBody the code to insert into the source class template
+	 * @param inputType the type of the payloads the code receives (e.g. String)
+	 * @param outputType the type of the payloads the code produces
+	 * @param partitionKeyBody code that returns a function computing the key of an input, or null
+	 * @return a complete Java Class definition
+	 */
+	public static String makeSourceClassDefinition(String template, String methodBody, String inputType, String outputType,
+			String partitionKeyBody) {
+		String partitionKeyMethod = partitionKeyBody==null?"":String.format(PARTITION_KEY_METHOD_TEMPLATE, partitionKeyBody);
+		if (FUNCTION_TEMPLATE.equalsIgnoreCase(template)) {
+			return String.format(FUNCTION_SOURCE_CODE_TEMPLATE, "java.util.function.Function<"+inputType+","+outputType+">",
+					"f.apply(("+inputType+")v)", methodBody, partitionKeyMethod);
+		} else if (PREDICATE_TEMPLATE.equalsIgnoreCase(template)) {
+			return String.format(FUNCTION_SOURCE_CODE_TEMPLATE, "java.util.function.Predicate<"+inputType+">",
+					"f.test(("+inputType+")v)?v:null", methodBody, partitionKeyMethod);
+		} else if (!REACTIVE_TEMPLATE.equalsIgnoreCase(template)) {
+			throw new IllegalArgumentException("Unknown template '"+template+"', should be one of "+
+					REACTIVE_TEMPLATE+", "+FUNCTION_TEMPLATE+" or "+PREDICATE_TEMPLATE);
+		}
+		if (UNTYPED.equals(inputType) && UNTYPED.equals(outputType)) {
+			return String.format(SOURCE_CODE_TEMPLATE, methodBody, partitionKeyMethod);
+		}
+		return String.format(TYPED_SOURCE_CODE_TEMPLATE, inputType, outputType, methodBody, partitionKeyMethod);
 	}
 	
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationMessage;
+import org.springframework.cloud.stream.app.transform.javacompiler.CompilationResult;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Actuator endpoint for replacing the code of a running processor. POST the new code snippet
+ * (plain text, not escaped as the code property is) to <tt>/reload</tt> to compile it and
+ * switch over to it, the response includes any compilation messages. A named processor is
+ * reloaded by including its name as the <tt>name</tt> request parameter. GET <tt>/reload</tt>
+ * reports how many swaps have occurred and, once a swap of a reactive processor has completed,
+ * how long the last one took.
+ * 
+ * @author Andy Clement
+ */
+public class ReloadEndpoint extends AbstractMvcEndpoint {
+
+	private ReactiveTransformer reactiveTransformer;
+
+	public ReloadEndpoint(ReactiveTransformer reactiveTransformer) {
+		super("/reload", true);
+		this.reactiveTransformer = reactiveTransformer;
+	}
+
+	@RequestMapping(method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public Map<String, Object> reload(@RequestParam(required = false) String name, @RequestBody String code) {
+		CompilationResult compilationResult = reactiveTransformer.reload(name, code);
+		List<String> messages = new ArrayList<>();
+		for (CompilationMessage compilationMessage: compilationResult.getCompilationMessages()) {
+			messages.add(compilationMessage.toString());
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("successful", compilationResult.wasSuccessful());
+		result.put("messages", messages);
+		return result;
+	}
+
+	@RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public Map<String, Object> status() {
+		FunctionProcessor functionProcessor = reactiveTransformer.functionProcessor();
+		Map<String, Object> result = functionProcessor==null?status(reactiveTransformer.processor()):status(functionProcessor);
+		NamedProcessors namedProcessors = reactiveTransformer.namedProcessors();
+		if (!namedProcessors.getNames().isEmpty()) {
+			Map<String, Object> namedProcessorsStatus = new LinkedHashMap<>();
+			for (String name: namedProcessors.getNames()) {
+				namedProcessorsStatus.put(name, status(namedProcessors.getProcessor(name)));
+			}
+			result.put("processors", namedProcessorsStatus);
+		}
+		return result;
+	}
+
+	private Map<String, Object> status(FunctionProcessor processor) {
+		// Function swaps take effect immediately, there is no latency to report
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("swapCount", processor.getSwapCount());
+		return result;
+	}
+
+	private Map<String, Object> status(ReactiveProcessor<Object, Object> processor) {
+		// Processors can be replaced, and so are swappable, whenever this endpoint is enabled
+		SwappableReactiveProcessor swappableProcessor =
+				processor instanceof SwappableReactiveProcessor ? (SwappableReactiveProcessor) processor : null;
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("swapCount", swappableProcessor==null?0:swappableProcessor.getSwapCount());
+		if (swappableProcessor != null && swappableProcessor.getLastSwapLatency() >= 0) {
+			result.put("lastSwapLatency", swappableProcessor.getLastSwapLatency());
+		}
+		return result;
+	}
+
+}
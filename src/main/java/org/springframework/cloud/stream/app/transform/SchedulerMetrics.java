@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Publishes the state of the thread pools the code runs on through the actuator
+ * <tt>/metrics</tt> endpoint, under <tt>scheduler.&lt;name&gt;.*</tt>: the maximum and current
+ * number of threads, how many are busy, the busy fraction of the maximum (<tt>utilization</tt>),
+ * the tasks waiting and the tasks completed.
+ *
+ * @author Andy Clement
+ */
+public class SchedulerMetrics implements PublicMetrics {
+
+	private static final String PREFIX = "scheduler.";
+
+	private final Map<String, ThreadPoolExecutor> pools = new LinkedHashMap<>();
+
+	/**
+	 * @param name the name of the pool, as used for its threads
+	 * @param pool the pool
+	 */
+	public synchronized void register(String name, ThreadPoolExecutor pool) {
+		pools.put(name, pool);
+	}
+
+	@Override
+	public synchronized Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		for (Map.Entry<String, ThreadPoolExecutor> entry: pools.entrySet()) {
+			String prefix = PREFIX + entry.getKey() + ".";
+			ThreadPoolExecutor pool = entry.getValue();
+			int active = pool.getActiveCount();
+			metrics.add(new Metric<Integer>(prefix + "maxPoolSize", pool.getMaximumPoolSize()));
+			metrics.add(new Metric<Integer>(prefix + "poolSize", pool.getPoolSize()));
+			metrics.add(new Metric<Integer>(prefix + "largestPoolSize", pool.getLargestPoolSize()));
+			metrics.add(new Metric<Integer>(prefix + "active", active));
+			metrics.add(new Metric<Double>(prefix + "utilization", (double)active/pool.getMaximumPoolSize()));
+			metrics.add(new Metric<Integer>(prefix + "queued", pool.getQueue().size()));
+			metrics.add(new Metric<Long>(prefix + "completed", pool.getCompletedTaskCount()));
+		}
+		return metrics;
+	}
+
+}
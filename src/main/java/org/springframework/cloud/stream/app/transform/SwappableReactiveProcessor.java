@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+
+/**
+ * A ReactiveProcessor that delegates to another processor which can be replaced whilst
+ * the input is flowing. The input is split into windows, one per delegate. When the
+ * delegate is swapped the current window is completed, so the old delegate finishes
+ * (emitting anything it has buffered, e.g. a partial <tt>buffer(n)</tt>), and only once
+ * its output has completed does the output of the new delegate, applied to the next window,
+ * get subscribed to. Elements arriving during the swap are held in the new window until then,
+ * so none are lost and ordering is preserved. The subscription to the input, and so the binding,
+ * is untouched by a swap. Processors are only wrapped in one when they can be replaced, if
+ * reloadEnabled or compileAsync is set.
+ * 
+ * @author Andy Clement
+ */
+public class SwappableReactiveProcessor implements ReactiveProcessor<Object, Object> {
+
+	private static Logger logger = LoggerFactory.getLogger(SwappableReactiveProcessor.class);
+
+	private volatile ReactiveProcessor<Object, Object> delegate;
+
+	// Signals the window for the current delegate should close
+	private DirectProcessor<Object> swaps = DirectProcessor.create();
+
+	// When the in progress swap was requested, 0 if there is no swap in progress
+	private volatile long swapStartTime;
+
+	private volatile long lastSwapLatency = -1;
+
+	private volatile int swapCount;
+
+	public SwappableReactiveProcessor(ReactiveProcessor<Object, Object> delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Flux<Object> apply(Flux<Object> input) {
+		return input.window(swaps).concatMap(window -> delegate.apply(window).doOnComplete(this::windowCompleted));
+	}
+
+	/**
+	 * Replace the current delegate. Returns immediately, the switch over completes once the current
+	 * delegate has processed the elements it has already received.
+	 * 
+	 * @param newDelegate the processor to use from now on
+	 */
+	public synchronized void swap(ReactiveProcessor<Object, Object> newDelegate) {
+		swapStartTime = System.nanoTime();
+		swapCount++;
+		this.delegate = newDelegate;
+		swaps.onNext(newDelegate);
+		if (!swaps.hasDownstreams()) {
+			// Nothing subscribed yet, there is nothing to drain
+			windowCompleted();
+		}
+	}
+
+	private void windowCompleted() {
+		long startTime = swapStartTime;
+		if (startTime != 0) {
+			swapStartTime = 0;
+			lastSwapLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+			logger.info("Processor swap completed in {}ms", lastSwapLatency);
+		}
+	}
+
+	public ReactiveProcessor<Object, Object> getDelegate() {
+		return this.delegate;
+	}
+
+	/**
+	 * @return the number of times the delegate has been swapped
+	 */
+	public int getSwapCount() {
+		return this.swapCount;
+	}
+
+	/**
+	 * @return the time in milliseconds between the most recent swap being requested and the
+	 * previous delegate completing, or -1 if no swap has completed
+	 */
+	public long getLastSwapLatency() {
+		return this.lastSwapLatency;
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Adapts a processor written in terms of specific payload types to the untyped processor that
+ * is bound to the channels. The binder is expected to have already converted the payloads to
+ * the input type (see {@link PayloadTypeEnvironmentPostProcessor}) so they are only cast here.
+ *
+ * @author Andy Clement
+ */
+public class TypedReactiveProcessor<I, O> implements ReactiveProcessor<Object, Object> {
+
+	private final Class<I> inputType;
+
+	private final ReactiveProcessor<I, O> processor;
+
+	public TypedReactiveProcessor(Class<I> inputType, ReactiveProcessor<I, O> processor) {
+		this.inputType = inputType;
+		this.processor = processor;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Flux<Object> apply(Flux<Object> input) {
+		return (Flux<Object>)processor.apply(input.cast(inputType));
+	}
+
+	public Class<I> getInputType() {
+		return inputType;
+	}
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.tools.JavaFileObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the classes available on a classpath, organized by package. Building the
+ * index walks each jar and directory (including the nested jars inside a spring boot uberjar)
+ * exactly once, after which listing the classes in a package only costs the number of classes
+ * in that package. The archives discovered whilst building the index are kept open until
+ * the index is closed, so the returned JavaFileObjects can be read. Once built the index
+ * is not modified so it can be used by concurrent compilations. The index can be built
+ * in parallel, in which case the classpath entries and the nested jars within them are
+ * indexed concurrently on a fork/join pool and the results merged. Directories at the front
+ * of the classpath (typically the output folders of a development build) are not indexed,
+ * instead they are searched on each request by looking only in the directory for the
+ * requested package.
+ *
+ * @author Andy Clement
+ */
+public class ClasspathIndex {
+
+	private static Logger logger = LoggerFactory.getLogger(ClasspathIndex.class);
+
+	private static final String BOOT_PACKAGING_PREFIX_FOR_CLASSES = "BOOT-INF/classes/";
+
+	private static final String BOOT_PACKAGING_PREFIX_FOR_LIBRARIES = "BOOT-INF/lib/";
+
+	private static final byte[] BOOT_PACKAGING_PREFIX_FOR_LIBRARIES_BYTES = BOOT_PACKAGING_PREFIX_FOR_LIBRARIES.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] CLASS_SUFFIX_BYTES = ".class".getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] JAR_SUFFIX_BYTES = ".jar".getBytes(StandardCharsets.UTF_8);
+
+	private static final MappedZipEntryEnumeration.NameFilter CLASS_FILTER = (buffer, offset, length) ->
+			MappedZipEntryEnumeration.endsWith(buffer, offset, length, CLASS_SUFFIX_BYTES);
+
+	// Classes and nested archives
+	private static final MappedZipEntryEnumeration.NameFilter ARCHIVE_ENTRY_FILTER = (buffer, offset, length) ->
+			CLASS_FILTER.accept(buffer, offset, length) ||
+			(MappedZipEntryEnumeration.startsWith(buffer, offset, length, BOOT_PACKAGING_PREFIX_FOR_LIBRARIES_BYTES, 0) &&
+			 MappedZipEntryEnumeration.endsWith(buffer, offset, length, JAR_SUFFIX_BYTES));
+
+	private String classpath;
+
+	private String fingerprint;
+
+	// Number of file managers currently using this index and whether it has been replaced
+	// by a newer index, guarded by the owning ClasspathIndexCache
+	int users;
+
+	boolean retired;
+
+	// Package name in slashed form (e.g. java/util) to the classes in that package. The
+	// unnamed package is the empty string.
+	private TreeMap<String, List<JavaFileObject>> packages = new TreeMap<>();
+
+	// Directories that precede any archive on the classpath, searched by package on demand
+	private List<File> leadingDirectories = new ArrayList<>();
+
+	// Archives opened whilst building the index, kept open so the indexed classes can be read
+	private List<ZipFile> openArchives = Collections.synchronizedList(new ArrayList<ZipFile>());
+
+	private NestedArchiveStore nestedArchiveStore = new NestedArchiveStore();
+
+	// Number of threads used to build the index, 1 means build it on the calling thread
+	private int parallelism;
+
+	/**
+	 * @param classpath a classpath of jars/directories
+	 */
+	public ClasspathIndex(String classpath) {
+		this(classpath, 1);
+	}
+
+	/**
+	 * @param classpath a classpath of jars/directories
+	 * @param parallelism the number of threads to use to build the index, 1 to build it sequentially
+	 */
+	public ClasspathIndex(String classpath, int parallelism) {
+		this.classpath = classpath;
+		this.parallelism = parallelism;
+		build();
+	}
+
+	private void build() {
+		fingerprint = fingerprint(classpath);
+		if (classpath == null) {
+			return;
+		}
+		long stime = System.currentTimeMillis();
+		List<IndexingTask> tasks = new ArrayList<>();
+		StringTokenizer tokenizer = new StringTokenizer(classpath, File.pathSeparator);
+		while (tokenizer.hasMoreElements()) {
+			File f = new File(tokenizer.nextToken());
+			if (f.isDirectory()) {
+				if (tasks.isEmpty()) {
+					leadingDirectories.add(f);
+				} else {
+					// Indexed up front so its classes are ordered correctly relative to those in earlier archives
+					tasks.add(new DirectoryIndexingTask(f));
+				}
+			} else if (f.exists()) {
+				tasks.add(new ArchiveIndexingTask(f));
+			} else {
+				logger.debug("path element does not exist {}",f);
+			}
+		}
+		IndexingTask classpathTask = new CompositeIndexingTask(tasks);
+		List<JavaFileObject> classes;
+		if (parallelism > 1 && tasks.size() > 0) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				classes = pool.invoke(classpathTask);
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			classes = classpathTask.compute();
+		}
+		for (JavaFileObject jfo: classes) {
+			String packageName = getPackageName(jfo.getName());
+			List<JavaFileObject> packageContents = packages.get(packageName);
+			if (packageContents == null) {
+				packageContents = new ArrayList<>();
+				packages.put(packageName, packageContents);
+			}
+			packageContents.add(jfo);
+		}
+		logger.debug("Indexed #{} classes in #{} packages in {}ms (parallelism={})", classes.size(), packages.size(),
+				(System.currentTimeMillis()-stime), parallelism);
+	}
+
+	/**
+	 * A unit of work when building the index, producing the classes found in some part of
+	 * the classpath. When building in parallel the subtasks of a task are forked, otherwise
+	 * they are run inline. Either way results are combined in classpath order so the first
+	 * definition of a class on the classpath is the first one listed.
+	 */
+	abstract class IndexingTask extends RecursiveTask<List<JavaFileObject>> {
+
+		private static final long serialVersionUID = 1L;
+
+		protected List<JavaFileObject> computeAll(List<? extends IndexingTask> subtasks) {
+			if (parallelism > 1) {
+				invokeAll(subtasks);
+			}
+			List<JavaFileObject> result = new ArrayList<>();
+			for (IndexingTask subtask: subtasks) {
+				result.addAll(parallelism > 1?subtask.join():subtask.compute());
+			}
+			return result;
+		}
+
+		@Override
+		protected abstract List<JavaFileObject> compute();
+	}
+
+	class CompositeIndexingTask extends IndexingTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private List<IndexingTask> subtasks;
+
+		CompositeIndexingTask(List<IndexingTask> subtasks) {
+			this.subtasks = subtasks;
+		}
+
+		@Override
+		protected List<JavaFileObject> compute() {
+			return computeAll(subtasks);
+		}
+	}
+
+	class DirectoryIndexingTask extends IndexingTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private File directory;
+
+		DirectoryIndexingTask(File directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected List<JavaFileObject> compute() {
+			List<JavaFileObject> result = new ArrayList<>();
+			IterableClasspath iterableClasspath = new IterableClasspath(directory.getPath(), null, true);
+			for (JavaFileObject jfo: iterableClasspath) {
+				result.add(jfo);
+			}
+			iterableClasspath.close();
+			return result;
+		}
+	}
+
+	class ArchiveIndexingTask extends IndexingTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private File file;
+
+		ArchiveIndexingTask(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected List<JavaFileObject> compute() {
+			List<JavaFileObject> result = new ArrayList<>();
+			List<NestedArchiveIndexingTask> nestedArchiveTasks = new ArrayList<>();
+			try {
+				ZipFile archive = new ZipFile(file);
+				openArchives.add(archive);
+				Enumeration<? extends ZipEntry> entries = MappedZipEntryEnumeration.entries(file, archive, ARCHIVE_ENTRY_FILTER);
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					String entryName = entry.getName();
+					if (entryName.endsWith(".class")) {
+						result.add(new ZipEntryJavaFileObject(file, archive, entry));
+					} else if (entryName.startsWith(BOOT_PACKAGING_PREFIX_FOR_LIBRARIES) && entryName.endsWith(".jar")) {
+						nestedArchiveTasks.add(new NestedArchiveIndexingTask(file, archive, entry));
+					}
+				}
+			} catch (IOException ioe) {
+				logger.debug("Unexpected error whilst indexing archive {}",file,ioe);
+			}
+			result.addAll(computeAll(nestedArchiveTasks));
+			return result;
+		}
+	}
+
+	class NestedArchiveIndexingTask extends IndexingTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private File outerFile;
+
+		private ZipFile outerArchive;
+
+		private ZipEntry nestedArchiveEntry;
+
+		NestedArchiveIndexingTask(File outerFile, ZipFile outerArchive, ZipEntry nestedArchiveEntry) {
+			this.outerFile = outerFile;
+			this.outerArchive = outerArchive;
+			this.nestedArchiveEntry = nestedArchiveEntry;
+		}
+
+		@Override
+		protected List<JavaFileObject> compute() {
+			List<JavaFileObject> result = new ArrayList<>();
+			try {
+				ZipFile nestedArchive = nestedArchiveStore.getArchive(outerFile, outerArchive, nestedArchiveEntry);
+				Enumeration<? extends ZipEntry> entries = MappedZipEntryEnumeration.entries(new File(nestedArchive.getName()), nestedArchive, CLASS_FILTER);
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.getName().endsWith(".class")) {
+						result.add(new NestedZipEntryJavaFileObject(outerFile, nestedArchiveEntry, nestedArchive, entry));
+					}
+				}
+			} catch (IOException ioe) {
+				logger.debug("Unexpected error whilst indexing nested archive {} in {}",nestedArchiveEntry.getName(),outerFile,ioe);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Determine the package for a classpath entry name, for example <tt>a/b/C.class</tt> and
+	 * <tt>BOOT-INF/classes/a/b/C.class</tt> are both in package <tt>a/b</tt>.
+	 *
+	 * @param entryName the name of an entry in a jar or directory
+	 * @return the package name in slashed form (empty string for the unnamed package)
+	 */
+	static String getPackageName(String entryName) {
+		int start = entryName.startsWith(BOOT_PACKAGING_PREFIX_FOR_CLASSES)?BOOT_PACKAGING_PREFIX_FOR_CLASSES.length():0;
+		int lastSlash = entryName.lastIndexOf('/');
+		return (lastSlash < start)?"":entryName.substring(start, lastSlash);
+	}
+
+	/**
+	 * Retrieve the classes in a package.
+	 *
+	 * @param packageName the package of interest (dotted form, e.g. java.util), if null all classes are returned
+	 * @param includeSubpackages if true, also include classes in subpackages of the specified package
+	 * @return the classes in the package
+	 */
+	public List<JavaFileObject> list(String packageName, boolean includeSubpackages) {
+		return list(packageName, includeSubpackages, null);
+	}
+
+	/**
+	 * Retrieve the classes in a package, recording the cost of doing so.
+	 *
+	 * @param packageName the package of interest (dotted form, e.g. java.util), if null all classes are returned
+	 * @param includeSubpackages if true, also include classes in subpackages of the specified package
+	 * @param statistics where to record the request, may be null
+	 * @return the classes in the package
+	 */
+	public List<JavaFileObject> list(String packageName, boolean includeSubpackages, CompilationStatistics statistics) {
+		long stime = System.nanoTime();
+		List<JavaFileObject> result;
+		// Everything in the matching packages of the index is returned, only directories are filtered
+		int scanned = 0;
+		if (leadingDirectories.isEmpty()) {
+			result = listIndexed(packageName, includeSubpackages);
+			scanned = result.size();
+		} else {
+			result = new ArrayList<>();
+			for (File directory: leadingDirectories) {
+				IterableClasspath directoryContents = new IterableClasspath(directory.getPath(), packageName, includeSubpackages);
+				for (JavaFileObject jfo: directoryContents) {
+					result.add(jfo);
+				}
+				directoryContents.close();
+				scanned += directoryContents.getScannedCount();
+			}
+			List<JavaFileObject> indexed = listIndexed(packageName, includeSubpackages);
+			result.addAll(indexed);
+			scanned += indexed.size();
+		}
+		if (statistics != null) {
+			statistics.recordList(scanned, result.size(), System.nanoTime() - stime);
+		}
+		return result;
+	}
+
+	private List<JavaFileObject> listIndexed(String packageName, boolean includeSubpackages) {
+		if (packageName == null) {
+			return collect(packages.values());
+		}
+		String key = packageName.replace('.', '/');
+		if (!includeSubpackages) {
+			List<JavaFileObject> packageContents = packages.get(key);
+			return packageContents==null?Collections.<JavaFileObject>emptyList():Collections.unmodifiableList(packageContents);
+		}
+		if (key.length() == 0) {
+			// Everything is a subpackage of the unnamed package
+			return collect(packages.values());
+		}
+		List<List<JavaFileObject>> matches = new ArrayList<>();
+		List<JavaFileObject> packageContents = packages.get(key);
+		if (packageContents != null) {
+			matches.add(packageContents);
+		}
+		String subpackagePrefix = key + "/";
+		for (Map.Entry<String, List<JavaFileObject>> entry: packages.tailMap(subpackagePrefix).entrySet()) {
+			if (!entry.getKey().startsWith(subpackagePrefix)) {
+				break;
+			}
+			matches.add(entry.getValue());
+		}
+		return collect(matches);
+	}
+
+	/**
+	 * Determine whether a package exists on the classpath, a package exists if it, or any
+	 * of its subpackages, contains classes.
+	 *
+	 * @param packageName the package of interest (dotted form, e.g. java.util)
+	 * @return true if the package exists
+	 */
+	public boolean containsPackage(String packageName) {
+		String key = packageName.replace('.', '/');
+		for (File directory: leadingDirectories) {
+			if (new File(directory, key).isDirectory() || new File(directory, BOOT_PACKAGING_PREFIX_FOR_CLASSES + key).isDirectory()) {
+				return true;
+			}
+		}
+		if (packages.containsKey(key)) {
+			return true;
+		}
+		String subpackage = packages.higherKey(key + "/");
+		return subpackage != null && subpackage.startsWith(key + "/");
+	}
+
+	private static List<JavaFileObject> collect(Iterable<List<JavaFileObject>> lists) {
+		List<JavaFileObject> result = new ArrayList<>();
+		for (List<JavaFileObject> list: lists) {
+			result.addAll(list);
+		}
+		return result;
+	}
+
+	/**
+	 * Produce a string that will change if the contents of the classpath change. It
+	 * is based on the path, size and modification time of each entry rather than the content,
+	 * computing that would cost more than rebuilding the index.
+	 *
+	 * @param classpath a classpath of jars/directories (may be null)
+	 * @return a string capturing the state of each of the classpath entries
+	 */
+	static String fingerprint(String classpath) {
+		StringBuilder s = new StringBuilder();
+		if (classpath != null) {
+			StringTokenizer tokenizer = new StringTokenizer(classpath, File.pathSeparator);
+			while (tokenizer.hasMoreElements()) {
+				File f = new File(tokenizer.nextToken());
+				s.append(f.getAbsolutePath()).append(':');
+				s.append(f.length()).append(':').append(f.lastModified()).append(';');
+			}
+		}
+		return s.toString();
+	}
+
+	/**
+	 * @return the fingerprint of the classpath at the time the index was built
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public String getClasspath() {
+		return classpath;
+	}
+
+	/**
+	 * @return the number of packages in the index, excluding those only found in unindexed leading directories
+	 */
+	public int getPackageCount() {
+		return packages.size();
+	}
+
+	public void close() {
+		synchronized (openArchives) {
+			for (ZipFile openArchive: openArchives) {
+				try {
+					openArchive.close();
+				} catch (IOException ioe) {
+					logger.debug("Unexpected error closing archive {}",openArchive,ioe);
+				}
+			}
+			openArchives.clear();
+		}
+		nestedArchiveStore.close();
+	}
+
+}
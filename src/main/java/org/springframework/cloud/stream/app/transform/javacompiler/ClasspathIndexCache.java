@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps classpath indexes (and the archives they hold open) alive across compilations so
+ * that only the first compilation pays the cost of walking the classpath. Each time an index
+ * is acquired the classpath is checked for changes, if it has changed a new index is built.
+ * An index that has been replaced is closed once the last file manager using it releases it.
+ *
+ * @author Andy Clement
+ */
+public class ClasspathIndexCache {
+
+	private static Logger logger = LoggerFactory.getLogger(ClasspathIndexCache.class);
+
+	private static final String NO_CLASSPATH = "";
+
+	// Classpath to the most recent index built for it
+	private Map<String, ClasspathIndex> indexes = new HashMap<>();
+
+	// Number of threads used to build an index, unless set the index is built on the calling thread
+	private int indexingParallelism = 1;
+
+	/**
+	 * Set the number of threads used to build an index. When building on a machine with several
+	 * cores indexing the classpath entries in parallel reduces the time taken. Unless this is
+	 * called the index is built on the calling thread, as it is when set to 1, which suits small
+	 * containers. Values less than 1 use one thread per available processor.
+	 *
+	 * @param indexingParallelism the number of threads, values less than 1 mean use the number of available processors
+	 */
+	public void setIndexingParallelism(int indexingParallelism) {
+		this.indexingParallelism = indexingParallelism<1?Runtime.getRuntime().availableProcessors():indexingParallelism;
+	}
+
+	public int getIndexingParallelism() {
+		return this.indexingParallelism;
+	}
+
+	/**
+	 * Retrieve an index for the specified classpath, building it if necessary. The
+	 * caller must {@link #release(ClasspathIndex)} it when finished.
+	 *
+	 * @param classpath a classpath of jars/directories (may be null)
+	 * @return an index for the classpath
+	 */
+	public synchronized ClasspathIndex acquire(String classpath) {
+		String key = classpath==null?NO_CLASSPATH:classpath;
+		ClasspathIndex index = indexes.get(key);
+		if (index != null && !index.getFingerprint().equals(ClasspathIndex.fingerprint(classpath))) {
+			logger.info("Classpath has changed since it was indexed, rebuilding the index");
+			retire(index);
+			index = null;
+		}
+		if (index == null) {
+			index = new ClasspathIndex(classpath, indexingParallelism);
+			indexes.put(key, index);
+		}
+		index.users++;
+		return index;
+	}
+
+	/**
+	 * Indicate an index obtained from {@link #acquire(String)} is no longer in use.
+	 *
+	 * @param index the index to release
+	 */
+	public synchronized void release(ClasspathIndex index) {
+		index.users--;
+		if (index.retired && index.users == 0) {
+			index.close();
+		}
+	}
+
+	/**
+	 * Discard all the indexes, forcing them to be rebuilt on next use. Indexes that are
+	 * currently in use are closed when they are released.
+	 */
+	public synchronized void invalidate() {
+		for (ClasspathIndex index: indexes.values()) {
+			retire(index);
+		}
+		indexes.clear();
+	}
+
+	public void close() {
+		invalidate();
+	}
+
+	private void retire(ClasspathIndex index) {
+		index.retired = true;
+		if (index.users == 0) {
+			index.close();
+		}
+	}
+
+}
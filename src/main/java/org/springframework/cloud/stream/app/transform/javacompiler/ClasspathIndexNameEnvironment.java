@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers the type and package lookups made by the eclipse compiler using classpath
+ * indexes, so that it sees the same classes (including those nested in a spring boot
+ * uberjar) as javac does through the {@link MemoryBasedJavaFileManager}.
+ * 
+ * @author Andy Clement
+ */
+public class ClasspathIndexNameEnvironment implements INameEnvironment {
+
+	private static Logger logger = LoggerFactory.getLogger(ClasspathIndexNameEnvironment.class);
+
+	// Searched in order, the first index containing a type wins
+	private List<ClasspathIndex> indexes;
+
+	// Where the classpath listings are recorded, may be null
+	private CompilationStatistics statistics;
+
+	public ClasspathIndexNameEnvironment(List<ClasspathIndex> indexes) {
+		this(indexes, null);
+	}
+
+	/**
+	 * @param indexes the indexes to search, in order
+	 * @param statistics where to record the classpath listings, may be null
+	 */
+	public ClasspathIndexNameEnvironment(List<ClasspathIndex> indexes, CompilationStatistics statistics) {
+		this.indexes = indexes;
+		this.statistics = statistics;
+	}
+
+	@Override
+	public NameEnvironmentAnswer findType(char[][] compoundTypeName) {
+		if (compoundTypeName == null || compoundTypeName.length == 0) {
+			return null;
+		}
+		int last = compoundTypeName.length - 1;
+		return findType(compoundTypeName[last], CharOperation.subarray(compoundTypeName, 0, last));
+	}
+
+	@Override
+	public NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
+		String packageNameString = CharOperation.toString(packageName);
+		String simpleName = new String(typeName);
+		for (ClasspathIndex index: indexes) {
+			for (JavaFileObject jfo: index.list(packageNameString, false, statistics)) {
+				if (jfo.isNameCompatible(simpleName, Kind.CLASS)) {
+					try (InputStream is = jfo.openInputStream()) {
+						return new NameEnvironmentAnswer(ClassFileReader.read(is, jfo.getName()), null);
+					} catch (IOException | ClassFormatException e) {
+						logger.debug("Unable to read class {}",jfo.getName(),e);
+						return null;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isPackage(char[][] parentPackageName, char[] packageName) {
+		String name = new String(packageName);
+		if (parentPackageName != null && parentPackageName.length != 0) {
+			name = CharOperation.toString(parentPackageName) + "." + name;
+		}
+		for (ClasspathIndex index: indexes) {
+			if (index.containsPackage(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void cleanup() {
+	}
+
+}
@@ -16,6 +16,8 @@
 package org.springframework.cloud.stream.app.transform.javacompiler;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import javax.tools.JavaFileObject;
 
@@ -33,6 +35,9 @@ public abstract class CloseableFilterableJavaFileObjectIterable implements Itera
 	private final static boolean BOOT_PACKAGING_AWARE = true;
 	private final static String BOOT_PACKAGING_PREFIX_FOR_CLASSES = "BOOT-INF/classes/";
 
+	private final static byte[] BOOT_PACKAGING_PREFIX_FOR_CLASSES_BYTES = BOOT_PACKAGING_PREFIX_FOR_CLASSES.getBytes(StandardCharsets.UTF_8);
+	private final static byte[] CLASS_SUFFIX_BYTES = ".class".getBytes(StandardCharsets.UTF_8);
+
 	// If set specifies the package the iterator consumer is interested in. Only
 	// return results in this package.
 	private String packageNameFilter;
@@ -41,12 +46,23 @@ public abstract class CloseableFilterableJavaFileObjectIterable implements Itera
 	// that are in subpackages of those matching the filter.
 	private boolean includeSubpackages;
 
+	// The packageNameFilter encoded as it would be in a zip entry name
+	private byte[] packageNameFilterBytes;
+
 	public CloseableFilterableJavaFileObjectIterable(String packageNameFilter, boolean includeSubpackages) {
 		if (packageNameFilter!=null && packageNameFilter.contains(File.separator)) {
 			throw new IllegalArgumentException("Package name filters should use dots to separate components: "+packageNameFilter);
 		}
-		this.packageNameFilter = packageNameFilter==null?null:packageNameFilter.replace('.', File.separatorChar) + "/";
+		if (packageNameFilter == null) {
+			this.packageNameFilter = null;
+		} else if (packageNameFilter.length() == 0) {
+			// The unnamed package
+			this.packageNameFilter = "";
+		} else {
+			this.packageNameFilter = packageNameFilter.replace('.', File.separatorChar) + "/";
+		}
 		this.includeSubpackages = includeSubpackages;
+		this.packageNameFilterBytes = this.packageNameFilter==null?null:this.packageNameFilter.getBytes(StandardCharsets.UTF_8);
 	}
 	
 	/**
@@ -68,18 +84,72 @@ public abstract class CloseableFilterableJavaFileObjectIterable implements Itera
 			accept = name.startsWith(packageNameFilter);
 			if (!accept && BOOT_PACKAGING_AWARE) {
 				accept = name.startsWith(BOOT_PACKAGING_PREFIX_FOR_CLASSES) &&
-						name.indexOf(packageNameFilter)==BOOT_PACKAGING_PREFIX_FOR_CLASSES.length();
+						name.startsWith(packageNameFilter,BOOT_PACKAGING_PREFIX_FOR_CLASSES.length());
 			}
 		} else {
 			accept = name.startsWith(packageNameFilter) && name.indexOf("/",packageNameFilter.length())==-1;
 			if (!accept && BOOT_PACKAGING_AWARE) {
 				accept = name.startsWith(BOOT_PACKAGING_PREFIX_FOR_CLASSES) &&
-						name.indexOf(packageNameFilter)==BOOT_PACKAGING_PREFIX_FOR_CLASSES.length() &&
+						name.startsWith(packageNameFilter,BOOT_PACKAGING_PREFIX_FOR_CLASSES.length()) &&
 						name.indexOf("/",BOOT_PACKAGING_PREFIX_FOR_CLASSES.length()+packageNameFilter.length())==-1;
 			}
 		}
 		return accept;
 	}
 
+	/**
+	 * Equivalent of {@link #accept(String)} for a name that is still encoded in a buffer,
+	 * as it is in the central directory of an archive. This avoids creating strings for the
+	 * many names that will be rejected.
+	 * 
+	 * @param buffer the buffer containing the name
+	 * @param offset the position of the first byte of the name in the buffer
+	 * @param length the length of the name in bytes
+	 * @return true if the name is a valid iterator result based on the specified criteria
+	 */
+	protected boolean accept(ByteBuffer buffer, int offset, int length) {
+		if (!MappedZipEntryEnumeration.endsWith(buffer, offset, length, CLASS_SUFFIX_BYTES)) {
+			return false;
+		}
+		if (packageNameFilterBytes == null) {
+			return true;
+		}
+		int packageStart = -1;
+		if (MappedZipEntryEnumeration.startsWith(buffer, offset, length, packageNameFilterBytes, 0)) {
+			packageStart = 0;
+		} else if (BOOT_PACKAGING_AWARE &&
+				MappedZipEntryEnumeration.startsWith(buffer, offset, length, BOOT_PACKAGING_PREFIX_FOR_CLASSES_BYTES, 0) &&
+				MappedZipEntryEnumeration.startsWith(buffer, offset, length, packageNameFilterBytes, BOOT_PACKAGING_PREFIX_FOR_CLASSES_BYTES.length)) {
+			packageStart = BOOT_PACKAGING_PREFIX_FOR_CLASSES_BYTES.length;
+		}
+		if (packageStart == -1) {
+			return false;
+		}
+		return includeSubpackages ||
+				MappedZipEntryEnumeration.indexOf(buffer, offset, length, (byte)'/', packageStart+packageNameFilterBytes.length)==-1;
+	}
+
+	/**
+	 * Determine where, relative to the root of a directory on the classpath, classes matching
+	 * the package filter can be found. This allows a directory to be searched by looking only
+	 * at the package directory rather than walking everything beneath the root.
+	 * 
+	 * @return the relative paths of the directories that may contain matching classes, or null if there is no package filter
+	 */
+	protected String[] getPackageDirectories() {
+		if (packageNameFilter == null) {
+			return null;
+		}
+		// A recursive search of the unnamed package already covers the boot classes directory
+		if (BOOT_PACKAGING_AWARE && !(includeSubpackages && packageNameFilter.length() == 0)) {
+			return new String[] { packageNameFilter, BOOT_PACKAGING_PREFIX_FOR_CLASSES + packageNameFilter };
+		}
+		return new String[] { packageNameFilter };
+	}
+
+	protected boolean isIncludeSubpackages() {
+		return includeSubpackages;
+	}
+
 	abstract void close();
 }
\ No newline at end of file
@@ -15,6 +15,10 @@
  */
 package org.springframework.cloud.stream.app.transform.javacompiler;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Encapsulate information produced during compilation. A message may be an error
  * or something less serious (warning/informational). The <tt>toString()</tt> method
@@ -78,6 +82,25 @@ public class CompilationMessage {
 		return this.endPosition;
 	}
 
+	/**
+	 * Write this message to a stream, for it to be read by {@link #readFrom(DataInputStream)}
+	 * in another process. The source code is not included, the reader supplies it.
+	 */
+	void writeTo(DataOutputStream dos) throws IOException {
+		dos.writeUTF(kind.name());
+		dos.writeUTF(message==null?"":message);
+		dos.writeBoolean(sourceCode != null);
+		dos.writeInt(startPosition);
+		dos.writeInt(endPosition);
+	}
+
+	static CompilationMessage readFrom(DataInputStream dis, String sourceCode) throws IOException {
+		Kind kind = Kind.valueOf(dis.readUTF());
+		String message = dis.readUTF();
+		boolean hasSourceCode = dis.readBoolean();
+		return new CompilationMessage(kind, message, hasSourceCode?sourceCode:null, dis.readInt(), dis.readInt());
+	}
+
 	public String toString() {
 		StringBuilder s = new StringBuilder();
 		s.append("==========\n");
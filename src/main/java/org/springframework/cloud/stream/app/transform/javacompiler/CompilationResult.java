@@ -36,6 +36,10 @@ public class CompilationResult {
 
 	List<Class<?>> compiledClasses = new ArrayList<>();
 
+	List<CompiledClassDefinition> compiledClassDefinitions = new ArrayList<>();
+
+	CompilationStatistics statistics = new CompilationStatistics();
+
 	public CompilationResult(boolean successfulCompilation) {
 		this.successfulCompilation = successfulCompilation;
 	}
@@ -60,11 +64,34 @@ public class CompilationResult {
 		this.compiledClasses = compiledClasses;
 	}
 	
+	/**
+	 * @return the bytes of the classes produced by compilation, before they were loaded
+	 */
+	public List<CompiledClassDefinition> getCompiledClassDefinitions() {
+		return compiledClassDefinitions;
+	}
+
+	public void setCompiledClassDefinitions(List<CompiledClassDefinition> compiledClassDefinitions) {
+		this.compiledClassDefinitions = compiledClassDefinitions;
+	}
+
+	/**
+	 * @return the timings and counts collected whilst producing this result
+	 */
+	public CompilationStatistics getStatistics() {
+		return statistics;
+	}
+
+	public void setStatistics(CompilationStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	public String toString() {
 		StringBuilder s = new StringBuilder();
 		s.append("Compilation result: #classes="+compiledClasses.size()+"  #messages="+compilationMessages.size()+"\n");
 		s.append("Compiled classes:\n").append(compiledClasses).append("\n");
 		s.append("Compilation messages:\n").append(compilationMessages).append("\n");
+		s.append("Compilation statistics:\n").append(statistics).append("\n");
 		return s.toString();
 	}
 
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and counts collected whilst compiling and loading some source, used to determine where
+ * the time goes when compilation is slow. The phases are not exclusive, the time spent listing
+ * the classpath is also included in the compiler phase that needed the listing (usually
+ * {@link Phase#ANALYZE}). All times are in nanoseconds.
+ *
+ * @author Andy Clement
+ */
+public class CompilationStatistics {
+
+	public enum Phase {
+		/** Listing the classes in packages on the classpath */
+		LISTING,
+		/** Parsing the source */
+		PARSE,
+		/** Resolving and attributing types, flow analysis */
+		ANALYZE,
+		/** Generating the bytecode */
+		GENERATE,
+		/** Defining the compiled classes in a class loader */
+		DEFINE,
+		/** Creating the processor from the loaded classes */
+		INSTANTIATE
+	}
+
+	private long[] phaseTimes = new long[Phase.values().length];
+
+	private long elapsedTime;
+
+	private boolean fromCache;
+
+	private long listCalls;
+
+	private long entriesScanned;
+
+	private long entriesAccepted;
+
+	private long bytesRead;
+
+	private long classesProduced;
+
+	public void addPhaseTime(Phase phase, long nanos) {
+		phaseTimes[phase.ordinal()] += nanos;
+	}
+
+	public long getPhaseTime(Phase phase) {
+		return phaseTimes[phase.ordinal()];
+	}
+
+	/**
+	 * Record a request to list the classes in a package.
+	 *
+	 * @param scanned the number of classpath entries examined to answer the request
+	 * @param accepted the number of classes returned
+	 * @param nanos the time taken
+	 */
+	public void recordList(int scanned, int accepted, long nanos) {
+		listCalls++;
+		entriesScanned += scanned;
+		entriesAccepted += accepted;
+		addPhaseTime(Phase.LISTING, nanos);
+	}
+
+	public void addBytesRead(long bytes) {
+		bytesRead += bytes;
+	}
+
+	/**
+	 * @return the time from starting the compilation to the compiled classes being loaded (or
+	 * the compilation failing), excluding {@link Phase#INSTANTIATE}
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	public void setElapsedTime(long elapsedTime) {
+		this.elapsedTime = elapsedTime;
+	}
+
+	/**
+	 * @return true if the classes were loaded from a cache, or were precompiled, rather than compiled
+	 */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+
+	public void setFromCache(boolean fromCache) {
+		this.fromCache = fromCache;
+	}
+
+	public long getListCalls() {
+		return listCalls;
+	}
+
+	public long getEntriesScanned() {
+		return entriesScanned;
+	}
+
+	public long getEntriesAccepted() {
+		return entriesAccepted;
+	}
+
+	/**
+	 * @return the number of bytes of class files read from the classpath
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getClassesProduced() {
+		return classesProduced;
+	}
+
+	public void setClassesProduced(long classesProduced) {
+		this.classesProduced = classesProduced;
+	}
+
+	/**
+	 * Accumulate the statistics from another compilation into these.
+	 *
+	 * @param other the statistics to add
+	 */
+	public void add(CompilationStatistics other) {
+		for (int i = 0; i < phaseTimes.length; i++) {
+			phaseTimes[i] += other.phaseTimes[i];
+		}
+		elapsedTime += other.elapsedTime;
+		listCalls += other.listCalls;
+		entriesScanned += other.entriesScanned;
+		entriesAccepted += other.entriesAccepted;
+		bytesRead += other.bytesRead;
+		classesProduced += other.classesProduced;
+	}
+
+	/**
+	 * Write these statistics to a stream, for them to be read by {@link #readFrom(DataInputStream)}
+	 * in another process.
+	 */
+	void writeTo(DataOutputStream dos) throws IOException {
+		dos.writeInt(phaseTimes.length);
+		for (long phaseTime: phaseTimes) {
+			dos.writeLong(phaseTime);
+		}
+		dos.writeLong(elapsedTime);
+		dos.writeLong(listCalls);
+		dos.writeLong(entriesScanned);
+		dos.writeLong(entriesAccepted);
+		dos.writeLong(bytesRead);
+		dos.writeLong(classesProduced);
+	}
+
+	static CompilationStatistics readFrom(DataInputStream dis) throws IOException {
+		CompilationStatistics statistics = new CompilationStatistics();
+		int phases = dis.readInt();
+		for (int i = 0; i < phases; i++) {
+			statistics.phaseTimes[i] = dis.readLong();
+		}
+		statistics.elapsedTime = dis.readLong();
+		statistics.listCalls = dis.readLong();
+		statistics.entriesScanned = dis.readLong();
+		statistics.entriesAccepted = dis.readLong();
+		statistics.bytesRead = dis.readLong();
+		statistics.classesProduced = dis.readLong();
+		return statistics;
+	}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append("elapsed=").append(millis(elapsedTime)).append("ms");
+		if (fromCache) {
+			s.append(" (from cache)");
+		}
+		for (Phase phase: Phase.values()) {
+			s.append(" ").append(phase.name().toLowerCase()).append("=").append(millis(phaseTimes[phase.ordinal()])).append("ms");
+		}
+		s.append(" #listCalls=").append(listCalls);
+		s.append(" #entriesScanned=").append(entriesScanned);
+		s.append(" #entriesAccepted=").append(entriesAccepted);
+		s.append(" #bytesRead=").append(bytesRead);
+		s.append(" #classesProduced=").append(classesProduced);
+		return s.toString();
+	}
+
+	/**
+	 * @param nanos a time in nanoseconds
+	 * @return the time in milliseconds, to a precision of microseconds
+	 */
+	public static double millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000d;
+	}
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long running process that compiles on behalf of the processors on the same host, so that
+ * the compiler is loaded and the classpath indexed once rather than by every processor. The
+ * server listens on a loopback port, clients ({@link CompileServerBackend}) send a request in
+ * the format used by {@link CompilerWorker} preceded by the fingerprint of their classpath. A
+ * request is only served if the classpath matches that of the server, otherwise the client
+ * compiles for itself.
+ * <p>
+ * Other users on the host can connect to a loopback port, or listen on it before the server
+ * does, so the server and its clients authenticate each other before a request is sent. They
+ * share a secret token, held in a file only readable by its owner (created by the server if it
+ * does not exist, by default <tt>~/.compile-server/token</tt>), so the server and the processors
+ * must run as the same user. Each side proves it has the token by returning an HMAC of a random
+ * challenge from the other, the token itself is never sent. A client that cannot authenticate
+ * the server compiles for itself. Compilations run one at a time, and a request for the same class and
+ * source as one in progress waits for and shares its result rather than compiling again.
+ * <p>
+ * Run with the same classpath as the processors, e.g.
+ * <tt>java -cp app.jar -Dloader.main=org.springframework.cloud.stream.app.transform.javacompiler.CompileServer
+ * org.springframework.boot.loader.PropertiesLauncher [port] [backend] [token file]</tt>
+ *
+ * @author Andy Clement
+ */
+public class CompileServer implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(CompileServer.class);
+
+	public static final int DEFAULT_PORT = 7775;
+
+	public static final Path DEFAULT_TOKEN_FILE = Paths.get(System.getProperty("user.home"), ".compile-server", "token");
+
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	private static final int TOKEN_LENGTH = 32;
+
+	private static final int CHALLENGE_LENGTH = 16;
+
+	// Longest challenge or proof accepted, before the other side is authenticated
+	static final int MAX_HANDSHAKE_LENGTH = 64;
+
+	// Time in milliseconds to wait for a client to send each part of its request
+	private static final int CLIENT_READ_TIMEOUT = 10000;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private final ServerSocket serverSocket;
+
+	private final CompilerBackend compilerBackend;
+
+	private final ClasspathIndexCache classpathIndexCache;
+
+	private final byte[] token;
+
+	private final String fingerprint = ClasspathIndex.fingerprint(System.getProperty("java.class.path"));
+
+	// Compilations in progress, keyed by class name and source
+	private final ConcurrentMap<String, CompletableFuture<CompilationResult>> inProgress = new ConcurrentHashMap<>();
+
+	private final ExecutorService compileExecutor = Executors.newSingleThreadExecutor(daemonThreads("compile-server"));
+
+	private final ExecutorService connectionExecutor = Executors.newCachedThreadPool(daemonThreads("compile-server-connection"));
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong compilations = new AtomicLong();
+
+	private final AtomicLong deduplicated = new AtomicLong();
+
+	/**
+	 * @param port the loopback port to listen on, 0 for any free port
+	 * @param compilerBackend the backend to compile with
+	 * @param classpathIndexCache the classpath indexes kept for all the compilations
+	 * @throws IOException if the port cannot be listened on, or the token file is not usable
+	 */
+	public CompileServer(int port, CompilerBackend compilerBackend, ClasspathIndexCache classpathIndexCache) throws IOException {
+		this(port, compilerBackend, classpathIndexCache, DEFAULT_TOKEN_FILE);
+	}
+
+	/**
+	 * @param port the loopback port to listen on, 0 for any free port
+	 * @param compilerBackend the backend to compile with
+	 * @param classpathIndexCache the classpath indexes kept for all the compilations
+	 * @param tokenFile the file holding the token shared with the clients, created if it does not exist
+	 * @throws IOException if the port cannot be listened on, or the token file is not usable
+	 */
+	public CompileServer(int port, CompilerBackend compilerBackend, ClasspathIndexCache classpathIndexCache,
+			Path tokenFile) throws IOException {
+		this.token = createToken(tokenFile);
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.compilerBackend = compilerBackend;
+		this.classpathIndexCache = classpathIndexCache;
+	}
+
+	/**
+	 * @param args optionally the port to listen on, the name of the backend to compile with and the token file
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		RuntimeJavaCompiler compiler = new RuntimeJavaCompiler();
+		if (args.length > 1 && !args[1].isEmpty()) {
+			compiler.setCompilerBackend(RuntimeJavaCompiler.createCompilerBackend(args[1]));
+		}
+		Path tokenFile = args.length > 2 ? Paths.get(args[2]) : DEFAULT_TOKEN_FILE;
+		ClasspathIndexCache classpathIndexCache = new ClasspathIndexCache();
+		classpathIndexCache.setIndexingParallelism(0);
+		CompileServer compileServer = new CompileServer(port, compiler.getCompilerBackend(), classpathIndexCache, tokenFile);
+		compileServer.warmUp();
+		compileServer.run();
+	}
+
+	/**
+	 * Compile a trivial class, so that the compiler classes are loaded and the classpath indexed
+	 * before the first request arrives.
+	 */
+	public void warmUp() {
+		CompilationResult compilationResult = compilerBackend.compile("WarmUp", "public class WarmUp { java.util.List<String> l; }",
+				classpathIndexCache);
+		logger.info("Compile server warmed up: {}",compilationResult.getStatistics());
+	}
+
+	/**
+	 * Accept connections on a new thread, until closed.
+	 */
+	public void start() {
+		Thread acceptor = new Thread(this::run, "compile-server-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Accept connections on the calling thread, until closed.
+	 */
+	public void run() {
+		logger.info("Compile server listening on port {} using compiler {}",getPort(),compilerBackend.getName());
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				connectionExecutor.execute(() -> serve(socket));
+			} catch (IOException ioe) {
+				if (!serverSocket.isClosed()) {
+					logger.error("Failed to accept a connection",ioe);
+				}
+			}
+		}
+	}
+
+	private void serve(Socket connection) {
+		try (Socket socket = connection;
+				DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			socket.setSoTimeout(CLIENT_READ_TIMEOUT);
+			// Prove to the client this server has the token, then check the client has it
+			byte[] clientChallenge = CompilerWorker.readBytes(dis, MAX_HANDSHAKE_LENGTH);
+			CompilerWorker.writeBytes(dos, proof(token, "server", clientChallenge));
+			byte[] challenge = challenge();
+			CompilerWorker.writeBytes(dos, challenge);
+			dos.flush();
+			byte[] clientProof = CompilerWorker.readBytes(dis, MAX_HANDSHAKE_LENGTH);
+			if (!MessageDigest.isEqual(proof(token, "client", challenge), clientProof)) {
+				logger.warn("Rejected a connection from a client that does not have the token");
+				return;
+			}
+			String clientFingerprint = new String(CompilerWorker.readBytes(dis), StandardCharsets.UTF_8);
+			String[] request = CompilerWorker.readRequest(dis);
+			requests.incrementAndGet();
+			if (!fingerprint.equals(clientFingerprint)) {
+				dos.writeBoolean(false);
+				dos.writeUTF("the classpath of the compile server differs from that of the client");
+			} else {
+				CompilationResult compilationResult = compile(request[0], request[1]);
+				dos.writeBoolean(true);
+				CompilerWorker.writeResult(dos, compilationResult);
+			}
+			dos.flush();
+		} catch (Exception e) {
+			logger.error("Failed to serve a compile request",e);
+		}
+	}
+
+	CompilationResult compile(String className, String classSourceCode) throws InterruptedException, ExecutionException {
+		String key = className + '\0' + classSourceCode;
+		CompletableFuture<CompilationResult> result = new CompletableFuture<>();
+		CompletableFuture<CompilationResult> existing = inProgress.putIfAbsent(key, result);
+		if (existing != null) {
+			deduplicated.incrementAndGet();
+			return existing.get();
+		}
+		compileExecutor.execute(() -> {
+			try {
+				compilations.incrementAndGet();
+				result.complete(compilerBackend.compile(className, classSourceCode, classpathIndexCache));
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			} finally {
+				inProgress.remove(key, result);
+			}
+		});
+		return result.get();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the number of requests received
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of compilations run
+	 */
+	public long getCompilations() {
+		return compilations.get();
+	}
+
+	/**
+	 * @return the number of requests that shared the result of an identical request in progress
+	 */
+	public long getDeduplicated() {
+		return deduplicated.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		connectionExecutor.shutdownNow();
+		compileExecutor.shutdownNow();
+		classpathIndexCache.close();
+	}
+
+	/**
+	 * Read the token from a file, creating the file with a new random token, only readable by its owner, if it
+	 * does not exist.
+	 */
+	static byte[] createToken(Path tokenFile) throws IOException {
+		if (!Files.exists(tokenFile)) {
+			byte[] token = new byte[TOKEN_LENGTH];
+			random.nextBytes(token);
+			Path directory = tokenFile.toAbsolutePath().getParent();
+			boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+			if (!Files.isDirectory(directory)) {
+				if (posix) {
+					Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+				} else {
+					Files.createDirectories(directory);
+				}
+			}
+			try {
+				if (posix) {
+					Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+				} else {
+					Files.createFile(tokenFile);
+				}
+				Files.write(tokenFile, token);
+				logger.info("Created compile server token file {}",tokenFile);
+			} catch (FileAlreadyExistsException faee) {
+				// Created concurrently, use that one
+			}
+		}
+		return readToken(tokenFile);
+	}
+
+	/**
+	 * Read the token from a file, which must belong to the current user and not be accessible to others.
+	 * 
+	 * @throws IOException if the file cannot be read or is not private to the current user
+	 */
+	static byte[] readToken(Path tokenFile) throws IOException {
+		if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(tokenFile);
+			for (PosixFilePermission permission: permissions) {
+				if (permission.name().startsWith("GROUP_") || permission.name().startsWith("OTHERS_")) {
+					throw new IOException("Token file "+tokenFile+" is accessible to other users, its permissions are "+
+							PosixFilePermissions.toString(permissions));
+				}
+			}
+			String owner = Files.getOwner(tokenFile).getName();
+			if (!owner.equals(System.getProperty("user.name"))) {
+				throw new IOException("Token file "+tokenFile+" belongs to "+owner);
+			}
+		}
+		byte[] token = Files.readAllBytes(tokenFile);
+		if (token.length < TOKEN_LENGTH) {
+			throw new IOException("Token file "+tokenFile+" does not hold a token");
+		}
+		return token;
+	}
+
+	/**
+	 * @return a new random challenge
+	 */
+	static byte[] challenge() {
+		byte[] challenge = new byte[CHALLENGE_LENGTH];
+		random.nextBytes(challenge);
+		return challenge;
+	}
+
+	/**
+	 * @param token the shared token
+	 * @param role the role of the side giving the proof, so a proof cannot be reflected back to the side that asked for it
+	 * @param challenge the challenge from the other side
+	 * @return proof of having the token
+	 */
+	static byte[] proof(byte[] token, String role, byte[] challenge) {
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(new SecretKeySpec(token, HMAC_ALGORITHM));
+			mac.update(role.getBytes(StandardCharsets.UTF_8));
+			return mac.doFinal(challenge);
+		} catch (GeneralSecurityException gse) {
+			throw new IllegalStateException(HMAC_ALGORITHM+" is not available", gse);
+		}
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles by sending the source to a {@link CompileServer} on the same host. If there is no
+ * server listening, it does not prove it has the token in the token file, it does not answer
+ * in time or it cannot compile for this classpath, the source is compiled in this JVM by the
+ * fallback backend (by default javac when running on a JDK, otherwise ecj).
+ * 
+ * @author Andy Clement
+ */
+public class CompileServerBackend implements CompilerBackend {
+
+	public static final String NAME = "server";
+
+	private static Logger logger = LoggerFactory.getLogger(CompileServerBackend.class);
+
+	private int port = CompileServer.DEFAULT_PORT;
+
+	private int connectTimeout = 1000;
+
+	private int readTimeout = 60000;
+
+	private Path tokenFile = CompileServer.DEFAULT_TOKEN_FILE;
+
+	private CompilerBackend fallbackBackend;
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * @param port the loopback port the server listens on
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * @param connectTimeout the time in milliseconds to wait to connect to the server
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @param readTimeout the time in milliseconds to wait for each response from the server, including the compilation
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @param tokenFile the file holding the token shared with the server
+	 */
+	public void setTokenFile(Path tokenFile) {
+		this.tokenFile = tokenFile;
+	}
+
+	/**
+	 * @param fallbackBackend the backend to use when the server is not available
+	 */
+	public void setFallbackBackend(CompilerBackend fallbackBackend) {
+		this.fallbackBackend = fallbackBackend;
+	}
+
+	@Override
+	public CompilationResult compile(String className, String classSourceCode, ClasspathIndexCache classpathIndexCache) {
+		try (Socket socket = new Socket()) {
+			byte[] token = CompileServer.readToken(tokenFile);
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), connectTimeout);
+			socket.setSoTimeout(readTimeout);
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			// Check the server has the token before trusting it with the source or the classes it returns
+			byte[] challenge = CompileServer.challenge();
+			CompilerWorker.writeBytes(dos, challenge);
+			dos.flush();
+			byte[] serverProof = CompilerWorker.readBytes(dis, CompileServer.MAX_HANDSHAKE_LENGTH);
+			if (!MessageDigest.isEqual(CompileServer.proof(token, "server", challenge), serverProof)) {
+				logger.warn("The process listening on port {} is not a compile server sharing the token in {}, compiling in process",
+						port,tokenFile);
+				return getFallbackBackend().compile(className, classSourceCode, classpathIndexCache);
+			}
+			byte[] serverChallenge = CompilerWorker.readBytes(dis, CompileServer.MAX_HANDSHAKE_LENGTH);
+			CompilerWorker.writeBytes(dos, CompileServer.proof(token, "client", serverChallenge));
+			String fingerprint = ClasspathIndex.fingerprint(System.getProperty("java.class.path"));
+			CompilerWorker.writeBytes(dos, fingerprint.getBytes(StandardCharsets.UTF_8));
+			CompilerWorker.writeRequest(dos, className, classSourceCode);
+			dos.flush();
+			if (dis.readBoolean()) {
+				return CompilerWorker.readResult(dis, classSourceCode);
+			}
+			logger.info("Compile server on port {} cannot compile for this application, {}",port,dis.readUTF());
+		} catch (IOException ioe) {
+			logger.info("Compile server on port {} is not available ({}), compiling in process",port,ioe.toString());
+		}
+		return getFallbackBackend().compile(className, classSourceCode, classpathIndexCache);
+	}
+
+	private synchronized CompilerBackend getFallbackBackend() {
+		if (fallbackBackend == null) {
+			fallbackBackend = JavacCompilerBackend.isAvailable()?new JavacCompilerBackend():new EcjCompilerBackend();
+		}
+		return fallbackBackend;
+	}
+
+}
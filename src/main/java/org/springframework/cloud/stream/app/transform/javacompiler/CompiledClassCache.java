@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent store of compiled class definitions, held in a directory on disk. Entries
+ * are content addressed: the key is a hash of the class name and source code together with
+ * the JDK version and a fingerprint of the classpath the code is compiled against. If any
+ * of those change the key changes and the cache will miss, there is no need to explicitly
+ * invalidate entries.
+ *
+ * @author Andy Clement
+ */
+public class CompiledClassCache {
+
+	private static Logger logger = LoggerFactory.getLogger(CompiledClassCache.class);
+
+	private static final String CACHE_FILE_SUFFIX = ".ccd";
+
+	// Bumped if the on disk format changes
+	private static final int CACHE_FORMAT_VERSION = 1;
+
+	private File cacheDirectory;
+
+	public CompiledClassCache(File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public File getCacheDirectory() {
+		return this.cacheDirectory;
+	}
+
+	/**
+	 * Compute the cache key for a compilation of the specified source.
+	 *
+	 * @param className the name of the class (dotted form, e.g. com.foo.bar.Goo)
+	 * @param classSourceCode the full source code for the class
+	 * @return a hex encoded hash suitable for use as a filename
+	 */
+	public String computeKey(String className, String classSourceCode) {
+		MessageDigest digest = newDigest();
+		update(digest, Integer.toString(CACHE_FORMAT_VERSION));
+		update(digest, System.getProperty("java.version"));
+		update(digest, System.getProperty("java.vendor"));
+		update(digest, ClasspathIndex.fingerprint(System.getProperty("sun.boot.class.path")));
+		update(digest, ClasspathIndex.fingerprint(System.getProperty("java.class.path")));
+		update(digest, className);
+		update(digest, classSourceCode);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Retrieve previously stored class definitions.
+	 *
+	 * @param key the key as computed by {@link #computeKey(String, String)}
+	 * @return the class definitions or null if there is no (usable) entry for the key
+	 */
+	public List<CompiledClassDefinition> load(String key) {
+		File cacheFile = getCacheFile(key);
+		if (!cacheFile.isFile()) {
+			logger.debug("no cache entry found for key {}",key);
+			return null;
+		}
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (dis.readInt() != CACHE_FORMAT_VERSION) {
+				return null;
+			}
+			int count = dis.readInt();
+			List<CompiledClassDefinition> compiledClassDefinitions = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String filename = dis.readUTF();
+				byte[] bytes = new byte[dis.readInt()];
+				dis.readFully(bytes);
+				compiledClassDefinitions.add(new CompiledClassDefinition(filename, bytes));
+			}
+			logger.debug("loaded #{} class definitions from cache entry {}",count,cacheFile);
+			return compiledClassDefinitions;
+		} catch (IOException ioe) {
+			logger.debug("Unable to read cache entry {}, ignoring it",cacheFile,ioe);
+			return null;
+		}
+	}
+
+	/**
+	 * Store class definitions in the cache. The entry is written to a temporary file and
+	 * then renamed so that other processes sharing the directory never see a partially
+	 * written entry. Failure to write is logged but not fatal, the cache is an optimization.
+	 *
+	 * @param key the key as computed by {@link #computeKey(String, String)}
+	 * @param compiledClassDefinitions the definitions to store
+	 */
+	public void store(String key, List<CompiledClassDefinition> compiledClassDefinitions) {
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+			logger.warn("Unable to create compiled class cache directory {}",cacheDirectory);
+			return;
+		}
+		File cacheFile = getCacheFile(key);
+		File tempFile = null;
+		try {
+			tempFile = File.createTempFile(key, ".tmp", cacheDirectory);
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				dos.writeInt(CACHE_FORMAT_VERSION);
+				dos.writeInt(compiledClassDefinitions.size());
+				for (CompiledClassDefinition compiledClassDefinition: compiledClassDefinitions) {
+					dos.writeUTF(compiledClassDefinition.getName());
+					dos.writeInt(compiledClassDefinition.getBytes().length);
+					dos.write(compiledClassDefinition.getBytes());
+				}
+			}
+			if (!tempFile.renameTo(cacheFile)) {
+				logger.debug("Unable to rename {} to {}",tempFile,cacheFile);
+				tempFile.delete();
+			}
+		} catch (IOException ioe) {
+			logger.warn("Unable to write compiled class cache entry {}",cacheFile,ioe);
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	private File getCacheFile(String key) {
+		return new File(cacheDirectory, key + CACHE_FILE_SUFFIX);
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException("SHA-256 digest is not available", nsae);
+		}
+	}
+
+	static void update(MessageDigest digest, String value) {
+		if (value != null) {
+			digest.update(value.getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((byte)0);
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder s = new StringBuilder(bytes.length*2);
+		for (byte b: bytes) {
+			s.append(Character.forDigit((b>>4)&0xf, 16)).append(Character.forDigit(b&0xf, 16));
+		}
+		return s.toString();
+	}
+
+}
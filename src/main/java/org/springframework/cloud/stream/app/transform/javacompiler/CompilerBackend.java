@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+/**
+ * A compiler that {@link RuntimeJavaCompiler} can use to turn source code into class
+ * definitions. Implementations resolve references to other types using the classpath
+ * indexes held in the supplied cache.
+ * 
+ * @author Andy Clement
+ */
+public interface CompilerBackend {
+
+	/**
+	 * @return the name of the backend, as used to select it (e.g. javac)
+	 */
+	String getName();
+
+	/**
+	 * Compile the named class consisting of the supplied source code. The classes produced are
+	 * returned as definitions in the result, it is up to the caller to load them.
+	 * 
+	 * @param className the name of the class (dotted form, e.g. com.foo.bar.Goo)
+	 * @param classSourceCode the full source code for the class
+	 * @param classpathIndexCache the source of indexes for the platform and application classpaths
+	 * @return a CompilationResult containing any messages, the compiled class definitions and the statistics
+	 * for the classpath listing and compiler phases
+	 */
+	CompilationResult compile(String className, String classSourceCode, ClasspathIndexCache classpathIndexCache);
+
+}
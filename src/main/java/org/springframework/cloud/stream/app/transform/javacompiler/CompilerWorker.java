@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The entry point of the child JVM started by {@link ForkedCompilerBackend}. It reads one
+ * compilation request from its standard input, compiles it with an in-process backend and
+ * writes the result (messages, class definitions and statistics) to its standard output, then
+ * exits. Anything else written to standard output, e.g. logging, is redirected to standard
+ * error so that it cannot corrupt the result.
+ * <p>
+ * The methods reading and writing the requests and results are shared with the parent, and
+ * with the {@link CompileServer} and its clients.
+ *
+ * @author Andy Clement
+ */
+public class CompilerWorker {
+
+	// Bumped if the format of the requests or results changes
+	private static final int PROTOCOL_VERSION = 1;
+
+	/**
+	 * @param args optionally the name of the backend to compile with, otherwise the default backend is used
+	 */
+	public static void main(String[] args) throws IOException {
+		// Claim standard output before anything (e.g. a logging framework) can write to it
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		System.setOut(System.err);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+		String[] request = readRequest(in);
+		RuntimeJavaCompiler compiler = new RuntimeJavaCompiler();
+		if (args.length > 0 && !args[0].isEmpty()) {
+			compiler.setCompilerBackend(RuntimeJavaCompiler.createCompilerBackend(args[0]));
+		}
+		CompilationResult compilationResult = compiler.getCompilerBackend().compile(request[0], request[1],
+				new ClasspathIndexCache());
+		writeResult(out, compilationResult);
+		out.flush();
+		// Do not wait for any non daemon threads started by the compiler
+		System.exit(0);
+	}
+
+	static void writeRequest(DataOutputStream dos, String className, String classSourceCode) throws IOException {
+		dos.writeInt(PROTOCOL_VERSION);
+		dos.writeUTF(className);
+		writeBytes(dos, classSourceCode.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the class name and the source code
+	 */
+	static String[] readRequest(DataInputStream dis) throws IOException {
+		checkVersion(dis);
+		String className = dis.readUTF();
+		return new String[] { className, new String(readBytes(dis), StandardCharsets.UTF_8) };
+	}
+
+	static void writeResult(DataOutputStream dos, CompilationResult compilationResult) throws IOException {
+		dos.writeInt(PROTOCOL_VERSION);
+		dos.writeBoolean(compilationResult.wasSuccessful());
+		List<CompilationMessage> compilationMessages = compilationResult.getCompilationMessages();
+		dos.writeInt(compilationMessages.size());
+		for (CompilationMessage compilationMessage: compilationMessages) {
+			compilationMessage.writeTo(dos);
+		}
+		List<CompiledClassDefinition> compiledClassDefinitions = compilationResult.getCompiledClassDefinitions();
+		dos.writeInt(compiledClassDefinitions.size());
+		for (CompiledClassDefinition compiledClassDefinition: compiledClassDefinitions) {
+			dos.writeUTF(compiledClassDefinition.getName());
+			writeBytes(dos, compiledClassDefinition.getBytes());
+		}
+		compilationResult.getStatistics().writeTo(dos);
+	}
+
+	/**
+	 * @param dis the stream to read the result from
+	 * @param classSourceCode the source code that was compiled, for the compilation messages to refer to
+	 * @return the result, with class definitions but no classes, they are defined by the reader
+	 */
+	static CompilationResult readResult(DataInputStream dis, String classSourceCode) throws IOException {
+		checkVersion(dis);
+		CompilationResult compilationResult = new CompilationResult(dis.readBoolean());
+		int messageCount = dis.readInt();
+		for (int i = 0; i < messageCount; i++) {
+			compilationResult.recordCompilationMessage(CompilationMessage.readFrom(dis, classSourceCode));
+		}
+		int classCount = dis.readInt();
+		List<CompiledClassDefinition> compiledClassDefinitions = new ArrayList<>(classCount);
+		for (int i = 0; i < classCount; i++) {
+			String filename = dis.readUTF();
+			compiledClassDefinitions.add(new CompiledClassDefinition(filename, readBytes(dis)));
+		}
+		compilationResult.setCompiledClassDefinitions(compiledClassDefinitions);
+		compilationResult.setStatistics(CompilationStatistics.readFrom(dis));
+		return compilationResult;
+	}
+
+	private static void checkVersion(DataInputStream dis) throws IOException {
+		int version = dis.readInt();
+		if (version != PROTOCOL_VERSION) {
+			throw new IOException("Unexpected compiler worker protocol version "+version+", expected "+PROTOCOL_VERSION);
+		}
+	}
+
+	static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	static byte[] readBytes(DataInputStream dis) throws IOException {
+		return readBytes(dis, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxLength the longest array expected, for reading from a peer that is not yet trusted
+	 */
+	static byte[] readBytes(DataInputStream dis, int maxLength) throws IOException {
+		int length = dis.readInt();
+		if (length < 0 || length > maxLength) {
+			throw new IOException("Unexpected length "+length);
+		}
+		byte[] bytes = new byte[length];
+		dis.readFully(bytes);
+		return bytes;
+	}
+
+}
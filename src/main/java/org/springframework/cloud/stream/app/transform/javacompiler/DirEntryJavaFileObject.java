@@ -60,7 +60,7 @@ public class DirEntryJavaFileObject implements JavaFileObject {
 
 	@Override
 	public InputStream openInputStream() throws IOException {
-		return new FileInputStream(file);
+		return ReadCountingInputStream.countIfRecording(new FileInputStream(file));
 	}
 
 	@Override
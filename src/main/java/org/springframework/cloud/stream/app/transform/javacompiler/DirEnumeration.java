@@ -16,77 +16,106 @@
 package org.springframework.cloud.stream.app.transform.javacompiler;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Enumeration;
-import java.util.List;
 import java.util.NoSuchElementException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
- * Walks a directory hierarchy from some base directory discovering files.
+ * Walks a directory hierarchy from some base directory discovering files. The walk
+ * can be targeted at particular subdirectories of the base directory (typically the
+ * directory for a package) and can optionally avoid descending into subdirectories, so
+ * that the only directories read are those of interest.
  * 
  * @author Andy Clement
  */
 public class DirEnumeration implements Enumeration<File> {
 	
-//	private final static Logger logger = LoggerFactory.getLogger(DirEnumeration.class);
+	private final static Logger logger = LoggerFactory.getLogger(DirEnumeration.class);
 	
 	// The starting point
 	private File basedir; 
+
+	// Paths relative to the basedir where the walk begins
+	private String[] startPaths;
+
+	// Whether to descend into subdirectories
+	private boolean recurse;
 	
 	// Candidates collected so far
-	private List<File> filesToReturn; 
+	private Deque<File> filesToReturn; 
 
 	// Places still to explore for candidates
-	private List<File> directoriesToExplore; 
+	private Deque<File> directoriesToExplore; 
 
 	public DirEnumeration(File basedir) {
+		this(basedir, true, "");
+	}
+
+	/**
+	 * @param basedir the base directory, names returned by {@link #getName(File)} are relative to this
+	 * @param recurse if true descend into subdirectories of the start directories
+	 * @param startPaths the directories to start from, relative to the base directory (e.g. java/util), missing directories are ignored
+	 */
+	public DirEnumeration(File basedir, boolean recurse, String... startPaths) {
 		this.basedir = basedir;
+		this.recurse = recurse;
+		this.startPaths = startPaths;
 	}
 
 	private void computeValue() {
 		if (filesToReturn == null) { // Indicates we haven't started yet
-			filesToReturn = new ArrayList<>();
-			directoriesToExplore = new ArrayList<>();
-			visitDirectory(basedir);
-		}
-		if (filesToReturn.size() == 0) {
-			while (filesToReturn.size() == 0 && directoriesToExplore.size() != 0) {
-				File nextDir = directoriesToExplore.get(0);
-				directoriesToExplore.remove(0);
-				visitDirectory(nextDir);
+			filesToReturn = new ArrayDeque<>();
+			directoriesToExplore = new ArrayDeque<>();
+			for (String startPath: startPaths) {
+				File startDirectory = startPath.length()==0?basedir:new File(basedir, startPath);
+				if (startDirectory.isDirectory()) {
+					visitDirectory(startDirectory);
+				}
 			}
 		}
+		while (filesToReturn.isEmpty() && !directoriesToExplore.isEmpty()) {
+			visitDirectory(directoriesToExplore.poll());
+		}
 	}
 	
 	@Override
 	public boolean hasMoreElements() {
 		computeValue();
-		return filesToReturn.size() != 0;
+		return !filesToReturn.isEmpty();
 	}
 
 	@Override
 	public File nextElement() {
 		computeValue();
-		if (filesToReturn.size()==0) {
+		if (filesToReturn.isEmpty()) {
 			throw new NoSuchElementException();
 		}
-		File toReturn = filesToReturn.get(0);
-		filesToReturn.remove(0);
-		return toReturn;
+		return filesToReturn.poll();
 	}
 
 	private void visitDirectory(File dir) {
-		File[] files = dir.listFiles();
-		if (files != null) {
-			for (File file: files) {
-				if (file.isDirectory()) {
-					directoriesToExplore.add(file);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+			for (Path path: stream) {
+				if (Files.isDirectory(path)) {
+					if (recurse) {
+						directoriesToExplore.add(path.toFile());
+					}
 				} else {
-					filesToReturn.add(file);
+					filesToReturn.add(path.toFile());
 				}
 			}
+		} catch (IOException | DirectoryIteratorException e) {
+			logger.debug("Unable to read directory {}",dir,e);
 		}
-//		logger.debug("after visiting {} filesToReturn=#{} dirsToExplore=#{}",dir,filesToReturn.size(), directoriesToExplore.size());
 	}
 
 	public File getDirectory() {
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.ClassFile;
+import org.eclipse.jdt.internal.compiler.Compiler;
+import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
+import org.eclipse.jdt.internal.compiler.impl.CompilerStats;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
+
+/**
+ * Compiles using the eclipse compiler (ecj). Types are resolved directly against the
+ * classpath indexes through a {@link ClasspathIndexNameEnvironment} rather than via a
+ * JavaFileManager. The eclipse compiler does not need a JDK and for the small sources
+ * compiled here it is typically quicker and uses less memory than javac. The version of
+ * ecj in use reads the platform classes from <tt>sun.boot.class.path</tt> so requires
+ * a Java 8 runtime.
+ * 
+ * @author Andy Clement
+ */
+public class EcjCompilerBackend implements CompilerBackend {
+
+	public static final String NAME = "ecj";
+
+	private CompilerOptions compilerOptions;
+
+	public EcjCompilerBackend() {
+		Map<String, String> settings = new HashMap<>();
+		settings.put(CompilerOptions.OPTION_Source, CompilerOptions.VERSION_1_8);
+		settings.put(CompilerOptions.OPTION_Compliance, CompilerOptions.VERSION_1_8);
+		settings.put(CompilerOptions.OPTION_TargetPlatform, CompilerOptions.VERSION_1_8);
+		// Same debug attributes javac produces by default
+		settings.put(CompilerOptions.OPTION_LineNumberAttribute, CompilerOptions.GENERATE);
+		settings.put(CompilerOptions.OPTION_SourceFileAttribute, CompilerOptions.GENERATE);
+		compilerOptions = new CompilerOptions(settings);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public CompilationResult compile(String className, String classSourceCode, ClasspathIndexCache classpathIndexCache) {
+		ClasspathIndex platformClasspathIndex = classpathIndexCache.acquire(System.getProperty("sun.boot.class.path"));
+		ClasspathIndex classpathIndex = classpathIndexCache.acquire(System.getProperty("java.class.path"));
+		CompilationStatistics statistics = new CompilationStatistics();
+		try {
+			List<org.eclipse.jdt.internal.compiler.CompilationResult> results = new ArrayList<>();
+			Compiler compiler = new Compiler(new ClasspathIndexNameEnvironment(Arrays.asList(platformClasspathIndex, classpathIndex), statistics),
+					DefaultErrorHandlingPolicies.proceedWithAllProblems(), compilerOptions, results::add,
+					new DefaultProblemFactory(Locale.getDefault()));
+			String fileName = className.replace('.', '/') + ".java";
+			ReadCountingInputStream.startRecording(statistics);
+			try {
+				compiler.compile(new ICompilationUnit[] { new CompilationUnit(classSourceCode.toCharArray(), fileName, null) });
+			} finally {
+				ReadCountingInputStream.stopRecording();
+			}
+			// ecj collects its own phase times, to millisecond precision
+			CompilerStats compilerStats = compiler.stats;
+			statistics.addPhaseTime(CompilationStatistics.Phase.PARSE, TimeUnit.MILLISECONDS.toNanos(compilerStats.parseTime));
+			statistics.addPhaseTime(CompilationStatistics.Phase.ANALYZE, TimeUnit.MILLISECONDS.toNanos(compilerStats.resolveTime + compilerStats.analyzeTime));
+			statistics.addPhaseTime(CompilationStatistics.Phase.GENERATE, TimeUnit.MILLISECONDS.toNanos(compilerStats.generateTime));
+
+			boolean success = true;
+			List<CompilationMessage> compilationMessages = new ArrayList<>();
+			List<CompiledClassDefinition> compiledClassDefinitions = new ArrayList<>();
+			for (org.eclipse.jdt.internal.compiler.CompilationResult result: results) {
+				CategorizedProblem[] problems = result.getProblems();
+				if (problems != null) {
+					for (CategorizedProblem problem: problems) {
+						CompilationMessage.Kind kind = problem.isError()?CompilationMessage.Kind.ERROR:CompilationMessage.Kind.OTHER;
+						if (problem.isError()) {
+							success = false;
+						}
+						// ecj source end positions are inclusive
+						compilationMessages.add(new CompilationMessage(kind, problem.getMessage(), classSourceCode,
+								problem.getSourceStart(), problem.getSourceEnd()+1));
+					}
+				}
+				for (ClassFile classFile: result.getClassFiles()) {
+					String classFileName = CharOperation.toString(classFile.getCompoundName()).replace('.', '/') + ".class";
+					compiledClassDefinitions.add(new CompiledClassDefinition(classFileName, classFile.getBytes()));
+				}
+			}
+			CompilationResult compilationResult = new CompilationResult(success);
+			compilationResult.setStatistics(statistics);
+			for (CompilationMessage compilationMessage: compilationMessages) {
+				compilationResult.recordCompilationMessage(compilationMessage);
+			}
+			if (success) {
+				compilationResult.setCompiledClassDefinitions(compiledClassDefinitions);
+			}
+			return compilationResult;
+		} finally {
+			classpathIndexCache.release(platformClasspathIndex);
+			classpathIndexCache.release(classpathIndex);
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles in a short-lived child JVM, so that the compiler's classes and the heap and metaspace
+ * it needs are released when compilation completes rather than being carried by the application
+ * for its whole lifetime. The source is passed to a {@link CompilerWorker} in the child over its
+ * standard input and the class definitions come back over its standard output, to be defined in
+ * this JVM as for any other backend. The child runs with the same classpath (started through the
+ * boot loader if the application is a boot jar) and compiles with the backend named by
+ * {@link #setWorkerBackend(String)}, or its default.
+ * <p>
+ * The child indexes the classpath for itself, so the classpath index of this JVM is not used.
+ * 
+ * @author Andy Clement
+ */
+public class ForkedCompilerBackend implements CompilerBackend {
+
+	public static final String NAME = "forked";
+
+	private static Logger logger = LoggerFactory.getLogger(ForkedCompilerBackend.class);
+
+	private static final String BOOT_LOADER = "org.springframework.boot.loader.PropertiesLauncher";
+
+	private String workerBackend = "";
+
+	private List<String> jvmOptions = Arrays.asList("-XX:TieredStopAtLevel=1", "-XX:+UseSerialGC");
+
+	private long timeout = 120;
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * @param workerBackend the name of the backend the child compiles with, empty for its default
+	 */
+	public void setWorkerBackend(String workerBackend) {
+		this.workerBackend = workerBackend==null?"":workerBackend;
+	}
+
+	/**
+	 * @param jvmOptions the options for the child JVM, e.g. <tt>-Xmx256m</tt>
+	 */
+	public void setJvmOptions(List<String> jvmOptions) {
+		this.jvmOptions = jvmOptions;
+	}
+
+	/**
+	 * @param timeout the time in seconds to wait for the child, after which it is stopped and the compilation fails
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override
+	public CompilationResult compile(String className, String classSourceCode, ClasspathIndexCache classpathIndexCache) {
+		Process process = null;
+		try {
+			process = new ProcessBuilder(buildCommand()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			// The exchange runs on its own thread so that a child that never answers cannot block beyond the timeout
+			FutureTask<CompilationResult> exchange = new FutureTask<>(new Exchange(process, className, classSourceCode));
+			Thread exchangeThread = new Thread(exchange, "forked-compiler-exchange");
+			exchangeThread.setDaemon(true);
+			exchangeThread.start();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+			CompilationResult compilationResult = exchange.get(timeout, TimeUnit.SECONDS);
+			if (!process.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+				return failed("Compiler worker did not exit within "+timeout+" seconds");
+			}
+			return compilationResult;
+		} catch (TimeoutException te) {
+			logger.error("Compiler worker did not answer within {} seconds, stopping it", timeout);
+			return failed("Compiler worker did not answer within "+timeout+" seconds");
+		} catch (IOException | ExecutionException e) {
+			Throwable cause = (e instanceof ExecutionException ? e.getCause() : e);
+			logger.error("Compiler worker failed", cause);
+			return failed("Compiler worker failed: "+cause.getMessage()+
+					(process==null||process.isAlive()?"":" (exit code "+process.exitValue()+")"));
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return failed("Interrupted whilst waiting for the compiler worker");
+		} finally {
+			if (process != null && process.isAlive()) {
+				process.destroyForcibly();
+			}
+		}
+	}
+
+	/**
+	 * Sends the request to the child and reads its result.
+	 */
+	private static class Exchange implements Callable<CompilationResult> {
+
+		private final Process process;
+
+		private final String className;
+
+		private final String classSourceCode;
+
+		Exchange(Process process, String className, String classSourceCode) {
+			this.process = process;
+			this.className = className;
+			this.classSourceCode = classSourceCode;
+		}
+
+		@Override
+		public CompilationResult call() throws IOException {
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()))) {
+				CompilerWorker.writeRequest(dos, className, classSourceCode);
+			}
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(process.getInputStream()))) {
+				return CompilerWorker.readResult(dis, classSourceCode);
+			}
+		}
+	}
+
+	List<String> buildCommand() {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(jvmOptions);
+		String classpath = System.getProperty("java.class.path");
+		command.add("-cp");
+		command.add(classpath);
+		if (isBootJar(classpath)) {
+			command.add("-Dloader.main=" + CompilerWorker.class.getName());
+			command.add(BOOT_LOADER);
+		} else {
+			command.add(CompilerWorker.class.getName());
+		}
+		command.add(workerBackend);
+		return command;
+	}
+
+	/**
+	 * @return true if the classpath is a single boot jar, whose nested classes and libraries can only be
+	 * reached through the boot loader
+	 */
+	private static boolean isBootJar(String classpath) {
+		if (classpath.contains(File.pathSeparator) || !classpath.endsWith(".jar")) {
+			return false;
+		}
+		try (JarFile jarFile = new JarFile(classpath)) {
+			return jarFile.getEntry("BOOT-INF/classes/") != null;
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	private static CompilationResult failed(String message) {
+		CompilationResult compilationResult = new CompilationResult(false);
+		compilationResult.recordCompilationMessage(new CompilationMessage(CompilationMessage.Kind.ERROR, message, null, 0, 0));
+		return compilationResult;
+	}
+
+}
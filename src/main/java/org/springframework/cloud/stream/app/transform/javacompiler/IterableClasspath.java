@@ -17,6 +17,7 @@ package org.springframework.cloud.stream.app.transform.javacompiler;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
@@ -26,7 +27,6 @@ import java.util.Stack;
 import java.util.StringTokenizer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 import javax.tools.JavaFileObject;
 
@@ -37,7 +37,8 @@ import org.slf4j.LoggerFactory;
  * Iterable that will produce an iterator that returns classes found
  * on a specified classpath that meet specified criteria. For jars it finds, the
  * iterator will go into nested jars - this handles the situation with a 
- * spring boot uberjar.
+ * spring boot uberjar. Nested jars are extracted once via a {@link NestedArchiveStore}
+ * so that their entries can be listed and read without re-inflating the whole nested jar.
  * 
  * @author Andy Clement
  */
@@ -46,11 +47,34 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 	private static Logger logger = LoggerFactory.getLogger(IterableClasspath.class);
 	
 	private static final String BOOT_PACKAGING_PREFIX_FOR_LIBRARIES = "BOOT-INF/lib/";
+
+	private static final byte[] BOOT_PACKAGING_PREFIX_FOR_LIBRARIES_BYTES = BOOT_PACKAGING_PREFIX_FOR_LIBRARIES.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] JAR_SUFFIX_BYTES = ".jar".getBytes(StandardCharsets.UTF_8);
 	
 	private List<File> classpathEntries = new ArrayList<>();
 	
 	private List<ZipFile> openArchives = new ArrayList<>();
 
+	private NestedArchiveStore nestedArchiveStore = new NestedArchiveStore();
+
+	// Number of directory and archive entries examined so far
+	private int scannedCount;
+
+	// Entries of interest in a nested archive
+	private MappedZipEntryEnumeration.NameFilter nestedArchiveEntryFilter = (buffer, offset, length) -> {
+		scannedCount++;
+		return accept(buffer, offset, length);
+	};
+
+	// Entries of interest in a top level archive, which includes any nested archives
+	private MappedZipEntryEnumeration.NameFilter archiveEntryFilter = (buffer, offset, length) -> {
+		scannedCount++;
+		return accept(buffer, offset, length) ||
+				(MappedZipEntryEnumeration.startsWith(buffer, offset, length, BOOT_PACKAGING_PREFIX_FOR_LIBRARIES_BYTES, 0) &&
+				 MappedZipEntryEnumeration.endsWith(buffer, offset, length, JAR_SUFFIX_BYTES));
+	};
+
 	/**
 	 * @param classpath a classpath of jars/directories
 	 * @param packageNameFilter an optional package name if choosing to filter (e.g. com.example)
@@ -79,6 +103,14 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 			}
 		}
 		openArchives.clear();
+		nestedArchiveStore.close();
+	}
+
+	/**
+	 * @return the number of directory and archive entries examined by the iterators so far, including those rejected
+	 */
+	public int getScannedCount() {
+		return scannedCount;
 	}
 
 	public Iterator<JavaFileObject> iterator() {
@@ -95,6 +127,7 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 		private ZipFile openArchive = null;
 		private File openFile = null;
 		private ZipEntry nestedZip = null;
+		private ZipFile nestedArchive = null;
 		private Stack<Enumeration<? extends ZipEntry>> openArchiveEnumeration = null;
 
 		private JavaFileObject nextEntry = null;
@@ -108,13 +141,19 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 							File nextFile = classpathEntries.get(currentClasspathEntriesIndex);
 							if (nextFile.isDirectory()) {
 								openDirectory = nextFile;
-								openDirectoryEnumeration = new DirEnumeration(nextFile);
+								String[] packageDirectories = getPackageDirectories();
+								if (packageDirectories == null) {
+									openDirectoryEnumeration = new DirEnumeration(nextFile);
+								} else {
+									// Only visit the directories that can contain classes in the package of interest
+									openDirectoryEnumeration = new DirEnumeration(nextFile, isIncludeSubpackages(), packageDirectories);
+								}
 							} else {
 								openFile = nextFile;
 								openArchive = new ZipFile(nextFile);
 								openArchives.add(openArchive);
 								openArchiveEnumeration = new Stack<Enumeration<? extends ZipEntry>>();
-								openArchiveEnumeration.push(openArchive.entries());
+								openArchiveEnumeration.push(MappedZipEntryEnumeration.entries(nextFile, openArchive, archiveEntryFilter));
 							}
 							currentClasspathEntriesIndex++;
 						}
@@ -125,7 +164,7 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 									String entryName = entry.getName();
 									if (accept(entryName)) {
 										if (nestedZip!=null) {
-											nextEntry = new NestedZipEntryJavaFileObject(openFile, openArchive,nestedZip, entry);										
+											nextEntry = new NestedZipEntryJavaFileObject(openFile, nestedZip, nestedArchive, entry);
 										} else {
 											nextEntry = new ZipEntryJavaFileObject(openFile, openArchive, entry);
 										}
@@ -133,16 +172,14 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 									} else if (nestedZip == null && entryName.startsWith(BOOT_PACKAGING_PREFIX_FOR_LIBRARIES) && entryName.endsWith(".jar")) {
 										// nested jar in uber jar
 										logger.debug("opening nested archive {}",entry.getName());
-										ZipInputStream zis = new ZipInputStream(openArchive.getInputStream(entry));
-	//									nextEntry = new NestedZipEntryJavaFileObject(openArchive.firstElement(),openArchive.peek(),entry);
-										Enumeration<? extends ZipEntry> nestedZipEnumerator = new ZipEnumerator(zis);
+										nestedArchive = nestedArchiveStore.getArchive(openFile, openArchive, entry);
 										nestedZip = entry;
-										openArchiveEnumeration.push(nestedZipEnumerator);
+										openArchiveEnumeration.push(MappedZipEntryEnumeration.entries(new File(nestedArchive.getName()), nestedArchive, nestedArchiveEntryFilter));
 									}
 								}
 								openArchiveEnumeration.pop();
 								if (nestedZip ==null) { openArchive = null; openFile = null; }
-								else nestedZip = null;
+								else { nestedZip = null; nestedArchive = null; }
 							}
 							openArchiveEnumeration = null;
 							openArchive = null;
@@ -150,6 +187,7 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 						} else if (openDirectoryEnumeration != null) {
 							while (openDirectoryEnumeration.hasMoreElements()) {
 								File entry = openDirectoryEnumeration.nextElement();
+								scannedCount++;
 								String name = openDirectoryEnumeration.getName(entry);
 								if (accept(name)) {
 									nextEntry = new DirEntryJavaFileObject(openDirectoryEnumeration.getDirectory(), entry);
@@ -182,32 +220,4 @@ public class IterableClasspath extends CloseableFilterableJavaFileObjectIterable
 		}
 
 	}
-
-	static class ZipEnumerator implements Enumeration<ZipEntry>{
-
-		private ZipInputStream zis;
-		private ZipEntry nextEntry = null;
-
-		public ZipEnumerator(ZipInputStream zis) {
-			this.zis = zis;
-		}
-
-		@Override
-		public boolean hasMoreElements() {
-			try {
-				nextEntry = zis.getNextEntry();
-			} catch (IOException ioe) {
-				nextEntry=null;
-			}
-			return nextEntry!=null;
-		}
-
-		@Override
-		public ZipEntry nextElement() {
-			ZipEntry retval = nextEntry;
-			nextEntry = null;
-			return retval;
-		}
-		
-	}
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles using the system java compiler (javac), via a {@link MemoryBasedJavaFileManager}.
+ * The system compiler is only available when running on a JDK.
+ * 
+ * @author Andy Clement
+ */
+public class JavacCompilerBackend implements CompilerBackend {
+
+	public static final String NAME = "javac";
+
+	private static Logger logger = LoggerFactory.getLogger(JavacCompilerBackend.class);
+
+	private JavaCompiler compiler;
+
+	public JavacCompilerBackend() {
+		compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new IllegalStateException("No system java compiler is available, running on a JRE rather than a JDK?");
+		}
+	}
+
+	/**
+	 * @return true if the system java compiler is available
+	 */
+	public static boolean isAvailable() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public CompilationResult compile(String className, String classSourceCode, ClasspathIndexCache classpathIndexCache) {
+		DiagnosticCollector<JavaFileObject> diagnosticCollector = new DiagnosticCollector<JavaFileObject>();
+		CompilationStatistics statistics = new CompilationStatistics();
+		MemoryBasedJavaFileManager fileManager = new MemoryBasedJavaFileManager(classpathIndexCache, statistics);
+		JavaFileObject sourceFile = InMemoryJavaFileObject.getSourceJavaFileObject(className, classSourceCode);
+		Iterable<? extends JavaFileObject> compilationUnits = Arrays.asList(sourceFile);
+		CompilationTask task = compiler.getTask(null, fileManager , diagnosticCollector, null, null, compilationUnits);
+		addPhaseTimer(task, statistics);
+
+		boolean success;
+		ReadCountingInputStream.startRecording(statistics);
+		try {
+			success = task.call();
+		} finally {
+			ReadCountingInputStream.stopRecording();
+		}
+		try {
+			fileManager.close();
+		} catch (IOException ioe) {
+			logger.debug("Unexpected exception closing file manager",ioe);
+		}
+		CompilationResult compilationResult = new CompilationResult(success);
+		compilationResult.setStatistics(statistics);
+		
+		// If successful there may be no errors but there might be info/warnings
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnosticCollector.getDiagnostics()) {
+			CompilationMessage.Kind kind = (diagnostic.getKind()==Kind.ERROR?CompilationMessage.Kind.ERROR:CompilationMessage.Kind.OTHER);
+			String sourceCode =null;
+			try {
+				sourceCode = (String)diagnostic.getSource().getCharContent(true);
+			} catch (IOException ioe) {
+				// Unexpected, but leave sourceCode null to indicate it was not retrievable
+			}
+			int startPosition = (int)diagnostic.getPosition();
+			if (startPosition == Diagnostic.NOPOS) {
+				startPosition = (int)diagnostic.getStartPosition();
+			}
+			CompilationMessage compilationMessage = new CompilationMessage(kind,diagnostic.getMessage(null),sourceCode,startPosition,(int)diagnostic.getEndPosition());
+			compilationResult.recordCompilationMessage(compilationMessage);
+		}
+		if (success) {
+			compilationResult.setCompiledClassDefinitions(fileManager.getCompiledClasses());
+		}
+		return compilationResult;
+	}
+
+	/**
+	 * Time the phases of the compilation using a javac TaskListener. The listener API is in
+	 * tools.jar (which is not available when building) so it is accessed reflectively, if that
+	 * fails the compilation proceeds without the phase times.
+	 */
+	private static void addPhaseTimer(CompilationTask task, CompilationStatistics statistics) {
+		try {
+			Class<?> taskListenerClass = Class.forName("com.sun.source.util.TaskListener", false, task.getClass().getClassLoader());
+			Method addTaskListener = task.getClass().getMethod("addTaskListener", taskListenerClass);
+			Object taskListener = Proxy.newProxyInstance(taskListenerClass.getClassLoader(), new Class<?>[] { taskListenerClass },
+					new PhaseTimer(statistics));
+			addTaskListener.invoke(task, taskListener);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("Unable to time the compilation phases",e);
+		}
+	}
+
+	/**
+	 * Handles the started/finished TaskListener events, accumulating the time spent in each kind
+	 * of event into the corresponding phase.
+	 */
+	static class PhaseTimer implements InvocationHandler {
+
+		private CompilationStatistics statistics;
+
+		// Start times of the events currently in progress, keyed by event kind
+		private Map<String, Long> startTimes = new HashMap<>();
+
+		PhaseTimer(CompilationStatistics statistics) {
+			this.statistics = statistics;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "started":
+				startTimes.put(getKind(args[0]), System.nanoTime());
+				return null;
+			case "finished":
+				String kind = getKind(args[0]);
+				Long stime = startTimes.remove(kind);
+				CompilationStatistics.Phase phase = getPhase(kind);
+				if (stime != null && phase != null) {
+					statistics.addPhaseTime(phase, System.nanoTime() - stime);
+				}
+				return null;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "PhaseTimer";
+			default:
+				return null;
+			}
+		}
+
+		private static String getKind(Object taskEvent) throws ReflectiveOperationException {
+			return taskEvent.getClass().getMethod("getKind").invoke(taskEvent).toString();
+		}
+
+		private static CompilationStatistics.Phase getPhase(String kind) {
+			switch (kind) {
+			case "PARSE":
+				return CompilationStatistics.Phase.PARSE;
+			case "ENTER":
+			case "ANALYZE":
+				return CompilationStatistics.Phase.ANALYZE;
+			case "GENERATE":
+				return CompilationStatistics.Phase.GENERATE;
+			default:
+				return null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enumerates the entries of an archive by walking its memory mapped central directory. Each
+ * entry name is offered to a {@link NameFilter} as raw bytes and a ZipEntry is only created
+ * (via the already open ZipFile) for names the filter accepts, so the many entries on a
+ * classpath that are not of interest cost no allocation. Archives with a prefix, such as
+ * executable jars starting with a launch script, are supported. Archives this cannot handle
+ * (e.g. zip64) fall back to the regular <tt>ZipFile.entries()</tt> enumeration.
+ *
+ * @author Andy Clement
+ */
+public class MappedZipEntryEnumeration implements Enumeration<ZipEntry> {
+
+	private static Logger logger = LoggerFactory.getLogger(MappedZipEntryEnumeration.class);
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+	private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+	private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+	private static final int CENTRAL_DIRECTORY_HEADER_LENGTH = 46;
+
+	/**
+	 * Decides whether an entry is of interest based on its name, without allocating.
+	 */
+	public interface NameFilter {
+
+		/**
+		 * @param buffer the buffer containing the name
+		 * @param offset the position of the first byte of the name in the buffer
+		 * @param length the length of the name in bytes
+		 * @return true if a ZipEntry should be produced for the name
+		 */
+		boolean accept(ByteBuffer buffer, int offset, int length);
+	}
+
+	private ZipFile zipFile;
+
+	private ByteBuffer centralDirectory;
+
+	private NameFilter filter;
+
+	private int position;
+
+	private ZipEntry nextEntry;
+
+	private MappedZipEntryEnumeration(ZipFile zipFile, ByteBuffer centralDirectory, NameFilter filter) {
+		this.zipFile = zipFile;
+		this.centralDirectory = centralDirectory;
+		this.filter = filter;
+	}
+
+	/**
+	 * Produce an enumeration of the entries in the archive that are accepted by the filter. If the
+	 * central directory cannot be mapped the result is the full <tt>ZipFile.entries()</tt>
+	 * enumeration and the caller is expected to still check the entries it receives.
+	 *
+	 * @param file the file for the archive
+	 * @param zipFile the archive, already open
+	 * @param filter decides which entries are returned
+	 * @return an enumeration of (at least) the accepted entries
+	 */
+	public static Enumeration<? extends ZipEntry> entries(File file, ZipFile zipFile, NameFilter filter) {
+		try {
+			ByteBuffer centralDirectory = mapCentralDirectory(file);
+			if (centralDirectory != null) {
+				return new MappedZipEntryEnumeration(zipFile, centralDirectory, filter);
+			}
+		} catch (IOException ioe) {
+			logger.debug("Unable to map central directory of {}",file,ioe);
+		}
+		return zipFile.entries();
+	}
+
+	private static ByteBuffer mapCentralDirectory(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			long fileLength = channel.size();
+			int tailLength = (int)Math.min(fileLength, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH);
+			ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(tail, fileLength - tailLength);
+			for (int pos = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; pos >= 0; pos--) {
+				if (tail.getInt(pos) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+					int entryCount = tail.getShort(pos + 10) & 0xffff;
+					long centralDirectorySize = tail.getInt(pos + 12) & 0xffffffffL;
+					long centralDirectoryOffset = tail.getInt(pos + 16) & 0xffffffffL;
+					if (entryCount == 0xffff || centralDirectorySize == 0xffffffffL || centralDirectoryOffset == 0xffffffffL) {
+						// zip64
+						return null;
+					}
+					// The central directory immediately precedes the end record. The offset recorded is relative
+					// to the start of the archive, which is not the start of the file if something (e.g. the
+					// launch script of an executable boot jar) has been prepended to it.
+					long endOfCentralDirectoryPosition = fileLength - tailLength + pos;
+					long centralDirectoryPosition = endOfCentralDirectoryPosition - centralDirectorySize;
+					if (centralDirectoryPosition < centralDirectoryOffset) {
+						// Something unexpected
+						return null;
+					}
+					ByteBuffer centralDirectory = channel.map(FileChannel.MapMode.READ_ONLY, centralDirectoryPosition,
+							centralDirectorySize).order(ByteOrder.LITTLE_ENDIAN);
+					if (entryCount > 0 && (centralDirectorySize < CENTRAL_DIRECTORY_HEADER_LENGTH ||
+							centralDirectory.getInt(0) != CENTRAL_DIRECTORY_HEADER_SIGNATURE)) {
+						logger.debug("No central directory found at {} in {}",centralDirectoryPosition,file);
+						return null;
+					}
+					return centralDirectory;
+				}
+			}
+			return null;
+		}
+	}
+
+	private void findNext() {
+		while (nextEntry == null && position + CENTRAL_DIRECTORY_HEADER_LENGTH <= centralDirectory.limit()) {
+			if (centralDirectory.getInt(position) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+				logger.debug("Unexpected data in central directory of {} at {}",zipFile.getName(),position);
+				position = centralDirectory.limit();
+				return;
+			}
+			int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+			int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+			int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+			int nameOffset = position + CENTRAL_DIRECTORY_HEADER_LENGTH;
+			position = nameOffset + nameLength + extraLength + commentLength;
+			if (filter.accept(centralDirectory, nameOffset, nameLength)) {
+				byte[] nameBytes = new byte[nameLength];
+				for (int i = 0; i < nameLength; i++) {
+					nameBytes[i] = centralDirectory.get(nameOffset + i);
+				}
+				nextEntry = zipFile.getEntry(new String(nameBytes, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	@Override
+	public boolean hasMoreElements() {
+		findNext();
+		return nextEntry != null;
+	}
+
+	@Override
+	public ZipEntry nextElement() {
+		findNext();
+		if (nextEntry == null) {
+			throw new NoSuchElementException();
+		}
+		ZipEntry retval = nextEntry;
+		nextEntry = null;
+		return retval;
+	}
+
+	// Helpers for filters working with names in the central directory
+
+	static boolean startsWith(ByteBuffer buffer, int offset, int length, byte[] prefix, int from) {
+		if (from + prefix.length > length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer.get(offset + from + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean endsWith(ByteBuffer buffer, int offset, int length, byte[] suffix) {
+		return length >= suffix.length && startsWith(buffer, offset, length, suffix, length - suffix.length);
+	}
+
+	static int indexOf(ByteBuffer buffer, int offset, int length, byte b, int from) {
+		for (int i = from; i < length; i++) {
+			if (buffer.get(offset + i) == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
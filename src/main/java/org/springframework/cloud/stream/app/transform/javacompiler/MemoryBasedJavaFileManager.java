@@ -16,7 +16,6 @@
 package org.springframework.cloud.stream.app.transform.javacompiler;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -43,9 +42,39 @@ public class MemoryBasedJavaFileManager implements JavaFileManager {
 	
 	private CompilationOutputCollector outputCollector;
 
-	private List<CloseableFilterableJavaFileObjectIterable> toClose = new ArrayList<>();
+	// Source of the classpath indexes, possibly shared with other file managers
+	private ClasspathIndexCache classpathIndexCache;
+
+	// Whether this file manager created the cache and so should close it
+	private boolean ownsClasspathIndexCache;
+
+	// Acquired on first use and released when this file manager is closed
+	private ClasspathIndex platformClasspathIndex;
+
+	private ClasspathIndex classpathIndex;
+
+	// Where the classpath listings are recorded, may be null
+	private CompilationStatistics statistics;
 
 	public MemoryBasedJavaFileManager() {
+		this(new ClasspathIndexCache());
+		ownsClasspathIndexCache = true;
+	}
+
+	/**
+	 * @param classpathIndexCache a cache of classpath indexes that may be shared with other file managers
+	 */
+	public MemoryBasedJavaFileManager(ClasspathIndexCache classpathIndexCache) {
+		this(classpathIndexCache, null);
+	}
+
+	/**
+	 * @param classpathIndexCache a cache of classpath indexes that may be shared with other file managers
+	 * @param statistics where to record the classpath listings, may be null
+	 */
+	public MemoryBasedJavaFileManager(ClasspathIndexCache classpathIndexCache, CompilationStatistics statistics) {
+		this.classpathIndexCache = classpathIndexCache;
+		this.statistics = statistics;
 		outputCollector = new CompilationOutputCollector();
 	}
 
@@ -67,17 +96,21 @@ public class MemoryBasedJavaFileManager implements JavaFileManager {
 	public Iterable<JavaFileObject> list(Location location, String packageName, Set<Kind> kinds, boolean recurse)
 			throws IOException {
 		logger.debug("list({},{},{},{})",location,packageName,kinds,recurse);
-		CloseableFilterableJavaFileObjectIterable resultIterable = null;
+		Iterable<JavaFileObject> resultIterable = null;
 		if (location == StandardLocation.PLATFORM_CLASS_PATH && (kinds==null || kinds.contains(Kind.CLASS))) {
-			String sunBootClassPath = System.getProperty("sun.boot.class.path");
-			logger.debug("Creating iterable for boot class path: {}",sunBootClassPath);
-			resultIterable = new IterableClasspath(sunBootClassPath, packageName, recurse);
-			toClose.add(resultIterable);
+			if (platformClasspathIndex == null) {
+				String sunBootClassPath = System.getProperty("sun.boot.class.path");
+				logger.debug("Obtaining index for boot class path: {}",sunBootClassPath);
+				platformClasspathIndex = classpathIndexCache.acquire(sunBootClassPath);
+			}
+			resultIterable = platformClasspathIndex.list(packageName, recurse, statistics);
 		} else if (location == StandardLocation.CLASS_PATH && (kinds==null || kinds.contains(Kind.CLASS))) {
-			String javaClassPath = System.getProperty("java.class.path");
-			logger.debug("Creating iterable for class path: {}",javaClassPath);
-			resultIterable = new IterableClasspath(javaClassPath, packageName, recurse);
-			toClose.add(resultIterable);
+			if (classpathIndex == null) {
+				String javaClassPath = System.getProperty("java.class.path");
+				logger.debug("Obtaining index for class path: {}",javaClassPath);
+				classpathIndex = classpathIndexCache.acquire(javaClassPath);
+			}
+			resultIterable = classpathIndex.list(packageName, recurse, statistics);
 		} else if (location == StandardLocation.SOURCE_PATH) {
 			// There are no 'extra sources'
 			resultIterable = EmptyIterable.instance;
@@ -155,8 +188,16 @@ public class MemoryBasedJavaFileManager implements JavaFileManager {
 
 	@Override
 	public void close() throws IOException {
-		for (CloseableFilterableJavaFileObjectIterable closeable: toClose) {
-			closeable.close();
+		if (platformClasspathIndex != null) {
+			classpathIndexCache.release(platformClasspathIndex);
+			platformClasspathIndex = null;
+		}
+		if (classpathIndex != null) {
+			classpathIndexCache.release(classpathIndex);
+			classpathIndex = null;
+		}
+		if (ownsClasspathIndexCache) {
+			classpathIndexCache.close();
 		}
 	}
 
@@ -164,4 +205,4 @@ public class MemoryBasedJavaFileManager implements JavaFileManager {
 		return outputCollector.getCompiledClasses();
 	}
 
-}
\ No newline at end of file
+}
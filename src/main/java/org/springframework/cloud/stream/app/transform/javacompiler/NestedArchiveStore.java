@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts jars nested inside another jar (e.g. <tt>BOOT-INF/lib/*.jar</tt> in a spring boot
+ * uberjar) to temporary files, once, and opens them as regular archives. Reading a nested jar
+ * through a <tt>ZipInputStream</tt> means inflating everything before the entry of interest,
+ * whereas once extracted the central directory of the nested jar can be used to list it and
+ * each entry can be read directly. The temporary files are deleted when the store is closed.
+ *
+ * @author Andy Clement
+ */
+public class NestedArchiveStore {
+
+	private static Logger logger = LoggerFactory.getLogger(NestedArchiveStore.class);
+
+	private File extractionDirectory;
+
+	// Key is outer archive path + "!" + nested entry name
+	private Map<String, ZipFile> openArchives = new HashMap<>();
+
+	private List<File> extractedFiles = new ArrayList<>();
+
+	// Used to give each extracted file a unique name
+	private AtomicInteger extractionCount = new AtomicInteger();
+
+	/**
+	 * Retrieve the nested archive, extracting it if this is the first time it has been asked for.
+	 * Different nested archives may be extracted concurrently.
+	 *
+	 * @param outerFile the file for the outer archive
+	 * @param outerZipFile the open outer archive
+	 * @param nestedArchiveEntry the entry for the nested archive inside the outer archive
+	 * @return the nested archive opened as a ZipFile
+	 * @throws IOException if there is a problem extracting or opening the nested archive
+	 */
+	public ZipFile getArchive(File outerFile, ZipFile outerZipFile, ZipEntry nestedArchiveEntry) throws IOException {
+		String key = outerFile.getAbsolutePath() + "!" + nestedArchiveEntry.getName();
+		synchronized (this) {
+			ZipFile archive = openArchives.get(key);
+			if (archive != null) {
+				return archive;
+			}
+		}
+		File extractedFile = extract(outerZipFile, nestedArchiveEntry);
+		ZipFile archive = new ZipFile(extractedFile);
+		synchronized (this) {
+			ZipFile existingArchive = openArchives.get(key);
+			if (existingArchive != null) {
+				// Another thread extracted it at the same time
+				archive.close();
+				extractedFile.delete();
+				return existingArchive;
+			}
+			openArchives.put(key, archive);
+			extractedFiles.add(extractedFile);
+		}
+		return archive;
+	}
+
+	private File extract(ZipFile outerZipFile, ZipEntry nestedArchiveEntry) throws IOException {
+		String name = nestedArchiveEntry.getName();
+		name = extractionCount.getAndIncrement() + "-" + name.substring(name.lastIndexOf('/') + 1);
+		File extractedFile = new File(getExtractionDirectory(), name);
+		extractedFile.deleteOnExit();
+		logger.debug("extracting nested archive {} to {}",nestedArchiveEntry.getName(),extractedFile);
+		try (InputStream is = outerZipFile.getInputStream(nestedArchiveEntry)) {
+			Files.copy(is, extractedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return extractedFile;
+	}
+
+	private synchronized File getExtractionDirectory() throws IOException {
+		if (extractionDirectory == null) {
+			extractionDirectory = Files.createTempDirectory("nested-archives").toFile();
+			extractionDirectory.deleteOnExit();
+		}
+		return extractionDirectory;
+	}
+
+	public synchronized void close() {
+		for (ZipFile openArchive: openArchives.values()) {
+			try {
+				openArchive.close();
+			} catch (IOException ioe) {
+				logger.debug("Unexpected error closing archive {}",openArchive,ioe);
+			}
+		}
+		openArchives.clear();
+		for (File extractedFile: extractedFiles) {
+			if (!extractedFile.delete()) {
+				logger.debug("Unable to delete extracted archive {}",extractedFile);
+			}
+		}
+		extractedFiles.clear();
+		if (extractionDirectory != null) {
+			extractionDirectory.delete();
+			extractionDirectory = null;
+		}
+	}
+
+}
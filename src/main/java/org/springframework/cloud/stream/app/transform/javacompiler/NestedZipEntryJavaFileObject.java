@@ -25,7 +25,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.NestingKind;
@@ -35,23 +34,25 @@ import javax.tools.JavaFileObject;
  * Represents an element inside in zip which is itself inside a zip. These objects are
  * not initially created with the content of the file they represent,
  * only enough information to find that content because many will
- * typically be created but only few will be opened.
+ * typically be created but only few will be opened. The inner zip is accessed
+ * through its extracted copy (see {@link NestedArchiveStore}) so the entry can be
+ * read directly.
  * 
  * @author Andy Clement
  */
 public class NestedZipEntryJavaFileObject implements JavaFileObject {
 
 	private File outerFile;
-	private ZipFile outerZipFile;
 	private ZipEntry innerZipFile;
+	private ZipFile extractedInnerZipFile;
 	private ZipEntry innerZipFileEntry;
 
 	private URI uri;
 
-	public NestedZipEntryJavaFileObject(File outerFile, ZipFile outerZipFile, ZipEntry innerZipFile, ZipEntry innerZipFileEntry) {
+	public NestedZipEntryJavaFileObject(File outerFile, ZipEntry innerZipFile, ZipFile extractedInnerZipFile, ZipEntry innerZipFileEntry) {
 		this.outerFile = outerFile;
-		this.outerZipFile = outerZipFile;
 		this.innerZipFile = innerZipFile;
+		this.extractedInnerZipFile = extractedInnerZipFile;
 		this.innerZipFileEntry = innerZipFileEntry;
 	}
 
@@ -76,18 +77,11 @@ public class NestedZipEntryJavaFileObject implements JavaFileObject {
 	
 	@Override
 	public InputStream openInputStream() throws IOException {
-		// Find the inner zip file inside the outer zip file, then
-		// find the relevant entry, then return the stream.
-		InputStream innerZipFileInputStream = this.outerZipFile.getInputStream(innerZipFile);
-		ZipInputStream innerZipInputStream = new ZipInputStream(innerZipFileInputStream);
-		ZipEntry nextEntry = innerZipInputStream.getNextEntry();
-		while (nextEntry != null) {
-			if (nextEntry.getName().equals(innerZipFileEntry.getName())) {
-				return innerZipInputStream;
-			}
-			nextEntry = innerZipInputStream.getNextEntry();
+		InputStream is = extractedInnerZipFile.getInputStream(innerZipFileEntry);
+		if (is == null) {
+			throw new IllegalStateException("Unable to locate nested zip entry "+innerZipFileEntry.getName()+" in zip "+innerZipFile.getName()+" inside zip "+outerFile.getName());
 		}
-		throw new IllegalStateException("Unable to locate nested zip entry "+innerZipFileEntry.getName()+" in zip "+innerZipFile.getName()+" inside zip "+outerZipFile.getName());
+		return ReadCountingInputStream.countIfRecording(is);
 	}
 
 	@Override
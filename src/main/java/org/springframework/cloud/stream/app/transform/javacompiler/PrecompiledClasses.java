@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class definitions compiled ahead of time, found as resources under <tt>META-INF/precompiled/</tt>
+ * on the classpath of the application (e.g. written into the application jar when it was built).
+ * The definitions for each compilation are stored under a key that is a hash of the class name
+ * and source code, so if the code the application is run with differs from the code that was
+ * precompiled there is no match and the code is compiled at runtime.
+ * <p>
+ * Unlike {@link CompiledClassCache} the key does not include the JDK or classpath, these are
+ * fixed by the application artifact the classes are built into.
+ *
+ * @author Andy Clement
+ */
+public class PrecompiledClasses {
+
+	private static Logger logger = LoggerFactory.getLogger(PrecompiledClasses.class);
+
+	static final String LOCATION = "META-INF/precompiled/";
+
+	// Lists the keys of the compilations written to a directory or jar
+	static final String KEYS_FILE = LOCATION + "keys";
+
+	// Lists the class files of one compilation, under the directory named by its key
+	private static final String CLASSES_FILE = "classes";
+
+	// Bumped if the layout changes
+	private static final int FORMAT_VERSION = 1;
+
+	private ClassLoader classLoader;
+
+	private boolean present;
+
+	/**
+	 * @param classLoader the class loader whose resources include the precompiled classes
+	 */
+	public PrecompiledClasses(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+		this.present = classLoader.getResource(KEYS_FILE) != null;
+	}
+
+	/**
+	 * @return true if any precompiled classes were found
+	 */
+	public boolean isPresent() {
+		return present;
+	}
+
+	/**
+	 * Compute the key under which the classes compiled from the specified source are stored.
+	 *
+	 * @param className the name of the class (dotted form, e.g. com.foo.bar.Goo)
+	 * @param classSourceCode the full source code for the class
+	 * @return a hex encoded hash suitable for use as a directory name
+	 */
+	public static String computeKey(String className, String classSourceCode) {
+		MessageDigest digest = CompiledClassCache.newDigest();
+		CompiledClassCache.update(digest, Integer.toString(FORMAT_VERSION));
+		CompiledClassCache.update(digest, className);
+		CompiledClassCache.update(digest, classSourceCode);
+		return CompiledClassCache.toHex(digest.digest());
+	}
+
+	/**
+	 * Retrieve the class definitions precompiled from the specified source.
+	 *
+	 * @param className the name of the class (dotted form, e.g. com.foo.bar.Goo)
+	 * @param classSourceCode the full source code for the class
+	 * @return the class definitions or null if the source was not precompiled
+	 */
+	public List<CompiledClassDefinition> load(String className, String classSourceCode) {
+		if (!present) {
+			return null;
+		}
+		String key = computeKey(className, classSourceCode);
+		byte[] classes = read(LOCATION + key + "/" + CLASSES_FILE);
+		if (classes == null) {
+			logger.warn("The precompiled classes do not match the source of {}, it will be compiled at runtime",className);
+			return null;
+		}
+		List<CompiledClassDefinition> compiledClassDefinitions = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(classes), StandardCharsets.UTF_8))) {
+			String filename;
+			while ((filename = reader.readLine()) != null) {
+				if (filename.isEmpty()) {
+					continue;
+				}
+				byte[] bytes = read(LOCATION + key + "/" + filename);
+				if (bytes == null) {
+					logger.warn("Precompiled class {} is missing, {} will be compiled at runtime",filename,className);
+					return null;
+				}
+				compiledClassDefinitions.add(new CompiledClassDefinition(filename.replace('/', File.separatorChar), bytes));
+			}
+		} catch (IOException ioe) {
+			logger.warn("Unable to read the precompiled classes of {}, it will be compiled at runtime",className,ioe);
+			return null;
+		}
+		return compiledClassDefinitions;
+	}
+
+	private byte[] read(String resource) {
+		try (InputStream is = classLoader.getResourceAsStream(resource)) {
+			if (is == null) {
+				return null;
+			}
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, read);
+			}
+			return baos.toByteArray();
+		} catch (IOException ioe) {
+			logger.debug("Unable to read {}",resource,ioe);
+			return null;
+		}
+	}
+
+	/**
+	 * Write class definitions where {@link PrecompiledClasses} will find them once on the classpath.
+	 * If the output is a directory (e.g. <tt>target/classes</tt>) the definitions are added to it,
+	 * otherwise a jar is written.
+	 *
+	 * @param output a directory, or the jar file to create if its name ends with <tt>.jar</tt>
+	 * @param compilations the class definitions of each compilation, keyed by {@link #computeKey(String, String)}
+	 */
+	public static void write(File output, Map<String, List<CompiledClassDefinition>> compilations) throws IOException {
+		if (output.getName().endsWith(".jar")) {
+			try (JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+				for (Map.Entry<String, byte[]> entry: layout(compilations).entrySet()) {
+					jar.putNextEntry(new JarEntry(entry.getKey()));
+					jar.write(entry.getValue());
+					jar.closeEntry();
+				}
+			}
+		} else {
+			for (Map.Entry<String, byte[]> entry: layout(compilations).entrySet()) {
+				File file = new File(output, entry.getKey().replace('/', File.separatorChar));
+				if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+					throw new IOException("Unable to create directory "+file.getParentFile());
+				}
+				try (OutputStream os = new FileOutputStream(file)) {
+					os.write(entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the content of each resource to write, keyed by resource name
+	 */
+	private static Map<String, byte[]> layout(Map<String, List<CompiledClassDefinition>> compilations) {
+		Map<String, byte[]> resources = new LinkedHashMap<>();
+		StringBuilder keys = new StringBuilder();
+		for (Map.Entry<String, List<CompiledClassDefinition>> compilation: compilations.entrySet()) {
+			String key = compilation.getKey();
+			keys.append(key).append('\n');
+			StringBuilder classes = new StringBuilder();
+			for (CompiledClassDefinition compiledClassDefinition: compilation.getValue()) {
+				String filename = compiledClassDefinition.getName().replace(File.separatorChar, '/');
+				if (filename.startsWith("/")) {
+					filename = filename.substring(1);
+				}
+				classes.append(filename).append('\n');
+				resources.put(LOCATION + key + "/" + filename, compiledClassDefinition.getBytes());
+			}
+			resources.put(LOCATION + key + "/" + CLASSES_FILE, classes.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		resources.put(KEYS_FILE, keys.toString().getBytes(StandardCharsets.UTF_8));
+		return resources;
+	}
+
+}
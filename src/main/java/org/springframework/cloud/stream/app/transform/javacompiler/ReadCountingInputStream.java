@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adds the number of bytes read through it to some {@link CompilationStatistics}. The class files
+ * of a classpath index are shared by every compilation so they cannot hold the statistics, instead
+ * a compilation records on the thread running it and each class file counts its reads when it is
+ * opened, see {@link #countIfRecording(InputStream)}.
+ *
+ * @author Andy Clement
+ */
+public class ReadCountingInputStream extends FilterInputStream {
+
+	// The statistics of the compilation running on each thread, if it is recording reads
+	private static final ThreadLocal<CompilationStatistics> recording = new ThreadLocal<>();
+
+	private CompilationStatistics statistics;
+
+	public ReadCountingInputStream(InputStream in, CompilationStatistics statistics) {
+		super(in);
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Record the bytes of class files read by the current thread in the given statistics, until
+	 * {@link #stopRecording()} is called.
+	 */
+	public static void startRecording(CompilationStatistics statistics) {
+		recording.set(statistics);
+	}
+
+	public static void stopRecording() {
+		recording.remove();
+	}
+
+	/**
+	 * @return the stream, counting the bytes read from it if the current thread is recording
+	 */
+	static InputStream countIfRecording(InputStream in) {
+		CompilationStatistics statistics = recording.get();
+		return statistics == null ? in : new ReadCountingInputStream(in, statistics);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b != -1) {
+			statistics.addBytesRead(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int count = super.read(b, off, len);
+		if (count > 0) {
+			statistics.addBytesRead(count);
+		}
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long count = super.skip(n);
+		statistics.addBytesRead(count);
+		return count;
+	}
+
+}
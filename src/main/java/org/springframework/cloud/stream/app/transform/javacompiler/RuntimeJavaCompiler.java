@@ -17,91 +17,190 @@ package org.springframework.cloud.stream.app.transform.javacompiler;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
-import javax.tools.Diagnostic;
-import javax.tools.Diagnostic.Kind;
-import javax.tools.DiagnosticCollector;
-import javax.tools.JavaCompiler;
-import javax.tools.JavaCompiler.CompilationTask;
-import javax.tools.JavaFileObject;
-import javax.tools.ToolProvider;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
- * Compile Java source at runtime and load it.
+ * Compile Java source at runtime and load it. The compilation itself is done by a
+ * {@link CompilerBackend}, javac is used if available (i.e. running on a JDK) and
+ * otherwise the eclipse compiler, unless another is configured (e.g. one that compiles
+ * in a separate JVM).
  * 
  * @author Andy Clement
  */
 @Service
 public class RuntimeJavaCompiler {
 	
-	private JavaCompiler compiler =  ToolProvider.getSystemJavaCompiler();
-	
 	private static Logger logger = LoggerFactory.getLogger(RuntimeJavaCompiler.class);
+
+	// Created on first use, so that no compiler is loaded if another backend is configured
+	private CompilerBackend compilerBackend;
+
+	private CompiledClassCache compiledClassCache;
+
+	private PrecompiledClasses precompiledClasses;
+
+	// Shared by all compilations so the classpath is only indexed once
+	private ClasspathIndexCache classpathIndexCache = new ClasspathIndexCache();
+
+	/**
+	 * Create the compiler backend with the specified name.
+	 * 
+	 * @param name the name of the backend, one of <tt>javac</tt>, <tt>ecj</tt>, <tt>forked</tt> or <tt>server</tt>
+	 * @return the compiler backend
+	 */
+	public static CompilerBackend createCompilerBackend(String name) {
+		if (JavacCompilerBackend.NAME.equalsIgnoreCase(name)) {
+			return new JavacCompilerBackend();
+		} else if (EcjCompilerBackend.NAME.equalsIgnoreCase(name)) {
+			return new EcjCompilerBackend();
+		} else if (ForkedCompilerBackend.NAME.equalsIgnoreCase(name)) {
+			return new ForkedCompilerBackend();
+		} else if (CompileServerBackend.NAME.equalsIgnoreCase(name)) {
+			return new CompileServerBackend();
+		}
+		throw new IllegalArgumentException("Unknown compiler backend '"+name+"', should be one of "+
+				JavacCompilerBackend.NAME+", "+EcjCompilerBackend.NAME+", "+ForkedCompilerBackend.NAME+" or "+CompileServerBackend.NAME);
+	}
+
+	/**
+	 * Configure the compiler used to compile source.
+	 * 
+	 * @param compilerBackend the compiler backend to use
+	 */
+	@Autowired(required=false)
+	public synchronized void setCompilerBackend(CompilerBackend compilerBackend) {
+		this.compilerBackend = compilerBackend;
+	}
+
+	public synchronized CompilerBackend getCompilerBackend() {
+		if (this.compilerBackend == null) {
+			this.compilerBackend = JavacCompilerBackend.isAvailable()?new JavacCompilerBackend():new EcjCompilerBackend();
+		}
+		return this.compilerBackend;
+	}
+
+	/**
+	 * Configure a cache of compilation results. When set, the result of compiling some source
+	 * is stored in the cache and a later request to compile the same source (against the same
+	 * JDK and classpath) will load the classes from the cache rather than running the compiler.
+	 * 
+	 * @param compiledClassCache the cache to use, or null to always compile
+	 */
+	@Autowired(required=false)
+	public void setCompiledClassCache(CompiledClassCache compiledClassCache) {
+		this.compiledClassCache = compiledClassCache;
+	}
 	
+	/**
+	 * Configure the classes compiled ahead of time. When set, a request to compile source that was
+	 * precompiled loads the precompiled classes, no compiler is created.
+	 * 
+	 * @param precompiledClasses the precompiled classes, or null to always compile
+	 */
+	@Autowired(required=false)
+	public void setPrecompiledClasses(PrecompiledClasses precompiledClasses) {
+		this.precompiledClasses = precompiledClasses;
+	}
+
+	/**
+	 * Configure the cache of classpath indexes used when compiling. By default each compiler
+	 * has its own cache.
+	 * 
+	 * @param classpathIndexCache the cache to use
+	 */
+	@Autowired(required=false)
+	public void setClasspathIndexCache(ClasspathIndexCache classpathIndexCache) {
+		this.classpathIndexCache = classpathIndexCache;
+	}
+
 	/**
 	 * Compile the named class consisting of the supplied source code. If successful load the class
 	 * and return it. Multiple classes may get loaded if the source code included anonymous/inner/local
 	 * classes.
 	 * @param className the name of the class (dotted form, e.g. com.foo.bar.Goo)
 	 * @param classSourceCode the full source code for the class
-	 * @return a CompilationResult that encapsulates what happened during compilation (classes/messages produced)
+	 * @return a CompilationResult that encapsulates what happened during compilation (classes/messages produced, statistics)
 	 */
 	public CompilationResult compile(String className, String classSourceCode) {
-		logger.info("Compiling source for class {} using compiler {}",className,compiler.getClass().getName());
-		
-		DiagnosticCollector<JavaFileObject> diagnosticCollector = new DiagnosticCollector<JavaFileObject>();
-		MemoryBasedJavaFileManager fileManager = new MemoryBasedJavaFileManager();
-//		JavaFileObject sourceFile = new StringBasedJavaSourceFileObject(className, classSourceCode);
-		JavaFileObject sourceFile = InMemoryJavaFileObject.getSourceJavaFileObject(className, classSourceCode);
-//				new InMemoryJavaFileObject(StandardLocation.SOURCE_PATH, className, javax.tools.JavaFileObject.Kind.SOURCE, null);
-//		try (Writer w = sourceFile.openWriter()) {
-//			w.write(classSourceCode);
-//		} catch (IOException ioe) {
-//			ioe.printStackTrace();
-//		}
-		Iterable<? extends JavaFileObject> compilationUnits = Arrays.asList(sourceFile);
-		CompilationTask task = compiler.getTask(null, fileManager , diagnosticCollector, null, null, compilationUnits);
-
-		boolean success = task.call();
-		CompilationResult compilationResult = new CompilationResult(success);
-		
-		// If successful there may be no errors but there might be info/warnings
-		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnosticCollector.getDiagnostics()) {
-			CompilationMessage.Kind kind = (diagnostic.getKind()==Kind.ERROR?CompilationMessage.Kind.ERROR:CompilationMessage.Kind.OTHER);
-//			String sourceCode = ((StringBasedJavaSourceFileObject)diagnostic.getSource()).getSourceCode();
-			String sourceCode =null;
-			try {
-				sourceCode = (String)diagnostic.getSource().getCharContent(true);
-			} catch (IOException ioe) {
-				// Unexpected, but leave sourceCode null to indicate it was not retrievable
+		long stime = System.nanoTime();
+		if (precompiledClasses != null) {
+			List<CompiledClassDefinition> ccds = precompiledClasses.load(className, classSourceCode);
+			if (ccds != null) {
+				logger.info("Loading precompiled class {}",className);
+				return loaded(ccds, stime);
 			}
-			int startPosition = (int)diagnostic.getPosition();
-			if (startPosition == Diagnostic.NOPOS) {
-				startPosition = (int)diagnostic.getStartPosition();
+		}
+		String cacheKey = null;
+		if (compiledClassCache != null) {
+			cacheKey = compiledClassCache.computeKey(className, classSourceCode);
+			List<CompiledClassDefinition> ccds = compiledClassCache.load(cacheKey);
+			if (ccds != null) {
+				logger.info("Loading previously compiled class {} from cache {}",className,compiledClassCache.getCacheDirectory());
+				return loaded(ccds, stime);
 			}
-			CompilationMessage compilationMessage = new CompilationMessage(kind,diagnostic.getMessage(null),sourceCode,startPosition,(int)diagnostic.getEndPosition());
-			compilationResult.recordCompilationMessage(compilationMessage);
 		}
-		if (success) {			
-			List<CompiledClassDefinition> ccds = fileManager.getCompiledClasses();			
-			List<Class<?>> classes = new ArrayList<>();
-			try (SimpleClassLoader ccl = new SimpleClassLoader(this.getClass().getClassLoader())) {
-				for (CompiledClassDefinition ccd: ccds) {
-					Class<?> clazz = ccl.defineClass(ccd.getClassName(), ccd.getBytes());
-					classes.add(clazz);
-				}
-			} catch (IOException ioe) {
-				logger.debug("Unexpected exception defining classes",ioe);
+		CompilerBackend compilerBackend = getCompilerBackend();
+		logger.info("Compiling source for class {} using compiler {}",className,compilerBackend.getName());
+		CompilationResult compilationResult = compilerBackend.compile(className, classSourceCode, classpathIndexCache);
+		if (compilationResult.wasSuccessful()) {
+			List<CompiledClassDefinition> ccds = compilationResult.getCompiledClassDefinitions();
+			if (cacheKey != null) {
+				compiledClassCache.store(cacheKey, ccds);
 			}
-			compilationResult.setCompiledClasses(classes);
+			compilationResult.setCompiledClasses(defineClasses(ccds, compilationResult.getStatistics()));
 		}
+		compilationResult.getStatistics().setElapsedTime(System.nanoTime()-stime);
+		logger.info("Compiled class {}: {}",className,compilationResult.getStatistics());
+		return compilationResult;
+	}
+
+	/**
+	 * Discard the cached classpath indexes, the next compilation will rebuild them. This
+	 * is only necessary if the classpath has been modified in a way not detectable by
+	 * checking the size and modification time of its entries.
+	 */
+	public void invalidateClasspathIndex() {
+		classpathIndexCache.invalidate();
+	}
+
+	/**
+	 * Release any resources (open archives) held by this compiler.
+	 */
+	@PreDestroy
+	public void close() {
+		classpathIndexCache.close();
+	}
+
+	private CompilationResult loaded(List<CompiledClassDefinition> ccds, long stime) {
+		CompilationResult compilationResult = new CompilationResult(true);
+		compilationResult.getStatistics().setFromCache(true);
+		compilationResult.setCompiledClassDefinitions(ccds);
+		compilationResult.setCompiledClasses(defineClasses(ccds, compilationResult.getStatistics()));
+		compilationResult.getStatistics().setElapsedTime(System.nanoTime()-stime);
 		return compilationResult;
 	}
+
+	private List<Class<?>> defineClasses(List<CompiledClassDefinition> ccds, CompilationStatistics statistics) {
+		long stime = System.nanoTime();
+		List<Class<?>> classes = new ArrayList<>();
+		try (SimpleClassLoader ccl = new SimpleClassLoader(this.getClass().getClassLoader())) {
+			for (CompiledClassDefinition ccd: ccds) {
+				Class<?> clazz = ccl.defineClass(ccd.getClassName(), ccd.getBytes());
+				classes.add(clazz);
+			}
+		} catch (IOException ioe) {
+			logger.debug("Unexpected exception defining classes",ioe);
+		}
+		statistics.addPhaseTime(CompilationStatistics.Phase.DEFINE, System.nanoTime()-stime);
+		statistics.setClassesProduced(classes.size());
+		return classes;
+	}
 }
\ No newline at end of file
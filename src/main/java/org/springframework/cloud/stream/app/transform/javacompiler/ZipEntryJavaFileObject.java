@@ -65,7 +65,7 @@ public class ZipEntryJavaFileObject implements JavaFileObject {
 
 	@Override
 	public InputStream openInputStream() throws IOException {
-		return zf.getInputStream(ze);
+		return ReadCountingInputStream.countIfRecording(zf.getInputStream(ze));
 	}
 
 	@Override
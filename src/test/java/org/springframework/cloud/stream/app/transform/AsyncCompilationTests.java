@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Verify AsyncCompilation holds up the start of the lifecycle until the compilations have
+ * completed, and fails it if one fails.
+ *
+ * @author Andy Clement
+ */
+public class AsyncCompilationTests {
+
+	@Test
+	public void startWaitsForCompilation() throws Exception {
+		AsyncCompilation asyncCompilation = new AsyncCompilation();
+		CountDownLatch compiling = new CountDownLatch(1);
+		AtomicReference<String> installed = new AtomicReference<>();
+		asyncCompilation.submit("test", () -> {
+			try {
+				compiling.await();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			return "compiled";
+		}, installed::set);
+		Thread starter = new Thread(asyncCompilation::start);
+		starter.start();
+		starter.join(200);
+		assertTrue(starter.isAlive());
+		assertFalse(asyncCompilation.isRunning());
+		compiling.countDown();
+		starter.join(5000);
+		assertTrue(asyncCompilation.isRunning());
+		assertEquals("compiled",installed.get());
+		assertTrue(asyncCompilation.getWaitTime() >= 0);
+	}
+
+	@Test
+	public void failedCompilationFailsStart() throws Exception {
+		AsyncCompilation asyncCompilation = new AsyncCompilation();
+		asyncCompilation.submit("test", () -> null, result -> fail("Nothing to install"));
+		try {
+			asyncCompilation.start();
+			fail("Expected the start to fail");
+		} catch (IllegalStateException ise) {
+			assertEquals("Failed to compile test",ise.getCause().getMessage());
+		}
+		assertFalse(asyncCompilation.isRunning());
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.rabbitmq.client.Channel;
+
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+
+/**
+ * Verify a BatchingReactiveProcessor passes on batches bounded by size and time, and
+ * acknowledges each batch as a unit.
+ *
+ * @author Andy Clement
+ */
+public class BatchingReactiveProcessorTests {
+
+	@Test
+	public void batchesBySize() throws Exception {
+		BatchingReactiveProcessor processor = new BatchingReactiveProcessor(in -> in, 3, 10000);
+		List<Object> output = processor.apply(Flux.range(1, 7).map(i -> (Object)i)).collectList().block();
+		assertEquals("[[1, 2, 3], [4, 5, 6], [7]]",output.toString());
+	}
+
+	@Test
+	public void batchesByTime() throws Exception {
+		BatchingReactiveProcessor processor = new BatchingReactiveProcessor(in -> in, 100, 200);
+		DirectProcessor<Object> input = DirectProcessor.create();
+		List<Object> output = new ArrayList<>();
+		processor.apply(input).subscribe(output::add);
+		input.onNext(1);
+		input.onNext(2);
+		Thread.sleep(1000);
+		synchronized (output) {
+			assertEquals("[[1, 2]]",output.toString());
+		}
+		input.onComplete();
+	}
+
+	@Test
+	public void acknowledgedPerBatch() throws Exception {
+		Channel channel1 = mock(Channel.class);
+		Channel channel2 = mock(Channel.class);
+		BatchAcknowledgementInterceptor interceptor = new BatchAcknowledgementInterceptor();
+		List<Object> input = new ArrayList<>();
+		for (long tag = 1; tag <= 4; tag++) {
+			input.add(interceptor.preSend(message("a"+tag, channel1, tag), null).getPayload());
+		}
+		input.add(interceptor.preSend(message("b1", channel2, 1), null).getPayload());
+		input.add(interceptor.preSend(message("a5", channel1, 5), null).getPayload());
+		BatchingReactiveProcessor processor = new BatchingReactiveProcessor(in -> in, 4, 10000);
+		List<Object> output = processor.apply(Flux.fromIterable(input)).collectList().block();
+		assertEquals("[[a1, a2, a3, a4], [b1, a5]]",output.toString());
+		// One acknowledgement per batch per channel, covering the earlier deliveries
+		verify(channel1).basicAck(4, true);
+		verify(channel1).basicAck(5, true);
+		verify(channel2).basicAck(1, true);
+		verifyNoMoreInteractions(channel1, channel2);
+	}
+
+	@Test
+	public void acknowledgedOnceProcessed() throws Exception {
+		Channel channel = mock(Channel.class);
+		BatchAcknowledgementInterceptor interceptor = new BatchAcknowledgementInterceptor();
+		DirectProcessor<Object> input = DirectProcessor.create();
+		DirectProcessor<Object> lateOutput = DirectProcessor.create();
+		// Emits its output for the batch later, asynchronously
+		BatchingReactiveProcessor processor = new BatchingReactiveProcessor(in -> in.concatMap(batch -> lateOutput.take(1)), 2, 10000);
+		List<Object> output = new ArrayList<>();
+		processor.apply(input).subscribe(output::add);
+		input.onNext(interceptor.preSend(message("a1", channel, 1), null).getPayload());
+		input.onNext(interceptor.preSend(message("a2", channel, 2), null).getPayload());
+		// Handed to the code but not yet processed
+		verifyNoMoreInteractions(channel);
+		lateOutput.onNext("done");
+		assertEquals("[done]",output.toString());
+		verify(channel).basicAck(2, true);
+		verifyNoMoreInteractions(channel);
+	}
+
+	@Test
+	public void rejectedIfProcessingFails() throws Exception {
+		Channel channel = mock(Channel.class);
+		BatchAcknowledgementInterceptor interceptor = new BatchAcknowledgementInterceptor();
+		List<Object> input = new ArrayList<>();
+		for (long tag = 1; tag <= 4; tag++) {
+			input.add(interceptor.preSend(message("a"+tag, channel, tag), null).getPayload());
+		}
+		BatchingReactiveProcessor processor = new BatchingReactiveProcessor(in -> in.map(batch -> {
+			if (((List<?>)batch).contains("a1")) {
+				throw new IllegalStateException("failed");
+			}
+			return batch;
+		}), 2, 10000);
+		List<Object> output = processor.apply(Flux.fromIterable(input)).collectList().block();
+		// The failed batch is requeued, the next one still processed
+		assertEquals("[[a3, a4]]",output.toString());
+		verify(channel).basicNack(1, false, true);
+		verify(channel).basicNack(2, false, true);
+		verify(channel).basicAck(4, true);
+		verifyNoMoreInteractions(channel);
+	}
+
+	@Test
+	public void concurrentBatchesAcknowledgedInOrder() throws Exception {
+		Channel channel = mock(Channel.class);
+		BatchAcknowledgementInterceptor interceptor = new BatchAcknowledgementInterceptor();
+		DirectProcessor<Object> input = DirectProcessor.create();
+		DirectProcessor<Object> firstOutput = DirectProcessor.create();
+		// The first batch completes after the second
+		BatchingReactiveProcessor processor = new BatchingReactiveProcessor(in -> in.concatMap(batch ->
+				((List<?>)batch).contains("a1") ? firstOutput.take(1) : Flux.just(batch)), 1, 10000, 2);
+		List<Object> output = new ArrayList<>();
+		processor.apply(input).subscribe(output::add);
+		input.onNext(interceptor.preSend(message("a1", channel, 1), null).getPayload());
+		input.onNext(interceptor.preSend(message("a2", channel, 2), null).getPayload());
+		// The second batch must not be acknowledged, that would also acknowledge the first
+		verifyNoMoreInteractions(channel);
+		firstOutput.onNext("first");
+		assertEquals("[first, [a2]]",output.toString());
+		verify(channel).basicAck(1, true);
+		verify(channel).basicAck(2, true);
+		verifyNoMoreInteractions(channel);
+	}
+
+	@Test
+	public void unacknowledgeableMessagesUnchanged() throws Exception {
+		Message<?> message = new GenericMessage<String>("a");
+		assertSame(message, new BatchAcknowledgementInterceptor().preSend(message, null));
+		assertEquals(Arrays.asList(Arrays.asList("a")),
+				new BatchingReactiveProcessor(in -> in, 4, 10000).apply(Flux.just("a")).collectList().block());
+	}
+
+	private static Message<?> message(String payload, Channel channel, long deliveryTag) {
+		return MessageBuilder.withPayload(payload).setHeader(AmqpHeaders.CHANNEL, channel)
+				.setHeader(AmqpHeaders.DELIVERY_TAG, deliveryTag).build();
+	}
+
+}
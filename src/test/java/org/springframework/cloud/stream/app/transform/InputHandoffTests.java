@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.support.GenericMessage;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.UnicastProcessor;
+
+/**
+ * Verify an InputHandoff bounds the number of messages waiting for the code, frees the space
+ * of those the code drops, and requests elements in batches of the prefetch size.
+ *
+ * @author Andy Clement
+ */
+public class InputHandoffTests {
+
+	@Test
+	public void prefetchLimitsRequests() throws Exception {
+		InputHandoff handoff = new InputHandoff(0, 10, 1000);
+		List<Object> output = handoff.apply(Flux.range(1, 100).map(i -> (Object)i)).collectList().block();
+		assertEquals(100,output.size());
+		// Replenished as the elements are taken, rather than one unbounded request
+		assertTrue(handoff.getRequested() >= 100);
+		assertTrue(handoff.getRequested() < 200);
+	}
+
+	@Test
+	public void capacityBlocksSender() throws Exception {
+		InputHandoff handoff = new InputHandoff(2, 0, 10000);
+		UnicastProcessor<Object> queue = UnicastProcessor.create();
+		CountDownLatch sent = new CountDownLatch(3);
+		Thread sender = new Thread(() -> {
+			for (int i = 0; i < 3; i++) {
+				queue.onNext(handoff.preSend(new GenericMessage<Integer>(i), null).getPayload());
+				sent.countDown();
+			}
+		});
+		sender.start();
+		// Nothing has taken the first two, so the third waits
+		assertFalse(sent.await(500, TimeUnit.MILLISECONDS));
+		assertEquals(2,handoff.getWaiting());
+		List<Object> output = new ArrayList<>();
+		handoff.apply(queue).subscribe(output::add);
+		assertTrue(sent.await(5, TimeUnit.SECONDS));
+		sender.join();
+		assertEquals(0,handoff.getWaiting());
+		assertEquals("[0, 1, 2]",output.toString());
+	}
+
+	@Test
+	public void senderTimesOut() throws Exception {
+		InputHandoff handoff = new InputHandoff(1, 0, 100);
+		handoff.preSend(new GenericMessage<Integer>(0), null);
+		try {
+			handoff.preSend(new GenericMessage<Integer>(1), null);
+			fail();
+		} catch (MessageDeliveryException mde) {
+			// Nothing took the first
+		}
+		assertEquals(1,handoff.getWaiting());
+	}
+
+	@Test
+	public void spaceFreedOnCancel() throws Exception {
+		InputHandoff handoff = new InputHandoff(4, 2, 100);
+		UnicastProcessor<Object> queue = UnicastProcessor.create();
+		List<Object> output = new ArrayList<>();
+		handoff.apply(queue).take(1).subscribe(output::add);
+		for (int i = 0; i < 4; i++) {
+			queue.onNext(handoff.preSend(new GenericMessage<Integer>(i), null).getPayload());
+		}
+		assertEquals("[0]",output.toString());
+		// Those passed on but not taken, and those arriving later, are dropped
+		assertEquals(0,handoff.getWaiting());
+		for (int i = 4; i < 8; i++) {
+			queue.onNext(handoff.preSend(new GenericMessage<Integer>(i), null).getPayload());
+		}
+		assertEquals(0,handoff.getWaiting());
+	}
+
+	@Test
+	public void spaceFreedOnError() throws Exception {
+		InputHandoff handoff = new InputHandoff(4, 2, 100);
+		UnicastProcessor<Object> queue = UnicastProcessor.create();
+		for (int i = 0; i < 3; i++) {
+			queue.onNext(handoff.preSend(new GenericMessage<Integer>(i), null).getPayload());
+		}
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		handoff.apply(queue).map(element -> {
+			throw new IllegalStateException("failed on "+element);
+		}).subscribe(element -> {}, error::set);
+		assertEquals("failed on 0",error.get().getMessage());
+		assertEquals(0,handoff.getWaiting());
+		// There is space for a full queue again
+		for (int i = 0; i < 4; i++) {
+			handoff.preSend(new GenericMessage<Integer>(i), null);
+		}
+	}
+
+	@Test
+	public void metricsReadOnly() throws Exception {
+		InputHandoffMetrics metrics = new InputHandoffMetrics(0, 10, 1000);
+		metrics.getHandoff("input").apply(Flux.range(1, 100).map(i -> (Object)i)).collectList().block();
+		Map<String, Number> first = values(metrics);
+		// Available without a previous read to measure from
+		assertTrue(first.containsKey("handoff.input.requestRate"));
+		assertEquals(first.get("handoff.input.requested"),values(metrics).get("handoff.input.requested"));
+	}
+
+	private static Map<String, Number> values(InputHandoffMetrics metrics) {
+		Map<String, Number> values = new HashMap<>();
+		for (Metric<?> metric: metrics.metrics()) {
+			values.put(metric.getName(), metric.getValue());
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Verify a KeyedReactiveProcessor preserves the order of the elements sharing a key whilst
+ * processing different keys concurrently.
+ *
+ * @author Andy Clement
+ */
+public class KeyedReactiveProcessorTests {
+
+	private ThreadPoolExecutor executor;
+
+	private Scheduler scheduler;
+
+	@Before
+	public void setup() {
+		// The rails run on the same kind of pool as in the application
+		executor = ParallelReactiveProcessor.createExecutor("parallel", "test", 4, 0, 60000);
+		scheduler = Schedulers.fromExecutorService(executor);
+	}
+
+	@After
+	public void teardown() {
+		scheduler.shutdown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void orderPreservedPerKey() throws Exception {
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		// Elements are "key:sequence", the key is the part before the colon
+		KeyedReactiveProcessor processor = new KeyedReactiveProcessor(in -> in.map(s -> {
+			threads.add(Thread.currentThread().getName());
+			return s;
+		}), 4, s -> s.toString().split(":")[0], scheduler);
+		List<Object> output = processor.apply(Flux.range(0, 1000).map(i -> (Object)("account"+(i%10)+":"+i))).collectList().block();
+		assertEquals(1000,output.size());
+		Map<String,Integer> lastSequence = new ConcurrentHashMap<>();
+		for (Object o: output) {
+			String[] keyAndSequence = o.toString().split(":");
+			int sequence = Integer.parseInt(keyAndSequence[1]);
+			Integer last = lastSequence.put(keyAndSequence[0], sequence);
+			assertTrue(last == null || last < sequence);
+		}
+		assertEquals(10,lastSequence.size());
+		assertTrue(threads.size() > 1);
+		assertFalse(threads.contains(Thread.currentThread().getName()));
+	}
+
+	@Test
+	public void keysFromHeaders() throws Exception {
+		PartitionKeyHeaderInterceptor interceptor = new PartitionKeyHeaderInterceptor("account");
+		List<Object> input = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			Message<?> message = MessageBuilder.withPayload(i).setHeader("account", "account"+(i%3)).build();
+			input.add(interceptor.preSend(message, null).getPayload());
+		}
+		KeyedReactiveProcessor processor = new KeyedReactiveProcessor(in -> in.map(i -> ((Integer)i)*10), 4, null, scheduler);
+		List<Object> output = processor.apply(Flux.fromIterable(input)).collectList().block();
+		assertEquals(100,output.size());
+		int[] last = new int[] {-1,-1,-1};
+		for (Object o: output) {
+			int i = ((Integer)o)/10;
+			assertTrue(last[i%3] < i);
+			last[i%3] = i;
+		}
+	}
+
+	@Test
+	public void lanes() throws Exception {
+		KeyedReactiveProcessor processor = new KeyedReactiveProcessor(in -> in, 4, s -> s, scheduler);
+		assertEquals(processor.laneOf("a"),processor.laneOf("a"));
+		assertNotEquals(processor.laneOf(1),processor.laneOf(2));
+		assertEquals(0,processor.laneOf(new KeyedReactiveProcessor.KeyedPayload(null, "a")));
+		assertEquals(processor.laneOf(Integer.MIN_VALUE+1),processor.laneOf(new KeyedReactiveProcessor.KeyedPayload(Integer.MIN_VALUE+1, "a")));
+	}
+
+}
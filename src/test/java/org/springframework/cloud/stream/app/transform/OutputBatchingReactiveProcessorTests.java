@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+
+/**
+ * Verify an OutputBatchingReactiveProcessor passes on each output individually, that the sizes
+ * and latencies of the batches the binder publishes are recorded, and that confirms are counted.
+ *
+ * @author Andy Clement
+ */
+public class OutputBatchingReactiveProcessorTests {
+
+	@Test
+	public void batchesBySize() throws Exception {
+		OutputBatchMetrics metrics = new OutputBatchMetrics(3, 10000);
+		OutputBatchingReactiveProcessor processor = new OutputBatchingReactiveProcessor(in -> in.map(i -> ((Integer)i)*10));
+		List<Message<?>> published = new ArrayList<>();
+		DirectChannel output = output(metrics, published);
+		processor.apply(Flux.range(1, 7).map(i -> (Object)i)).doOnNext(message -> output.send((Message<?>)message)).blockLast();
+		// Each output is sent on its own, without the emission time
+		assertEquals(7,published.size());
+		assertEquals(10,published.get(0).getPayload());
+		assertEquals(70,published.get(6).getPayload());
+		assertFalse(published.get(0).getHeaders().containsKey(OutputBatchMetrics.EMITTED_HEADER));
+		// The last output is still waiting for its batch to fill
+		Map<String, Number> values = values(metrics);
+		assertEquals(2L,values.get("output.batches"));
+		assertEquals(6L,values.get("output.messages"));
+		assertEquals(3,values.get("output.batchSize.last"));
+	}
+
+	@Test
+	public void lingerBoundsLatency() throws Exception {
+		OutputBatchMetrics metrics = new OutputBatchMetrics(100, 200);
+		OutputBatchingReactiveProcessor processor = new OutputBatchingReactiveProcessor(in -> in);
+		DirectChannel output = output(metrics, new ArrayList<>());
+		DirectProcessor<Object> input = DirectProcessor.create();
+		processor.apply(input).subscribe(message -> output.send((Message<?>)message));
+		input.onNext(1);
+		input.onNext(2);
+		assertEquals(0L,values(metrics).get("output.batches"));
+		Thread.sleep(1000);
+		input.onComplete();
+		// Published once no output arrived for the linger time
+		Map<String, Number> values = values(metrics);
+		assertEquals(1L,values.get("output.batches"));
+		assertEquals(2,values.get("output.batchSize.last"));
+		assertTrue(values.get("output.latency.max").doubleValue() >= 200);
+		assertTrue(values.get("output.latency.max").doubleValue() < 1000);
+	}
+
+	@Test
+	public void latencyIncludesPublishing() throws Exception {
+		OutputBatchMetrics metrics = new OutputBatchMetrics(1, 10000);
+		OutputBatchingReactiveProcessor processor = new OutputBatchingReactiveProcessor(in -> in);
+		DirectChannel output = new DirectChannel();
+		output.addInterceptor(metrics);
+		// A slow publish
+		output.subscribe(message -> {
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		processor.apply(Flux.just((Object)1)).doOnNext(message -> output.send((Message<?>)message)).blockLast();
+		assertTrue(values(metrics).get("output.latency.max").doubleValue() >= 250);
+	}
+
+	@Test
+	public void outputsOfEachChannelBatchedSeparately() throws Exception {
+		OutputBatchMetrics metrics = new OutputBatchMetrics(2, 10000);
+		OutputBatchingReactiveProcessor processor = new OutputBatchingReactiveProcessor(in -> in);
+		DirectChannel first = output(metrics, new ArrayList<>());
+		DirectChannel second = output(metrics, new ArrayList<>());
+		List<Object> outputs = processor.apply(Flux.range(1, 3).map(i -> (Object)i)).collectList().block();
+		first.send((Message<?>)outputs.get(0));
+		second.send((Message<?>)outputs.get(1));
+		assertEquals(0L,values(metrics).get("output.batches"));
+		first.send((Message<?>)outputs.get(2));
+		// Only the first channel has filled a batch
+		assertEquals(1L,values(metrics).get("output.batches"));
+		assertEquals(2L,values(metrics).get("output.messages"));
+	}
+
+	private static DirectChannel output(OutputBatchMetrics metrics, List<Message<?>> published) {
+		DirectChannel output = new DirectChannel();
+		output.addInterceptor(metrics);
+		output.subscribe(message -> {
+			synchronized (published) {
+				published.add(message);
+			}
+		});
+		return output;
+	}
+
+	@Test
+	public void confirmsCounted() throws Exception {
+		OutputBatchMetrics metrics = new OutputBatchMetrics(10, 100);
+		Channel channel = mock(Channel.class);
+		metrics.onCreate(channel, false);
+		ArgumentCaptor<ConfirmListener> listener = ArgumentCaptor.forClass(ConfirmListener.class);
+		verify(channel).addConfirmListener(listener.capture());
+		listener.getValue().handleAck(1, false);
+		listener.getValue().handleAck(4, true);
+		listener.getValue().handleNack(5, false);
+		assertEquals(4,metrics.getConfirmed());
+		assertEquals(1,metrics.getNacked());
+	}
+
+	private static Map<String, Number> values(OutputBatchMetrics metrics) {
+		Map<String, Number> values = new HashMap<>();
+		for (Metric<?> metric: metrics.metrics()) {
+			values.put(metric.getName(), metric.getValue());
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.boot.actuate.metrics.Metric;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Verify the outputs of a ParallelReactiveProcessor are complete, and in order when requested.
+ *
+ * @author Andy Clement
+ */
+public class ParallelReactiveProcessorTests {
+
+	private ThreadPoolExecutor executor;
+
+	private Scheduler scheduler;
+
+	@Before
+	public void setup() {
+		// The rails run on the same kind of pool as in the application
+		executor = ParallelReactiveProcessor.createExecutor("parallel", "test", 4, 0, 60000);
+		scheduler = Schedulers.fromExecutorService(executor);
+	}
+
+	@After
+	public void teardown() {
+		scheduler.shutdown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void unordered() throws Exception {
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		ParallelReactiveProcessor processor = new ParallelReactiveProcessor(in -> in.map(i -> {
+			threads.add(Thread.currentThread().getName());
+			return ((Integer)i)*10;
+		}), 4, false, 16, scheduler);
+		List<Object> output = new ArrayList<>(processor.apply(Flux.range(0, 1000).map(i -> (Object)i)).collectList().block());
+		assertEquals(1000,output.size());
+		Collections.sort(output, (a, b) -> ((Integer)a).compareTo((Integer)b));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i*10,output.get(i));
+		}
+		assertTrue(threads.size() > 1);
+		assertFalse(threads.contains(Thread.currentThread().getName()));
+	}
+
+	@Test
+	public void ordered() throws Exception {
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		ParallelReactiveProcessor processor = new ParallelReactiveProcessor(in -> in.map(i -> {
+			threads.add(Thread.currentThread().getName());
+			return ((Integer)i)*10;
+		}), 4, true, 16, scheduler);
+		List<Object> output = processor.apply(Flux.range(0, 1000).map(i -> (Object)i)).collectList().block();
+		assertEquals(1000,output.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i*10,output.get(i));
+		}
+		assertTrue(threads.size() > 1);
+		assertFalse(threads.contains(Thread.currentThread().getName()));
+	}
+
+	@Test
+	public void orderedBatchesAreSeparateSequences() throws Exception {
+		ParallelReactiveProcessor processor = new ParallelReactiveProcessor(in -> in.buffer(3).map(list -> list.size()),
+				4, true, 5, scheduler);
+		List<Object> output = processor.apply(Flux.range(0, 12).map(i -> (Object)i)).collectList().block();
+		// Batches of 5,5,2 each buffered into threes
+		assertEquals(5,output.size());
+		assertEquals("[3, 2, 3, 2, 2]",output.toString());
+	}
+
+	@Test
+	public void errorsArePropagated() throws Exception {
+		ParallelReactiveProcessor processor = new ParallelReactiveProcessor(in -> in.map(i -> 10/(Integer)i),
+				4, true, 5, scheduler);
+		try {
+			processor.apply(Flux.range(-20, 40).map(i -> (Object)i)).collectList().block();
+			fail("Expected the division by zero to fail the output");
+		} catch (ArithmeticException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void orderedCancellationStopsBatches() throws Exception {
+		AtomicInteger processed = new AtomicInteger();
+		ParallelReactiveProcessor processor = new ParallelReactiveProcessor(in -> in.map(i -> {
+			processed.incrementAndGet();
+			return i;
+		}), 4, true, 16, scheduler);
+		List<Object> output = processor.apply(Flux.range(0, Integer.MAX_VALUE).map(i -> (Object)i)).take(50).collectList().block();
+		assertEquals(50,output.size());
+		assertEquals(49,output.get(49));
+		Thread.sleep(200);
+		int afterCancel = processed.get();
+		Thread.sleep(200);
+		// Nothing is still subscribed to the batches in progress when the output was cancelled
+		assertEquals(afterCancel,processed.get());
+	}
+
+	@Test
+	public void fullQueueWaitsForSpace() throws Exception {
+		ThreadPoolExecutor executor = ParallelReactiveProcessor.createExecutor("parallel", "test", 1, 1, 5000);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			executor.execute(() -> await(release));
+			executor.execute(() -> {});
+			// The only thread is busy and the queue is full, the submitting thread waits until it is released
+			String[] thread = new String[1];
+			CountDownLatch ran = new CountDownLatch(1);
+			new Thread(() -> {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+				release.countDown();
+			}).start();
+			long start = System.nanoTime();
+			executor.execute(() -> {
+				thread[0] = Thread.currentThread().getName();
+				ran.countDown();
+			});
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+			assertTrue(ran.await(5, TimeUnit.SECONDS));
+			assertEquals("test-1",thread[0]);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void fullQueueRejectsAfterTimeout() throws Exception {
+		ThreadPoolExecutor executor = ParallelReactiveProcessor.createExecutor("parallel", "test", 1, 1, 100);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release));
+			executor.execute(() -> {});
+			AtomicInteger ran = new AtomicInteger();
+			try {
+				executor.execute(ran::incrementAndGet);
+				fail("Expected the task to be rejected");
+			} catch (RejectedExecutionException ree) {
+				// expected
+			}
+			assertEquals(0,ran.get());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void fullQueuePoolThreadRunsTaskItself() throws Exception {
+		ThreadPoolExecutor executor = ParallelReactiveProcessor.createExecutor("parallel", "test", 1, 1, 60000);
+		try {
+			Future<String> submitter = executor.submit(() -> {
+				// The only thread of the pool fills the queue, waiting for space would wait for itself
+				executor.execute(() -> {});
+				String[] thread = new String[1];
+				executor.execute(() -> thread[0] = Thread.currentThread().getName());
+				return thread[0];
+			});
+			assertEquals("test-1",submitter.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void fullQueueKeepsRailsOnPool() throws Exception {
+		// A queue of one task fills at once, the rails still complete and the code never runs on the caller
+		ThreadPoolExecutor smallQueueExecutor = ParallelReactiveProcessor.createExecutor("parallel", "small", 2, 1, 60000);
+		Scheduler smallQueueScheduler = Schedulers.fromExecutorService(smallQueueExecutor);
+		try {
+			for (boolean ordered: new boolean[] { false, true }) {
+				Set<String> threads = ConcurrentHashMap.newKeySet();
+				ParallelReactiveProcessor processor = new ParallelReactiveProcessor(in -> in.map(i -> {
+					threads.add(Thread.currentThread().getName());
+					return i;
+				}), 4, ordered, 16, smallQueueScheduler);
+				List<Object> output = processor.apply(Flux.range(0, 1000).map(i -> (Object)i)).collectList().block();
+				assertEquals(1000,output.size());
+				for (String thread: threads) {
+					assertTrue(thread, thread.startsWith("small-"));
+				}
+			}
+		} finally {
+			smallQueueScheduler.shutdown();
+			smallQueueExecutor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void poolSizeDefaults() throws Exception {
+		int processors = Runtime.getRuntime().availableProcessors();
+		assertEquals(processors,ParallelReactiveProcessor.poolSize("parallel", 0));
+		assertEquals(processors*10,ParallelReactiveProcessor.poolSize("elastic", 0));
+		assertEquals(3,ParallelReactiveProcessor.poolSize("elastic", 3));
+	}
+
+	@Test
+	public void boundedExecutorRunsUnorderedRails() throws Exception {
+		ThreadPoolExecutor executor = ParallelReactiveProcessor.createExecutor("elastic", "test", 2, 4, 60000);
+		Scheduler boundedScheduler = Schedulers.fromExecutorService(executor);
+		try {
+			Set<String> threads = ConcurrentHashMap.newKeySet();
+			ParallelReactiveProcessor processor = new ParallelReactiveProcessor(in -> in.map(i -> {
+				threads.add(Thread.currentThread().getName());
+				return ((Integer)i)*10;
+			}), 2, false, 256, boundedScheduler);
+			List<Object> output = processor.apply(Flux.range(0, 1000).map(i -> (Object)i)).collectList().block();
+			assertEquals(1000,output.size());
+			assertEquals(2,executor.getMaximumPoolSize());
+			for (String thread: threads) {
+				assertTrue(thread, thread.startsWith("test-"));
+			}
+			SchedulerMetrics metrics = new SchedulerMetrics();
+			metrics.register("test", executor);
+			Map<String, Number> values = new HashMap<>();
+			for (Metric<?> metric: metrics.metrics()) {
+				values.put(metric.getName(), metric.getValue());
+			}
+			assertEquals(2,values.get("scheduler.test.maxPoolSize"));
+			assertTrue(values.get("scheduler.test.completed").longValue() > 0);
+		} finally {
+			boundedScheduler.shutdown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void unknownExecutor() throws Exception {
+		ParallelReactiveProcessor.createExecutor("foo", "test", 2, 0, 60000);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
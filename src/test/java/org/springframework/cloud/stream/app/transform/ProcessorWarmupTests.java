@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Verify a ProcessorWarmup runs the expected payloads through a processor and publishes the results.
+ *
+ * @author Andy Clement
+ */
+public class ProcessorWarmupTests {
+
+	@Test
+	public void samples() throws Exception {
+		ProcessorWarmup warmup = new ProcessorWarmup(10, Arrays.asList("3","4"), Long.class, 0, 5000);
+		AtomicInteger sum = new AtomicInteger();
+		warmup.warmUp("input", input -> input.map(l -> sum.addAndGet(((Long)l).intValue())));
+		assertEquals(35,sum.get());
+		Map<String, Object> metrics = metrics(warmup);
+		assertEquals(10,metrics.get("warmup.input.messages"));
+		assertEquals(10L,metrics.get("warmup.input.outputs"));
+	}
+
+	@Test
+	public void batches() throws Exception {
+		ProcessorWarmup warmup = new ProcessorWarmup(10, Collections.emptyList(), Object.class, 4, 5000);
+		warmup.warmUp("input", input -> input.map(batch -> ((List<?>)batch).size()));
+		assertEquals(3L,metrics(warmup).get("warmup.input.outputs"));
+	}
+
+	@Test
+	public void generatedPayloads() throws Exception {
+		assertEquals(Arrays.asList(0L,1L,2L),new ProcessorWarmup(3, Collections.emptyList(), Long.class, 0, 5000).createPayloads());
+		assertEquals(Arrays.asList("0","1"),new ProcessorWarmup(2, Collections.emptyList(), String.class, 0, 5000).createPayloads());
+		// Nothing to generate a POJO from
+		assertNull(new ProcessorWarmup(2, Collections.emptyList(), Thread.class, 0, 5000).createPayloads());
+	}
+
+	@Test
+	public void failureIsNotFatal() throws Exception {
+		ProcessorWarmup warmup = new ProcessorWarmup(10, Collections.emptyList(), Object.class, 0, 5000);
+		warmup.warmUp("input", input -> input.map(s -> ((Integer)s)*2));
+		assertTrue(warmup.metrics().isEmpty());
+	}
+
+	private static Map<String, Object> metrics(ProcessorWarmup warmup) {
+		Map<String, Object> metrics = new HashMap<>();
+		for (Metric<?> metric: warmup.metrics()) {
+			metrics.put(metric.getName(), metric.getValue());
+		}
+		return metrics;
+	}
+
+}
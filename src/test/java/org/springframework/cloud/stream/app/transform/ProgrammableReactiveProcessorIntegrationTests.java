@@ -16,19 +16,34 @@
 
 package org.springframework.cloud.stream.app.transform;
 
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
 import static org.springframework.cloud.stream.test.matcher.MessageQueueMatcher.receivesPayloadThat;
 
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.MetricsEndpoint;
 import org.springframework.boot.test.SpringApplicationConfiguration;
 import org.springframework.boot.test.WebIntegrationTest;
 import org.springframework.cloud.stream.annotation.Bindings;
 import org.springframework.cloud.stream.messaging.Processor;
 import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
@@ -53,8 +68,13 @@ public abstract class ProgrammableReactiveProcessorIntegrationTests {
 	
 	@WebIntegrationTest({"code=return input -> input.buffer(5).map(list->list.get(4));"})
 	public static class BasicIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Autowired
+		private ReactiveTransformer reactiveTransformer;
+
 		@Test
 		public void testBasic() {
+			// Without reloading the processor is not wrapped to allow it to be replaced
+			assertThat(reactiveTransformer.processor() instanceof SwappableReactiveProcessor, is(false));
 			channels.input().send(new GenericMessage<Object>(100));
 			channels.input().send(new GenericMessage<Object>(200));
 			channels.input().send(new GenericMessage<Object>(300));
@@ -96,6 +116,272 @@ public abstract class ProgrammableReactiveProcessorIntegrationTests {
 		}
 	}
 	
+	@WebIntegrationTest({"code=return input -> input.buffer(3).map(list->list.size());","reloadEnabled=true"})
+	public static class ReloadIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+
+		@Autowired
+		private ReloadEndpoint reloadEndpoint;
+
+		@Autowired
+		private MetricsEndpoint metricsEndpoint;
+
+		@Test
+		public void testReload() {
+			channels.input().send(new GenericMessage<Object>(100));
+			channels.input().send(new GenericMessage<Object>(200));
+			Map<String, Object> result = reloadEndpoint.reload(null, "return input -> input.map(i->((Integer)i)+1);");
+			assertThat(result.get("successful"), is((Object)true));
+			// The partial buffer is flushed when the code is replaced
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(2)));
+			channels.input().send(new GenericMessage<Object>(300));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(301)));
+			assertThat(reloadEndpoint.status().get("swapCount"), is((Object)1));
+			assertThat((Long)reloadEndpoint.status().get("lastSwapLatency"), greaterThanOrEqualTo(0L));
+
+			// Bad code is rejected and the current code is left in place
+			result = reloadEndpoint.reload(null, "return input -> input.map(i->i+1);");
+			assertThat(result.get("successful"), is((Object)false));
+			channels.input().send(new GenericMessage<Object>(400));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(401)));
+
+			// Each compilation is recorded in the metrics
+			Map<String, Object> metrics = metricsEndpoint.invoke();
+			assertThat(metrics.get("compiler.compilations"), is((Object)3L));
+			assertThat(metrics.get("compiler.last.classesProduced"), is((Object)0L));
+			assertThat((Long)metrics.get("compiler.total.classesProduced"), greaterThan(0L));
+			assertThat((Long)metrics.get("compiler.total.listCalls"), greaterThan(0L));
+		}
+	}
+
+	@WebIntegrationTest({"processors.upper=return input -> input.map(s->s.toString().toUpperCase());",
+		"processors.sum=return input -> input.map(s->Integer.valueOf(s.toString())).buffer(2).map(is->{int sum=0;for (int i: is) sum+=i; return sum;});",
+		"reloadEnabled=true"})
+	public static class NamedProcessorsIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+
+		@Autowired
+		private NamedProcessors namedProcessors;
+
+		@Autowired
+		private ReactiveTransformer reactiveTransformer;
+
+		@Test
+		public void testNamedProcessors() {
+			assertThat(namedProcessors.getInputs(), is((Object)new LinkedHashSet<>(Arrays.asList("upper-input","sum-input"))));
+			namedProcessors.getInputChannel("upper").send(new GenericMessage<Object>("hello"));
+			namedProcessors.getInputChannel("sum").send(new GenericMessage<Object>("1"));
+			namedProcessors.getInputChannel("sum").send(new GenericMessage<Object>("2"));
+			assertThat(collector.forChannel(namedProcessors.getOutputChannel("upper")), receivesPayloadThat(is("HELLO")));
+			assertThat(collector.forChannel(namedProcessors.getOutputChannel("sum")), receivesPayloadThat(is(3)));
+
+			// Each processor is isolated in its own class loader
+			ClassLoader upperLoader = ((SwappableReactiveProcessor)namedProcessors.getProcessor("upper")).getDelegate().getClass().getClassLoader();
+			ClassLoader sumLoader = ((SwappableReactiveProcessor)namedProcessors.getProcessor("sum")).getDelegate().getClass().getClassLoader();
+			assertThat(upperLoader == sumLoader, is(false));
+
+			reactiveTransformer.reload("upper", "return input -> input.map(s->s.toString().toLowerCase());");
+			namedProcessors.getInputChannel("upper").send(new GenericMessage<Object>("WORLD"));
+			assertThat(collector.forChannel(namedProcessors.getOutputChannel("upper")), receivesPayloadThat(is("world")));
+		}
+	}
+
+	@WebIntegrationTest({"code=return input -> input.map(s->((Integer)s)*10);",
+			"parallelism=3","parallelOrdered=true","parallelBatchSize=2"})
+	public static class ParallelIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Test
+		public void testOrdered() {
+			for (int i = 1; i <= 6; i++) {
+				channels.input().send(new GenericMessage<Integer>(i));
+			}
+			for (int i = 1; i <= 6; i++) {
+				assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(i*10)));
+			}
+		}
+	}
+
+	@WebIntegrationTest({"code=return input -> input.map(s->((Integer)s)*10);",
+			"parallelism=3","partitionKeyHeader=account"})
+	public static class KeyedIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Test
+		public void testOrderedPerKey() throws Exception {
+			for (int i = 0; i < 30; i++) {
+				channels.input().send(MessageBuilder.withPayload(i).setHeader("account", "account"+(i%3)).build());
+			}
+			int[] last = new int[] {-1,-1,-1};
+			for (int i = 0; i < 30; i++) {
+				Message<?> message = collector.forChannel(channels.output()).poll(10, TimeUnit.SECONDS);
+				int value = ((Integer)message.getPayload())/10;
+				assertThat(value, greaterThan(last[value%3]));
+				last[value%3] = value;
+			}
+		}
+	}
+
+	@WebIntegrationTest({"template=function","inputType=String","code=return s -> s.toUpperCase();",
+			"processors.length=return s -> s.length();","reloadEnabled=true"})
+	public static class FunctionIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Autowired
+		private ReactiveTransformer reactiveTransformer;
+
+		@Autowired
+		private ReloadEndpoint reloadEndpoint;
+
+		@Test
+		public void testFunction() {
+			assertThat(reactiveTransformer.processor(), nullValue());
+			channels.input().send(new GenericMessage<String>("abc"));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is("ABC")));
+			reactiveTransformer.reload("return s -> s+s;");
+			channels.input().send(new GenericMessage<String>("abc"));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is("abcabc")));
+			// No latency is measured for a function swap
+			assertThat(reloadEndpoint.status().get("swapCount"), is((Object)1));
+			assertThat(reloadEndpoint.status().containsKey("lastSwapLatency"), is(false));
+			// Named processors are compiled from the same template and adapted to a Flux
+			NamedProcessors namedProcessors = reactiveTransformer.namedProcessors();
+			namedProcessors.getInputChannel("length").send(new GenericMessage<String>("abcd"));
+			assertThat(collector.forChannel(namedProcessors.getOutputChannel("length")), receivesPayloadThat(is(4)));
+		}
+	}
+
+	@WebIntegrationTest({"template=predicate","code=return p -> ((Integer)p)%2==0;"})
+	public static class PredicateIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Test
+		public void testPredicate() {
+			for (int i = 1; i <= 4; i++) {
+				channels.input().send(new GenericMessage<Integer>(i));
+			}
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(2)));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(4)));
+		}
+	}
+
+	@WebIntegrationTest({"code=return input -> input.map(batch -> ((List<?>)batch).size());",
+			"batchSize=3","batchTimeout=500"})
+	public static class BatchIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Autowired
+		private Environment environment;
+
+		@Test
+		public void testBatches() {
+			for (int i = 0; i < 7; i++) {
+				channels.input().send(new GenericMessage<Integer>(i));
+			}
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(3)));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(3)));
+			// The last batch is passed on when the timeout expires
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(1)));
+			assertThat(environment.getProperty("spring.cloud.stream.rabbit.bindings.input.consumer.acknowledgeMode"), is("MANUAL"));
+			assertThat(environment.getProperty("spring.cloud.stream.rabbit.bindings.input.consumer.prefetch"), is("3"));
+		}
+	}
+
+	@WebIntegrationTest({"code=return input -> input.map(i -> ((Integer)i)*2);",
+			"outputBatchSize=3","outputBatchLinger=500"})
+	public static class OutputBatchIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Autowired
+		private Environment environment;
+
+		@Autowired
+		private MetricsEndpoint metricsEndpoint;
+
+		@Test
+		public void testOutputBatches() {
+			for (int i = 0; i < 4; i++) {
+				channels.input().send(new GenericMessage<Integer>(i));
+			}
+			// The outputs are passed on individually, the binder batches them
+			for (int i = 0; i < 4; i++) {
+				assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(i*2)));
+			}
+			assertThat(environment.getProperty("spring.cloud.stream.rabbit.bindings.output.producer.batchingEnabled"), is("true"));
+			assertThat(environment.getProperty("spring.cloud.stream.rabbit.bindings.output.producer.batchSize"), is("3"));
+			assertThat(environment.getProperty("spring.cloud.stream.rabbit.bindings.output.producer.batchTimeout"), is("500"));
+			assertThat(environment.getProperty("spring.rabbitmq.publisher-confirms"), is("true"));
+			// Only the full batch has been published, the last output waits for the linger time
+			Map<String, Object> metrics = metricsEndpoint.invoke();
+			assertThat(metrics.get("output.batches"), is((Object)1L));
+			assertThat(metrics.get("output.messages"), is((Object)3L));
+		}
+	}
+
+	@WebIntegrationTest({"code=return input -> input.buffer(2).map(l -> Thread.currentThread().getName()+l);",
+			"scheduler=elastic","schedulerPoolSize=2","schedulerThreadName=snippet"})
+	public static class SchedulerIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Autowired
+		private MetricsEndpoint metricsEndpoint;
+
+		@Test
+		public void testScheduler() {
+			// Without a parallelism the code sees the whole input in order, on the scheduler's threads
+			for (int i = 1; i <= 4; i++) {
+				channels.input().send(new GenericMessage<Integer>(i));
+			}
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(allOf(startsWith("snippet-"), endsWith("[1, 2]"))));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(allOf(startsWith("snippet-"), endsWith("[3, 4]"))));
+			Map<String, Object> metrics = metricsEndpoint.invoke();
+			assertThat(metrics.get("scheduler.snippet.maxPoolSize"), is((Object)2));
+		}
+	}
+
+	@WebIntegrationTest({"inputType=Long","outputType=String",
+		"code=return input -> input.map(l->Long.toHexString(l*2));",
+		"processors.negate=return input -> input.map(l->Long.toString(-l));"})
+	public static class TypedIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+
+		@Autowired
+		private NamedProcessors namedProcessors;
+
+		@Test
+		public void testTyped() {
+			// The binder converts the payloads to the input type
+			channels.input().send(new GenericMessage<Object>("100"));
+			channels.input().send(new GenericMessage<Object>(8L));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is("c8")));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is("10")));
+			namedProcessors.getInputChannel("negate").send(new GenericMessage<Object>("5"));
+			assertThat(collector.forChannel(namedProcessors.getOutputChannel("negate")), receivesPayloadThat(is("-5")));
+		}
+	}
+
+	@WebIntegrationTest({"compileAsync=true","code=return input -> input.map(s->s.toString().toUpperCase());",
+		"processors.lower=return input -> input.map(s->s.toString().toLowerCase());"})
+	public static class AsyncCompilationIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+
+		@Autowired
+		private NamedProcessors namedProcessors;
+
+		@Autowired
+		private AsyncCompilation asyncCompilation;
+
+		@Test
+		public void testAsyncCompilation() {
+			// The context finished starting once the code was compiled
+			assertThat(asyncCompilation.isRunning(), is(true));
+			assertThat(asyncCompilation.getWaitTime() >= 0, is(true));
+			channels.input().send(new GenericMessage<Object>("hello"));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is("HELLO")));
+			namedProcessors.getInputChannel("lower").send(new GenericMessage<Object>("WORLD"));
+			assertThat(collector.forChannel(namedProcessors.getOutputChannel("lower")), receivesPayloadThat(is("world")));
+		}
+	}
+
+	@WebIntegrationTest({"inputType=Long","code=return input -> input.map(l -> l*2);",
+		"warmupMessages=100","warmupPayloads=1,2,3","warmupTimeout=2000"})
+	public static class WarmupIntegrationTests extends ProgrammableReactiveProcessorIntegrationTests {
+		@Autowired
+		private MetricsEndpoint metricsEndpoint;
+
+		@Test
+		public void testWarmup() {
+			Map<String, Object> metrics = metricsEndpoint.invoke();
+			assertThat(metrics.get("warmup.input.messages"), is((Object)100));
+			assertThat(metrics.get("warmup.input.outputs"), is((Object)100L));
+			// The warm up outputs are discarded
+			channels.input().send(new GenericMessage<Object>(21L));
+			assertThat(collector.forChannel(channels.output()), receivesPayloadThat(is(42L)));
+		}
+	}
+
 	// TODO local class
 
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import reactor.core.publisher.DirectProcessor;
+
+/**
+ * Verify the delegate of a SwappableReactiveProcessor can be replaced whilst input is flowing.
+ *
+ * @author Andy Clement
+ */
+public class SwappableReactiveProcessorTests {
+
+	@Test
+	public void swapWhilstFlowing() throws Exception {
+		DirectProcessor<Object> input = DirectProcessor.create();
+		SwappableReactiveProcessor processor = new SwappableReactiveProcessor(in -> in.buffer(3).map(list -> list.size()));
+		List<Object> output = new ArrayList<>();
+		processor.apply(input).subscribe(output::add);
+		input.onNext(1);
+		input.onNext(2);
+		input.onNext(3);
+		input.onNext(4);
+		assertEquals(-1,processor.getLastSwapLatency());
+
+		// The partially filled buffer is flushed by the old delegate before the new one takes over
+		processor.swap(in -> in.map(i -> ((Integer)i)*10));
+		input.onNext(5);
+		processor.swap(in -> in.map(i -> -((Integer)i)));
+		input.onNext(6);
+		input.onComplete();
+		assertEquals(Arrays.asList(3,1,50,-6),output);
+		assertEquals(2,processor.getSwapCount());
+		assertTrue(processor.getLastSwapLatency() >= 0);
+	}
+
+	@Test
+	public void swapBeforeSubscription() throws Exception {
+		SwappableReactiveProcessor processor = new SwappableReactiveProcessor(in -> in);
+		processor.swap(in -> in.map(i -> ((Integer)i)+1));
+		List<Object> output = new ArrayList<>();
+		DirectProcessor<Object> input = DirectProcessor.create();
+		processor.apply(input).subscribe(output::add);
+		input.onNext(1);
+		assertEquals(Arrays.asList(2),output);
+		assertEquals(1,processor.getSwapCount());
+	}
+
+}
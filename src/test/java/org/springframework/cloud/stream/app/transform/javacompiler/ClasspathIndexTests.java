@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.transform.javacompiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verify the package based lookups supported by ClasspathIndex.
+ *
+ * @author Andy Clement
+ */
+public class ClasspathIndexTests {
+
+	static String ThisClassFilename;
+	static String XxxClassFilename = "com/foo/Xxx.class";
+	static String YyyClassFilename = "com/bar/Yyy.class";
+
+	static String NestedJarPath = "target/test-classes/outerjar.jar";
+	static String SimpleJarPath = "target/test-classes/simplejar.jar";
+	static String TestClassesDir = "target/test-classes";
+
+	static {
+		ThisClassFilename = ClasspathIndexTests.class.getName().replace('.', '/')+".class";
+	}
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	ClasspathIndex index;
+
+	@Before
+	public void setup() {
+		index = new ClasspathIndex(NestedJarPath+File.pathSeparator+TestClassesDir+File.pathSeparator+SimpleJarPath);
+	}
+
+	@After
+	public void teardown() {
+		index.close();
+	}
+
+	@Test
+	public void packageNames() throws Exception {
+		assertEquals("",ClasspathIndex.getPackageName("Foo.class"));
+		assertEquals("a/b",ClasspathIndex.getPackageName("a/b/C.class"));
+		assertEquals("a/b",ClasspathIndex.getPackageName("BOOT-INF/classes/a/b/C.class"));
+		assertEquals("",ClasspathIndex.getPackageName("BOOT-INF/classes/C.class"));
+	}
+
+	@Test
+	public void packageListing() throws Exception {
+		List<JavaFileObject> jfos = index.list("com.foo", false);
+		assertEquals(1,jfos.size());
+		assertEquals(XxxClassFilename,jfos.get(0).getName());
+		assertEquals(0,index.list("com", false).size());
+		assertEquals(2,index.list("com", true).size());
+		assertEquals(0,index.list("made.up", true).size());
+
+		// Classes in the nested jar are in the unnamed package
+		jfos = index.list("", false);
+		assertEquals(2,jfos.size());
+		assertEquals("hello\n",IterableClasspathTests.readContent(find(jfos,"Foo.class").openInputStream()));
+	}
+
+	@Test
+	public void subpackages() throws Exception {
+		String thisPackage = ClasspathIndexTests.class.getPackage().getName();
+		assertNotNull(find(index.list(thisPackage, false),ThisClassFilename));
+		assertNotNull(find(index.list("org.springframework", true),ThisClassFilename));
+		assertNull(find(index.list("org.springframework", false),ThisClassFilename));
+		// A package that is a prefix of another (but not a parent of it) should not match
+		assertNull(find(index.list(thisPackage.substring(0,thisPackage.length()-1), true),ThisClassFilename));
+		assertTrue(index.list(null, false).size() > index.list("org", true).size());
+	}
+
+	@Test
+	public void parallelIndexing() throws Exception {
+		ClasspathIndex parallelIndex = new ClasspathIndex(NestedJarPath+File.pathSeparator+TestClassesDir+File.pathSeparator+SimpleJarPath, 4);
+		assertEquals(index.getPackageCount(),parallelIndex.getPackageCount());
+		List<JavaFileObject> expected = index.list(null, true);
+		List<JavaFileObject> actual = parallelIndex.list(null, true);
+		assertEquals(expected.size(),actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).toUri(),actual.get(i).toUri());
+		}
+		assertEquals("world\n",IterableClasspathTests.readContent(find(parallelIndex.list("", false),"Bar.class").openInputStream()));
+		parallelIndex.close();
+	}
+
+	@Test
+	public void sharedIndexes() throws Exception {
+		File jar = temporaryFolder.newFile("copy.jar");
+		Files.copy(new File(SimpleJarPath).toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		ClasspathIndexCache cache = new ClasspathIndexCache();
+		ClasspathIndex first = cache.acquire(jar.getPath());
+		ClasspathIndex second = cache.acquire(jar.getPath());
+		assertSame(first,second);
+		cache.release(second);
+
+		// A modified classpath entry causes a rebuild, the old index remains usable until released
+		jar.setLastModified(jar.lastModified()-10000);
+		ClasspathIndex third = cache.acquire(jar.getPath());
+		assertNotSame(first,third);
+		assertEquals("fake\n",IterableClasspathTests.readContent(first.list("com.foo", false).get(0).openInputStream()));
+		cache.release(first);
+		cache.release(third);
+
+		cache.invalidate();
+		ClasspathIndex fourth = cache.acquire(jar.getPath());
+		assertNotSame(third,fourth);
+		assertEquals(1,fourth.list("com.bar", false).size());
+		cache.release(fourth);
+		cache.close();
+	}
+
+	@Test
+	public void indexingParallelism() throws Exception {
+		ClasspathIndexCache cache = new ClasspathIndexCache();
+		assertEquals(1,cache.getIndexingParallelism());
+		cache.setIndexingParallelism(0);
+		assertEquals(Runtime.getRuntime().availableProcessors(),cache.getIndexingParallelism());
+		cache.setIndexingParallelism(3);
+		assertEquals(3,cache.getIndexingParallelism());
+		cache.close();
+	}
+
+	// ---
+
+	private JavaFileObject find(List<JavaFileObject> jfos, String lookingFor) {
+		for (JavaFileObject jfo: jfos) {
+			if (jfo.getName().equals(lookingFor)) {
+				return jfo;
+			}
+		}
+		return null;
+	}
+
+}
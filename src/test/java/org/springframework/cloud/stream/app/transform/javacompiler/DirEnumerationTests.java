@@ -85,6 +85,24 @@ public class DirEnumerationTests {
 		e.getName(File.createTempFile("tmp",null));
 	}
 	
+	@Test
+	public void packageTargeted() throws Exception {
+		String packagePath = Foo.class.getPackage().getName().replace('.', '/');
+		DirEnumeration e = new DirEnumeration(new File("target/test-classes"), false, packagePath, "made/up/path");
+		File foo = find(e,FooClassFilename);
+		assertEquals(Foo.class.getName().replace('.', '/')+".class",e.getName(foo));
+		while (e.hasMoreElements()) {
+			// Only the files directly in the package directory are visited
+			assertEquals(packagePath,e.getName(e.nextElement().getParentFile()));
+		}
+
+		// Without recursion nothing below the start directory is visited
+		e = new DirEnumeration(new File("target/test-classes"), false, "org/springframework");
+		assertFalse(e.hasMoreElements());
+		e = new DirEnumeration(new File("target/test-classes"), true, "org/springframework");
+		assertTrue(find(e,FooClassFilename) != null);
+	}
+
 	// ---
 	
 	private File find(DirEnumeration e, String name) {
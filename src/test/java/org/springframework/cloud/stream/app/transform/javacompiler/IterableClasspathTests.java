@@ -20,14 +20,21 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.file.Files;
 import java.util.Iterator;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
 import java.util.NoSuchElementException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import javax.tools.JavaFileObject;
 import javax.tools.JavaFileObject.Kind;
@@ -36,6 +43,7 @@ import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Verify that IterableClasspath behaves and also that the various iterators it can produce
@@ -61,6 +69,9 @@ public class IterableClasspathTests {
 	
 	@Rule
 	public final ExpectedException exception = ExpectedException.none();
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
 	
 	@Test
 	public void badentries() throws Exception {
@@ -219,6 +230,57 @@ public class IterableClasspathTests {
 		assertNotEquals(barJfo,fooJfo);
 	}
 	
+	@Test
+	public void nestedArchiveStore() throws Exception {
+		NestedArchiveStore store = new NestedArchiveStore();
+		File outerjarFile = new File(NestedJarPath);
+		try (ZipFile outerjar = new ZipFile(outerjarFile)) {
+			ZipFile innerjar = store.getArchive(outerjarFile, outerjar, outerjar.getEntry("BOOT-INF/lib/innerjar.jar"));
+			assertSame(innerjar,store.getArchive(outerjarFile, outerjar, outerjar.getEntry("BOOT-INF/lib/innerjar.jar")));
+			assertEquals("world\n", readContent(innerjar.getInputStream(innerjar.getEntry("Bar.class"))));
+			File extractedFile = new File(innerjar.getName());
+			assertTrue(extractedFile.exists());
+			store.close();
+			assertFalse(extractedFile.exists());
+		}
+	}
+	
+	@Test
+	public void mappedCentralDirectory() throws Exception {
+		File simplejarFile = new File(SimpleJarPath);
+		byte[] prefix = "com/foo/".getBytes(StandardCharsets.UTF_8);
+		try (ZipFile simplejar = new ZipFile(simplejarFile)) {
+			Enumeration<? extends ZipEntry> entries = MappedZipEntryEnumeration.entries(simplejarFile, simplejar,
+					(buffer, offset, length) -> MappedZipEntryEnumeration.startsWith(buffer, offset, length, prefix, 0));
+			assertTrue(entries instanceof MappedZipEntryEnumeration);
+			assertTrue(entries.hasMoreElements());
+			assertEquals("com/foo/", entries.nextElement().getName());
+			assertEquals(XxxClassFilename, entries.nextElement().getName());
+			assertFalse(entries.hasMoreElements());
+			exception.expect(NoSuchElementException.class);
+			entries.nextElement();
+		}
+	}
+	
+	@Test
+	public void mappedCentralDirectoryOfPrefixedArchive() throws Exception {
+		// Like an executable boot jar, the offsets in the archive do not include the script in front of it
+		File prefixedjarFile = temporaryFolder.newFile("prefixedjar.jar");
+		try (OutputStream output = Files.newOutputStream(prefixedjarFile.toPath())) {
+			output.write("#!/bin/bash\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.UTF_8));
+			output.write(Files.readAllBytes(new File(SimpleJarPath).toPath()));
+		}
+		byte[] prefix = "com/foo/".getBytes(StandardCharsets.UTF_8);
+		try (ZipFile prefixedjar = new ZipFile(prefixedjarFile)) {
+			Enumeration<? extends ZipEntry> entries = MappedZipEntryEnumeration.entries(prefixedjarFile, prefixedjar,
+					(buffer, offset, length) -> MappedZipEntryEnumeration.startsWith(buffer, offset, length, prefix, 0));
+			assertTrue(entries instanceof MappedZipEntryEnumeration);
+			assertEquals("com/foo/", entries.nextElement().getName());
+			assertEquals(XxxClassFilename, entries.nextElement().getName());
+			assertFalse(entries.hasMoreElements());
+		}
+	}
+
 	@Test
 	public void jarsAndDirs() throws Exception {
 		IterableClasspath icp = new IterableClasspath(NestedJarPath+File.pathSeparator+TestClassesDir+File.pathSeparator+SimpleJarPath, null, false);
@@ -278,6 +278,38 @@ public class MemoryBasedJavaFileManagerTests {
 		assertTrue(jfm.isSameFile(jfo,jfo2));
 	}
 
+	@Test
+	public void sameFileAcrossListings() throws Exception {
+		ClasspathIndexCache classpathIndexCache = new ClasspathIndexCache();
+		MemoryBasedJavaFileManager recordingJfm = new MemoryBasedJavaFileManager(classpathIndexCache, new CompilationStatistics());
+		try {
+			JavaFileObject jfo = find(recordingJfm.list(StandardLocation.CLASS_PATH, null, null, true).iterator(),ThisClassFilename);
+			JavaFileObject jfo2 = find(recordingJfm.list(StandardLocation.CLASS_PATH, null, null, true).iterator(),ThisClassFilename);
+			assertNotNull(jfo);
+			assertTrue(recordingJfm.isSameFile(jfo,jfo2));
+		} finally {
+			recordingJfm.close();
+			classpathIndexCache.close();
+		}
+	}
+
+	@Test
+	public void readsCountedWhileRecording() throws Exception {
+		JavaFileObject jfo = find(jfm.list(StandardLocation.CLASS_PATH, null, null, true).iterator(),ThisClassFilename);
+		CompilationStatistics statistics = new CompilationStatistics();
+		try (InputStream is = jfo.openInputStream()) {
+			IterableClasspathTests.readContent(is);
+		}
+		assertEquals(0,statistics.getBytesRead());
+		ReadCountingInputStream.startRecording(statistics);
+		try (InputStream is = jfo.openInputStream()) {
+			IterableClasspathTests.readContent(is);
+		} finally {
+			ReadCountingInputStream.stopRecording();
+		}
+		assertTrue(statistics.getBytesRead() > 0);
+	}
+
 	// ---
 	
 	private JavaFileObject find(Iterator<JavaFileObject> iterator, String lookingFor) {
@@ -17,12 +17,35 @@ package org.springframework.cloud.stream.app.transform.javacompiler;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.tomcat.util.http.fileupload.ByteArrayOutputStream;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.cloud.stream.app.transform.ProcessorFactory;
 import org.springframework.cloud.stream.app.transform.ReactiveProcessor;
 import org.springframework.cloud.stream.app.transform.ReactiveTransformer;
@@ -34,6 +57,12 @@ import reactor.core.publisher.Flux;
  * @author Mark Fisher
  */
 public class RuntimeJavaCompilerTests {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
 		
 	@Test
 	public void basicCompile() throws Exception {
@@ -51,6 +80,87 @@ public class RuntimeJavaCompilerTests {
 		Assert.assertEquals("hello world\n",output);
 	}
 	
+	@Test
+	public void repeatedCompile() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		for (int i = 0; i < 3; i++) {
+			CompilationResult cr = rjc.compile("a.b.c.Foo",
+					"package a.b.c;\n"+
+					"public class Foo {\n"+
+					"  public static void main(String[] argv) {\n"+
+					"    System.out.println(\"hello \"+java.util.Arrays.asList("+i+"));\n"+
+					"  }\n"+
+					"}");
+			Assert.assertTrue(cr.wasSuccessful());
+			Assert.assertEquals("hello ["+i+"]\n",captureOutputDuringRunOfMainMethod(cr.getCompiledClasses().get(0)));
+		}
+		rjc.close();
+	}
+
+	@Test
+	public void cachedCompile() throws Exception {
+		File cacheDirectory = temporaryFolder.newFolder();
+		String source = 
+				"package a.b.c;\n"+
+				"public class Foo {\n"+
+				"  public static void main(String[] argv) {\n"+
+				"    System.out.println(\"hello cache\");\n"+
+				"  }\n"+
+				"}";
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		rjc.setCompiledClassCache(new CompiledClassCache(cacheDirectory));
+		CompilationResult cr = rjc.compile("a.b.c.Foo", source);
+		Assert.assertTrue(cr.wasSuccessful());
+		assertEquals(1, cacheDirectory.listFiles().length);
+
+		// A new compiler sharing the cache directory should not need to compile
+		rjc = new RuntimeJavaCompiler();
+		rjc.setCompiledClassCache(new CompiledClassCache(cacheDirectory));
+		cr = rjc.compile("a.b.c.Foo", source);
+		Assert.assertTrue(cr.wasSuccessful());
+		Assert.assertEquals("hello cache\n",captureOutputDuringRunOfMainMethod(cr.getCompiledClasses().get(0)));
+		assertEquals(1, cacheDirectory.listFiles().length);
+		Assert.assertTrue(cr.getStatistics().isFromCache());
+		assertEquals(0, cr.getStatistics().getListCalls());
+
+		// Different source, different entry
+		cr = rjc.compile("a.b.c.Foo", source.replace("hello cache", "goodbye cache"));
+		Assert.assertEquals("goodbye cache\n",captureOutputDuringRunOfMainMethod(cr.getCompiledClasses().get(0)));
+		assertEquals(2, cacheDirectory.listFiles().length);
+	}
+	
+	@Test
+	public void precompiledCompile() throws Exception {
+		String source = 
+				"package a.b.c;\n"+
+				"public class Foo {\n"+
+				"  public static void main(String[] argv) {\n"+
+				"    System.out.println(\"hello precompiled\");\n"+
+				"  }\n"+
+				"}";
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		CompilationResult cr = rjc.compile("a.b.c.Foo", source);
+		Assert.assertTrue(cr.wasSuccessful());
+		for (File output: new File[] { temporaryFolder.newFolder(), new File(temporaryFolder.getRoot(), "precompiled.jar") }) {
+			PrecompiledClasses.write(output, Collections.singletonMap(PrecompiledClasses.computeKey("a.b.c.Foo", source),
+					cr.getCompiledClassDefinitions()));
+			try (URLClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, null)) {
+				PrecompiledClasses precompiledClasses = new PrecompiledClasses(loader);
+				Assert.assertTrue(precompiledClasses.isPresent());
+				RuntimeJavaCompiler precompiledRjc = new RuntimeJavaCompiler();
+				precompiledRjc.setPrecompiledClasses(precompiledClasses);
+				CompilationResult precompiledCr = precompiledRjc.compile("a.b.c.Foo", source);
+				Assert.assertTrue(precompiledCr.getStatistics().isFromCache());
+				assertEquals(0, precompiledCr.getStatistics().getListCalls());
+				Assert.assertEquals("hello precompiled\n",captureOutputDuringRunOfMainMethod(precompiledCr.getCompiledClasses().get(0)));
+
+				// Different source is not found
+				Assert.assertNull(precompiledClasses.load("a.b.c.Foo", source.replace("hello", "goodbye")));
+			}
+		}
+		rjc.close();
+	}
+
 	@Test
 	public void compileError() throws Exception {
 		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
@@ -102,6 +212,292 @@ public class RuntimeJavaCompilerTests {
                 "==========\n", cr.getCompilationMessages().get(0).toString());
 	}
 	
+	@Test
+	public void ecjCompile() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		rjc.setCompilerBackend(RuntimeJavaCompiler.createCompilerBackend("ecj"));
+		CompilationResult cr = rjc.compile("a.b.c.Foo",
+				"package a.b.c;\n"+
+				"public class Foo {\n"+
+				"  public static void main(String[] argv) {\n"+
+				"    Runnable r = () -> System.out.println(\"hello \"+java.util.Arrays.asList(\"ecj\"));\n"+
+				"    r.run();\n"+
+				"  }\n"+
+				"}");
+		Assert.assertTrue(cr.toString(),cr.wasSuccessful());
+		Assert.assertEquals("hello [ecj]\n",captureOutputDuringRunOfMainMethod(cr.getCompiledClasses().get(0)));
+		rjc.close();
+	}
+
+	@Test
+	public void forkedCompile() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		ForkedCompilerBackend forkedCompilerBackend = (ForkedCompilerBackend)RuntimeJavaCompiler.createCompilerBackend("forked");
+		forkedCompilerBackend.setWorkerBackend("ecj");
+		rjc.setCompilerBackend(forkedCompilerBackend);
+		CompilationResult cr = rjc.compile("a.b.c.Foo",
+				"package a.b.c;\n"+
+				"public class Foo {\n"+
+				"  public static void main(String[] argv) {\n"+
+				"    Runnable r = () -> System.out.println(\"hello \"+java.util.Arrays.asList(\"forked\"));\n"+
+				"    r.run();\n"+
+				"  }\n"+
+				"}");
+		Assert.assertTrue(cr.toString(),cr.wasSuccessful());
+		Assert.assertEquals("hello [forked]\n",captureOutputDuringRunOfMainMethod(cr.getCompiledClasses().get(0)));
+		// The phases were timed in the child
+		Assert.assertTrue(cr.getStatistics().getListCalls() > 0);
+		rjc.close();
+	}
+
+	@Test
+	public void forkedCompileError() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		ForkedCompilerBackend forkedCompilerBackend = new ForkedCompilerBackend();
+		forkedCompilerBackend.setWorkerBackend("ecj");
+		rjc.setCompilerBackend(forkedCompilerBackend);
+		String source =
+				"package a.b.c;\n"+
+				"public class Foo {\n"+
+				"  public static void main(Strin[] argv) {\n"+
+				"    System.out.println(\"hello world\");\n"+
+				"  }\n"+
+				"}";
+		CompilationResult cr = rjc.compile("a.b.c.Foo",source);
+		Assert.assertFalse(cr.wasSuccessful());
+		CompilationMessage compilationMessage = cr.getCompilationMessages().get(0);
+		assertEquals(CompilationMessage.Kind.ERROR,compilationMessage.getKind());
+		assertEquals("Strin cannot be resolved to a type",compilationMessage.getMessage());
+		assertEquals(source,compilationMessage.getSourceCode());
+		assertEquals(60,compilationMessage.getStartPosition());
+		rjc.close();
+	}
+
+	@Test
+	public void forkedCompileTimeout() throws Exception {
+		ForkedCompilerBackend forkedCompilerBackend = new ForkedCompilerBackend() {
+			@Override
+			List<String> buildCommand() {
+				String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+				return Arrays.asList(java, "-cp", System.getProperty("java.class.path"), UnresponsiveWorker.class.getName());
+			}
+		};
+		forkedCompilerBackend.setTimeout(1);
+		long stime = System.nanoTime();
+		CompilationResult cr = forkedCompilerBackend.compile("a.b.c.Foo", "package a.b.c;\npublic class Foo {}", new ClasspathIndexCache());
+		Assert.assertFalse(cr.wasSuccessful());
+		assertEquals("Compiler worker did not answer within 1 seconds",cr.getCompilationMessages().get(0).getMessage());
+		Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()-stime) < 10);
+	}
+
+	/**
+	 * A compiler worker that never reads the request or answers.
+	 */
+	public static class UnresponsiveWorker {
+		public static void main(String[] args) throws InterruptedException {
+			Thread.sleep(Long.MAX_VALUE);
+		}
+	}
+
+	@Test
+	public void compileServer() throws Exception {
+		CompileServer compileServer = new CompileServer(0, new EcjCompilerBackend(), new ClasspathIndexCache(), tokenFile());
+		compileServer.start();
+		try {
+			RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+			CompileServerBackend compileServerBackend = (CompileServerBackend)RuntimeJavaCompiler.createCompilerBackend("server");
+			compileServerBackend.setPort(compileServer.getPort());
+			compileServerBackend.setTokenFile(tokenFile());
+			rjc.setCompilerBackend(compileServerBackend);
+			CompilationResult cr = rjc.compile("a.b.c.Foo",
+					"package a.b.c;\n"+
+					"public class Foo {\n"+
+					"  public static void main(String[] argv) {\n"+
+					"    System.out.println(\"hello server\");\n"+
+					"  }\n"+
+					"}");
+			Assert.assertTrue(cr.toString(),cr.wasSuccessful());
+			Assert.assertEquals("hello server\n",captureOutputDuringRunOfMainMethod(cr.getCompiledClasses().get(0)));
+			assertEquals(1,compileServer.getRequests());
+			assertEquals(1,compileServer.getCompilations());
+			rjc.close();
+		} finally {
+			compileServer.close();
+		}
+	}
+
+	@Test
+	public void compileServerDeduplicatesConcurrentRequests() throws Exception {
+		CompileServer compileServer = new CompileServer(0, new EcjCompilerBackend(), new ClasspathIndexCache(), tokenFile());
+		try {
+			String source = "package a.b.c;\npublic class Foo {}";
+			List<Future<CompilationResult>> results = new ArrayList<>();
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(() -> compileServer.compile("a.b.c.Foo", source)));
+			}
+			for (Future<CompilationResult> result: results) {
+				Assert.assertTrue(result.get().wasSuccessful());
+			}
+			executor.shutdown();
+			assertEquals(4,compileServer.getCompilations()+compileServer.getDeduplicated());
+			Assert.assertTrue(compileServer.getDeduplicated() > 0);
+		} finally {
+			compileServer.close();
+		}
+	}
+
+	@Test
+	public void compileServerNotAvailable() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		CompileServerBackend compileServerBackend = new CompileServerBackend();
+		// Nothing listening on the port of a closed server
+		CompileServer compileServer = new CompileServer(0, new EcjCompilerBackend(), new ClasspathIndexCache(), tokenFile());
+		compileServer.close();
+		compileServerBackend.setPort(compileServer.getPort());
+		compileServerBackend.setTokenFile(tokenFile());
+		compileServerBackend.setFallbackBackend(new EcjCompilerBackend());
+		rjc.setCompilerBackend(compileServerBackend);
+		CompilationResult cr = rjc.compile("a.b.c.Foo", "package a.b.c;\npublic class Foo {}");
+		Assert.assertTrue(cr.toString(),cr.wasSuccessful());
+		rjc.close();
+	}
+
+	@Test
+	public void compileServerImpostor() throws Exception {
+		CompileServer.createToken(tokenFile());
+		// Something else listening on the port, that does not have the token, answers the handshake
+		try (ServerSocket impostor = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			Thread thread = new Thread(() -> {
+				try (Socket socket = impostor.accept()) {
+					DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+					CompilerWorker.readBytes(new DataInputStream(socket.getInputStream()));
+					CompilerWorker.writeBytes(dos, new byte[32]);
+					CompilerWorker.writeBytes(dos, new byte[16]);
+					dos.flush();
+					Thread.sleep(5000);
+				} catch (Exception e) {
+					// Client closed the connection
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+			CompileServerBackend compileServerBackend = new CompileServerBackend();
+			compileServerBackend.setPort(impostor.getLocalPort());
+			compileServerBackend.setTokenFile(tokenFile());
+			CountingBackend fallback = new CountingBackend();
+			compileServerBackend.setFallbackBackend(fallback);
+			CompilationResult cr = compileServerBackend.compile("a.b.c.Foo", "package a.b.c;\npublic class Foo {}", new ClasspathIndexCache());
+			Assert.assertTrue(cr.toString(),cr.wasSuccessful());
+			assertEquals(1,fallback.compilations);
+		}
+	}
+
+	@Test
+	public void compileServerStalled() throws Exception {
+		CompileServer.createToken(tokenFile());
+		// Accepts connections but never answers
+		try (ServerSocket stalled = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			CompileServerBackend compileServerBackend = new CompileServerBackend();
+			compileServerBackend.setPort(stalled.getLocalPort());
+			compileServerBackend.setTokenFile(tokenFile());
+			compileServerBackend.setReadTimeout(500);
+			CountingBackend fallback = new CountingBackend();
+			compileServerBackend.setFallbackBackend(fallback);
+			CompilationResult cr = compileServerBackend.compile("a.b.c.Foo", "package a.b.c;\npublic class Foo {}", new ClasspathIndexCache());
+			Assert.assertTrue(cr.toString(),cr.wasSuccessful());
+			assertEquals(1,fallback.compilations);
+		}
+	}
+
+	@Test
+	public void compileServerTokenFileMustBePrivate() throws Exception {
+		Path tokenFile = tokenFile();
+		CompileServer.createToken(tokenFile);
+		if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			assertEquals("rw-------",PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+			Files.setPosixFilePermissions(tokenFile, PosixFilePermissions.fromString("rw-r--r--"));
+			expectedException.expect(IOException.class);
+			CompileServer.readToken(tokenFile);
+		}
+	}
+
+	private Path tokenFile() {
+		return temporaryFolder.getRoot().toPath().resolve("compile-server").resolve("token");
+	}
+
+	/**
+	 * Compiles in process, counting the compilations.
+	 */
+	static class CountingBackend extends EcjCompilerBackend {
+
+		int compilations;
+
+		@Override
+		public CompilationResult compile(String className, String classSourceCode, ClasspathIndexCache classpathIndexCache) {
+			compilations++;
+			return super.compile(className, classSourceCode, classpathIndexCache);
+		}
+	}
+
+	@Test
+	public void ecjCompileError() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		rjc.setCompilerBackend(new EcjCompilerBackend());
+		CompilationResult cr = rjc.compile("a.b.c.Foo",
+				"package a.b.c;\n"+
+				"public class Foo {\n"+
+				"  public static void main(Strin[] argv) {\n"+
+				"    System.out.println(\"hello world\");\n"+
+				"  }\n"+
+				"}");
+		Assert.assertFalse(cr.wasSuccessful());
+		Assert.assertEquals(0,cr.getCompiledClasses().size());
+		CompilationMessage compilationMessage = cr.getCompilationMessages().get(0);
+		assertEquals(CompilationMessage.Kind.ERROR,compilationMessage.getKind());
+		assertEquals("Strin cannot be resolved to a type",compilationMessage.getMessage());
+		assertEquals(60,compilationMessage.getStartPosition());
+		assertEquals(65,compilationMessage.getEndPosition());
+		rjc.close();
+	}
+
+	@Test
+	public void statistics() throws Exception {
+		for (String backend: new String[] { JavacCompilerBackend.NAME, EcjCompilerBackend.NAME }) {
+			RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+			rjc.setCompilerBackend(RuntimeJavaCompiler.createCompilerBackend(backend));
+			CompilationResult cr = rjc.compile("a.b.c.Foo",
+					"package a.b.c;\n"+
+					"public class Foo {\n"+
+					"  Runnable r = new Runnable() { public void run() { System.out.println(java.util.Arrays.asList(1)); }};\n"+
+					"}");
+			Assert.assertTrue(cr.toString(),cr.wasSuccessful());
+			CompilationStatistics statistics = cr.getStatistics();
+			Assert.assertFalse(statistics.isFromCache());
+			Assert.assertEquals(2,statistics.getClassesProduced());
+			Assert.assertTrue(backend,statistics.getListCalls() > 0);
+			Assert.assertTrue(backend,statistics.getEntriesAccepted() > 0);
+			Assert.assertTrue(backend,statistics.getEntriesScanned() >= statistics.getEntriesAccepted());
+			Assert.assertTrue(backend,statistics.getBytesRead() > 0);
+			Assert.assertTrue(backend,statistics.getPhaseTime(CompilationStatistics.Phase.LISTING) > 0);
+			Assert.assertTrue(backend,statistics.getPhaseTime(CompilationStatistics.Phase.DEFINE) > 0);
+			Assert.assertTrue(backend,statistics.getElapsedTime() >= statistics.getPhaseTime(CompilationStatistics.Phase.DEFINE));
+			if (backend.equals(JavacCompilerBackend.NAME)) {
+				// ecj only measures to the millisecond
+				Assert.assertTrue(statistics.getPhaseTime(CompilationStatistics.Phase.PARSE) > 0);
+				Assert.assertTrue(statistics.getPhaseTime(CompilationStatistics.Phase.ANALYZE) > 0);
+				Assert.assertTrue(statistics.getPhaseTime(CompilationStatistics.Phase.GENERATE) > 0);
+			}
+			rjc.close();
+		}
+	}
+
+	@Test
+	public void unknownBackend() throws Exception {
+		expectedException.expect(IllegalArgumentException.class);
+		RuntimeJavaCompiler.createCompilerBackend("jikes");
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Test
 	public void realTemplate() throws Exception {
@@ -119,6 +515,61 @@ public class RuntimeJavaCompilerTests {
 		Object resultElement = output.blockFirst();
 		Assert.assertEquals(42, resultElement); // Should be the total of the inputs
 	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void typedTemplate() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		// No casts or conversions needed in the snippet
+		String insert = "return input -> input.buffer(3).map(is->{long sum=0;for (long i: is) sum+=i; return \"sum=\"+sum;});";
+		String source = ReactiveTransformer.makeSourceClassDefinition(insert, "Long", "String");
+		CompilationResult cr = rjc.compile("org.springframework.cloud.stream.app.transform.ReactiveClass", source);
+		if (!cr.wasSuccessful()) {
+			Assert.fail("Compilation does not appear to have worked:\n"+cr.toString());
+		}
+		ReactiveProcessor rp = invokeGetProcessor(cr.getCompiledClasses().get(0));
+		Flux output = rp.process(Flux.just(1L,2L,3L));
+		Assert.assertEquals("sum=6", output.blockFirst());
+		rjc.close();
+	}
+
+	@Test
+	public void functionTemplates() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		String source = ReactiveTransformer.makeSourceClassDefinition("function", "return l -> Long.toHexString(l);", "Long", "String", null);
+		CompilationResult cr = rjc.compile("org.springframework.cloud.stream.app.transform.ReactiveClass", source);
+		if (!cr.wasSuccessful()) {
+			Assert.fail("Compilation does not appear to have worked:\n"+cr.toString());
+		}
+		ProcessorFactory processorFactory = (ProcessorFactory)cr.getCompiledClasses().get(0).newInstance();
+		Assert.assertEquals("ff", processorFactory.getFunction().apply(255L));
+		Assert.assertEquals("10", processorFactory.getProcessor().apply(Flux.just(16L)).blockFirst());
+
+		source = ReactiveTransformer.makeSourceClassDefinition("predicate", "return s -> s.startsWith(\"a\");", "String", "Object", null);
+		cr = rjc.compile("org.springframework.cloud.stream.app.transform.ReactiveClass", source);
+		if (!cr.wasSuccessful()) {
+			Assert.fail("Compilation does not appear to have worked:\n"+cr.toString());
+		}
+		processorFactory = (ProcessorFactory)cr.getCompiledClasses().get(0).newInstance();
+		Assert.assertEquals("abc", processorFactory.getFunction().apply("abc"));
+		Assert.assertNull(processorFactory.getFunction().apply("def"));
+		Assert.assertEquals("[abc, aaa]", processorFactory.getProcessor().apply(Flux.just("abc","def","aaa")).collectList().block().toString());
+		rjc.close();
+	}
+
+	@Test
+	public void partitionKeyTemplate() throws Exception {
+		RuntimeJavaCompiler rjc = new RuntimeJavaCompiler();
+		String source = ReactiveTransformer.makeSourceClassDefinition("return input -> input;", "Object", "Object",
+				"return payload -> ((Map)payload).get(\"account\");");
+		CompilationResult cr = rjc.compile("org.springframework.cloud.stream.app.transform.ReactiveClass", source);
+		if (!cr.wasSuccessful()) {
+			Assert.fail("Compilation does not appear to have worked:\n"+cr.toString());
+		}
+		ProcessorFactory processorFactory = (ProcessorFactory)cr.getCompiledClasses().get(0).newInstance();
+		Assert.assertEquals("acme", processorFactory.getPartitionKey().apply(Collections.singletonMap("account", "acme")));
+		rjc.close();
+	}
 	
 	// ---
 	